@@ -1,6 +1,7 @@
 package es.garce.sample;
 
 import android.os.Bundle;
+import android.support.annotation.Nullable;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
@@ -13,10 +14,14 @@ import es.garce.simplelock.SimpleLockNewActivity;
 
 public class MainActivity extends AppCompatActivity implements OnEnterPin, OnNewPin {
 
+    private static final String TAG = "MAIN";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        SimpleLockActivity.registerListener(this, TAG, this);
+        SimpleLockNewActivity.registerListener(this, TAG, this);
 
         try {
             SimpleLock.configure(this, true, true, 1, 4, true);
@@ -26,11 +31,11 @@ public class MainActivity extends AppCompatActivity implements OnEnterPin, OnNew
     }
 
     public void newPin (View view) {
-        SimpleLockNewActivity.newPin(this, this, -1, "MAIN");
+        SimpleLockNewActivity.newPinForResult(this, TAG, -1, "MAIN");
     }
 
     public void secret (View view) {
-        SimpleLockActivity.requestPin(this, this, "MAIN");
+        SimpleLockActivity.requestPinForResult(this, TAG, "MAIN");
     }
 
     @Override
@@ -39,36 +44,39 @@ public class MainActivity extends AppCompatActivity implements OnEnterPin, OnNew
     }
 
     @Override
-    public void onCorrectPin(SimpleLockActivity simpleLockActivity) {
+    public void onCorrectPin(@Nullable SimpleLockActivity simpleLockActivity) {
         Log.e("MAIN", "Correct");
-        simpleLockActivity.finish();
+        if (simpleLockActivity != null)
+            simpleLockActivity.finish();
     }
 
     @Override
-    public void onWrongPin(SimpleLockActivity simpleLockActivity) {
+    public void onWrongPin(@Nullable SimpleLockActivity simpleLockActivity) {
         Log.e("MAIN", "Wrong");
     }
 
     @Override
-    public void onBack(SimpleLockActivity simpleLockActivity) {
+    public void onBack(@Nullable SimpleLockActivity simpleLockActivity) {
         Log.e("MAIN", "Back");
-        simpleLockActivity.finish();
+        if (simpleLockActivity != null)
+            simpleLockActivity.finish();
     }
 
     @Override
-    public boolean onDone(SimpleLockNewActivity simpleLockActivity, String pin) {
+    public boolean onDone(@Nullable SimpleLockNewActivity simpleLockActivity, String pin) {
         Log.e("MAIN", "Saved");
         //simpleLockActivity.finish();
         return true;
     }
 
     @Override
-    public void onError(SimpleLockNewActivity simpleLockActivity, int code) {
+    public void onError(@Nullable SimpleLockNewActivity simpleLockActivity, int code) {
         Log.e("MAIN", "Error new: "+code);
     }
 
     @Override
-    public void onSaved(SimpleLockNewActivity simpleLockActivity, String pin) {
-        simpleLockActivity.finish();
+    public void onSaved(@Nullable SimpleLockNewActivity simpleLockActivity, String pin) {
+        if (simpleLockActivity != null)
+            simpleLockActivity.finish();
     }
 }
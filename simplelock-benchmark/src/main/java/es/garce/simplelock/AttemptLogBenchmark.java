@@ -0,0 +1,61 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link AttemptLog}: an append, as the lock does on every submitted pin, and a query of the
+ * failures of a key over the whole log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttemptLogBenchmark {
+
+    private File file;
+    private AttemptLog log;
+    private long time = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("attempts", ".log");
+        if (!file.delete())
+            throw new IOException("Can't delete " + file);
+        log = AttemptLog.open(file);
+        for (int i = 0; i < log.capacity(); i++)
+            log.append(i % 2 == 0 ? "MAIN" : "PAYMENTS", i, AttemptLog.WRONG, 150000000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        if (!file.delete())
+            file.deleteOnExit();
+    }
+
+    @Benchmark
+    public void append() {
+        log.append("MAIN", time++, AttemptLog.CORRECT, 150000000);
+    }
+
+    @Benchmark
+    public int countFailures() {
+        return log.countFailures("MAIN", 0, Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,47 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings lookups: reading the published {@link LockConfig} snapshot, as the lock does on every
+ * start, and building a new one, as every settings change does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+
+    private volatile LockConfig config = new LockConfig.Builder().setMaxLength(6).build();
+
+    @Benchmark
+    public void readSnapshot(Blackhole bh) {
+        LockConfig current = config;
+        bh.consume(current.isShowPreview());
+        bh.consume(current.isShowPlaceholder());
+        bh.consume(current.isShuffleButtons());
+        bh.consume(current.getMaxLength());
+        bh.consume(current.getMinLength());
+        bh.consume(current.isVerifyAsync());
+    }
+
+    @Benchmark
+    public LockConfig publishChange() {
+        LockConfig changed = config.buildUpon().setShuffleButtons(!config.isShuffleButtons()).build();
+        config = changed;
+        return changed;
+    }
+}
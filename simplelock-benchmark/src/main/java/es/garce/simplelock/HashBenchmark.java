@@ -0,0 +1,65 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legacy SHA-1 pin hashing: digest creation, Base64 encoding and the full check of a legacy hash
+ * by {@link PinHasher}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    private final byte[] pin = "1234".getBytes();
+    private final PinHasher hasher = new PinHasher();
+    private MessageDigest cachedDigest;
+    private byte[] digest;
+    private String encoded;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        cachedDigest = MessageDigest.getInstance("SHA-1");
+        digest = cachedDigest.digest(pin);
+        encoded = PinBase64.encode(digest);
+    }
+
+    @Benchmark
+    public byte[] sha1NewDigest() throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        md.update(pin, 0, pin.length);
+        return md.digest();
+    }
+
+    @Benchmark
+    public byte[] sha1CachedDigest() {
+        cachedDigest.update(pin, 0, pin.length);
+        return cachedDigest.digest();
+    }
+
+    @Benchmark
+    public String base64Encode() {
+        return PinBase64.encode(digest);
+    }
+
+    @Benchmark
+    public boolean legacyCheck() throws NoSuchAlgorithmException {
+        return hasher.verify(pin, pin.length, encoded);
+    }
+}
@@ -0,0 +1,39 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PBKDF2-HMAC-SHA256 derivation used to hash and check pins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KdfBenchmark {
+
+    @Param({"1000", "10000"})
+    public int iterations;
+
+    private final Pbkdf2Sha256 kdf = new Pbkdf2Sha256();
+    private final byte[] pin = "1234".getBytes();
+    private final byte[] salt = new byte[16];
+
+    @Benchmark
+    public byte[] derive() throws GeneralSecurityException {
+        return kdf.derive(pin, pin.length, salt, iterations);
+    }
+}
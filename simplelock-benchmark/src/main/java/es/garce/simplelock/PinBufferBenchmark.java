@@ -0,0 +1,75 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typing a pin: the {@link PinBuffer} used by the lock against the String concatenation it
+ * replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinBufferBenchmark {
+
+    private final PinBuffer buffer = new PinBuffer(6);
+    private final PinBuffer other = new PinBuffer(6);
+    private final String otherString = "123456";
+
+    @Setup
+    public void setUp() {
+        for (int i = 1; i <= 6; i++)
+            other.append(i);
+    }
+
+    @Benchmark
+    public int typePinBuffer() {
+        for (int i = 1; i <= 6; i++)
+            buffer.append(i);
+        buffer.delete();
+        buffer.append(6);
+        int length = buffer.length();
+        buffer.clear();
+        return length;
+    }
+
+    @Benchmark
+    public int typeString() {
+        String pin = "";
+        for (int i = 1; i <= 6; i++)
+            pin += String.valueOf(i);
+        pin = pin.substring(0, pin.length() - 1);
+        pin += "6";
+        return pin.length();
+    }
+
+    @Benchmark
+    public boolean comparePinBuffer() {
+        for (int i = 1; i <= 6; i++)
+            buffer.append(i);
+        boolean equal = buffer.contentEquals(other);
+        buffer.clear();
+        return equal;
+    }
+
+    @Benchmark
+    public boolean compareString() {
+        String pin = "";
+        for (int i = 1; i <= 6; i++)
+            pin += String.valueOf(i);
+        return pin.equals(otherString);
+    }
+}
@@ -0,0 +1,54 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shuffling the ten keys of the pin pad: the in place permutation used by the pad against the
+ * list based shuffle of the button layout it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShuffleBenchmark {
+
+    private final int[] labels = {1, 2, 3, 4, 5, 6, 7, 8, 9, 0};
+    private final Random random = new SecureRandom();
+
+    @Benchmark
+    public int[] permute() {
+        Shuffle.permute(labels, random);
+        return labels;
+    }
+
+    @Benchmark
+    public int[] listShuffle() {
+        List<Integer> copy = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++)
+            copy.add(i);
+        int i = 0;
+        while (!copy.isEmpty()) {
+            int rnd = (int) (Math.random() * copy.size());
+            labels[copy.get(rnd)] = i;
+            copy.remove(rnd);
+            i++;
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,81 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks of different keys by one {@link PinVerifier} from 1 and 4 threads. With no shared lock
+ * the 4 threads run about 4 times as many checks per second, as long as the machine has the cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifierBenchmark {
+
+    private static final int KEYS = 64;
+    private static final int ITERATIONS = 2000;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        PinVerifier verifier;
+
+        @Setup
+        public void setUp() throws NoSuchAlgorithmException {
+            PinHasher hasher = new PinHasher();
+            MemoryPinStore store = new MemoryPinStore();
+            for (int i = 0; i < KEYS; i++)
+                store.put("key" + i, hasher.hash(pin(i), ITERATIONS));
+            verifier = new PinVerifier(hasher, store, ITERATIONS);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() % KEYS);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean check1Thread(Shared shared, Cursor cursor)
+            throws NoSuchAlgorithmException, IOException {
+        return check(shared, cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean check4Threads(Shared shared, Cursor cursor)
+            throws NoSuchAlgorithmException, IOException {
+        return check(shared, cursor);
+    }
+
+    private static boolean check(Shared shared, Cursor cursor)
+            throws NoSuchAlgorithmException, IOException {
+        int key = cursor.next;
+        cursor.next = (key + 7) % KEYS;
+        return shared.verifier.check("key" + key, pin(key));
+    }
+
+    private static String pin(int i) {
+        return String.format("%04d", i * 37 % 10000);
+    }
+}
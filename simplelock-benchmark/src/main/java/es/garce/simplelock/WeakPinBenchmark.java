@@ -0,0 +1,115 @@
+package es.garce.simplelock;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weak pin lookups on every key press: the memory mapped {@link WeakPinPolicy} for the exact
+ * lengths, the Bloom filter and the rules, against a set of the weak pins as Strings. The sizes of
+ * both are reported by {@link #footprint}, the allocations are measured by {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeakPinBenchmark {
+
+    private final byte[] pin4 = "7394".getBytes();
+    private final byte[] pin6 = "583920".getBytes();
+    private final byte[] pin8 = "62839471".getBytes();
+
+    /**
+     * Sizes reported next to the scores: the weak pin file and the least heap the set of Strings
+     * needs. Each entry holds a String, its char array and a node of the table, at least 80 bytes.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long fileBytes;
+        public long setBytes;
+    }
+
+    private File file;
+    private WeakPinPolicy policy;
+    private Set<String> weakSet;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("weak_pins", ".bin");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            new WeakPinGenerator().addRules(WeakPinRules.defaults())
+                    .addPin("13572468").write(out);
+        } finally {
+            out.close();
+        }
+        policy = WeakPinPolicy.open(file, WeakPinRules.defaults());
+
+        //The weak pins of the exact lengths as they would be kept without the bitset
+        weakSet = new HashSet<>();
+        for (int length = WeakPinGenerator.EXACT_MIN_LENGTH;
+             length <= WeakPinGenerator.EXACT_MAX_LENGTH; length++) {
+            for (int value = 0; value < WeakPinPolicy.space(length); value++) {
+                String pin = String.format("%0" + length + "d", value);
+                if (policy.isWeak(pin))
+                    weakSet.add(pin);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!file.delete())
+            file.deleteOnExit();
+    }
+
+    //A single measured call, as events are summed over the iterations
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public void footprint(Footprint footprint) {
+        footprint.fileBytes = policy.size();
+        footprint.setBytes = weakSet.size() * 80L;
+    }
+
+    @Benchmark
+    public boolean exact4() {
+        return policy.isWeak(pin4, pin4.length);
+    }
+
+    @Benchmark
+    public boolean exact6() {
+        return policy.isWeak(pin6, pin6.length);
+    }
+
+    @Benchmark
+    public boolean bloomAndRules8() {
+        return policy.isWeak(pin8, pin8.length);
+    }
+
+    @Benchmark
+    public boolean stringSet6() {
+        return weakSet.contains(new String(pin6));
+    }
+}
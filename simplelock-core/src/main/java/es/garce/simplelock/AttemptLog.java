@@ -0,0 +1,376 @@
+package es.garce.simplelock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Audit trail of the pins entered in a lock: key, time, outcome and latency of every attempt.
+ * Attempts are fixed size records in a memory mapped file used as a ring buffer, once it is full
+ * every new attempt replaces the oldest one.</p>
+ *
+ * <p>An append is a few writes to the mapped memory and never allocates or waits for the disk, so
+ * it can be done on the main thread. The system writes the pages back to the file, they survive a
+ * crash of the process. A record is numbered with its sequence after its other fields are
+ * written, and carries a check of its fields, so a record torn by a crash of the device is
+ * skipped.</p>
+ *
+ * <p>Keys are kept as their {@link #keyHash(String) 64 bits hash}. Readers stream the records
+ * with a {@link Cursor} without loading the file.</p>
+ *
+ * <p>Instances are thread safe but only one instance must be open for a file.</p>
+ */
+public final class AttemptLog implements Closeable {
+
+    /**
+     * Size of each record of the file.
+     */
+    public static final int RECORD_SIZE = 32;
+    /**
+     * Number of records of a new log, 128 KB.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The pin was correct.
+     */
+    public static final int CORRECT = 1;
+    /**
+     * The pin was wrong.
+     */
+    public static final int WRONG = 2;
+    /**
+     * The pin couldn't be checked.
+     */
+    public static final int ERROR = 3;
+
+    private static final int MAGIC = 0x534c414c; //SLAL
+    private static final int VERSION = 1;
+
+    //Header fields, the header takes 64 bytes
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_NEXT = 16;
+    private static final int HEADER_SIZE = 64;
+
+    //Record fields, the sequence is stored plus one so an empty record reads 0
+    private static final int RECORD_SEQUENCE = 0;
+    private static final int RECORD_TIME = 8;
+    private static final int RECORD_KEY = 16;
+    private static final int RECORD_LATENCY = 24;
+    private static final int RECORD_OUTCOME = 28;
+    private static final int RECORD_CHECK = 30;
+
+    private final RandomAccessFile data;
+    private MappedByteBuffer buffer;
+    private final int capacity;
+    private long next;
+    private boolean closed = false;
+
+    /**
+     * Streams the records of a log from the oldest to the newest, reading them from the mapped
+     * file one at a time. Records appended after the cursor was created are not read, records
+     * replaced while it reads are skipped. The values of the current record are read with the
+     * getters.
+     */
+    public final class Cursor {
+        private long position;
+        private final long end;
+
+        private long sequence;
+        private long time;
+        private long key;
+        private int latency;
+        private int outcome;
+
+        private Cursor(long start, long end) {
+            position = start;
+            this.end = end;
+        }
+
+        /**
+         * Moves to the next record.
+         * @return False if there are no more records.
+         */
+        public boolean next() {
+            synchronized (AttemptLog.this) {
+                checkOpen();
+                while (position < end) {
+                    long current = position++;
+                    if (read(current))
+                        return true;
+                }
+                return false;
+            }
+        }
+
+        /**
+         * @return Number of the attempt since the log was created.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return Time of the attempt, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return {@link #keyHash(String) Hash} of the key of the pin.
+         */
+        public long getKeyHash() {
+            return key;
+        }
+
+        /**
+         * @return Time from the tap on done to the result, in microseconds.
+         */
+        public int getLatencyMicros() {
+            return latency;
+        }
+
+        /**
+         * @return {@link #CORRECT}, {@link #WRONG} or {@link #ERROR}.
+         */
+        public int getOutcome() {
+            return outcome;
+        }
+
+        private boolean read(long wanted) {
+            int offset = offset(wanted);
+            //Replaced by a newer attempt, or torn
+            if (buffer.getLong(offset + RECORD_SEQUENCE) != wanted + 1)
+                return false;
+            sequence = wanted;
+            time = buffer.getLong(offset + RECORD_TIME);
+            key = buffer.getLong(offset + RECORD_KEY);
+            latency = buffer.getInt(offset + RECORD_LATENCY);
+            outcome = buffer.get(offset + RECORD_OUTCOME);
+            return buffer.getShort(offset + RECORD_CHECK)
+                    == check(wanted, time, key, latency, outcome);
+        }
+    }
+
+    private AttemptLog(File file, int capacity) throws IOException {
+        data = new RandomAccessFile(file, "rw");
+        try {
+            if (data.length() == 0) {
+                data.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+                map();
+                buffer.putInt(HEADER_MAGIC, MAGIC);
+                buffer.putInt(HEADER_VERSION, VERSION);
+                buffer.putInt(HEADER_CAPACITY, capacity);
+                buffer.putLong(HEADER_NEXT, 0);
+            }
+            else if (data.length() < HEADER_SIZE)
+                throw new IOException(file + " is not an attempt log");
+            else
+                map();
+            if (buffer.getInt(HEADER_MAGIC) != MAGIC)
+                throw new IOException(file + " is not an attempt log");
+            if (buffer.getInt(HEADER_VERSION) != VERSION)
+                throw new IOException("Unknown attempt log version " + buffer.getInt(HEADER_VERSION));
+            this.capacity = buffer.getInt(HEADER_CAPACITY);
+            if (this.capacity < 1 || data.length() != HEADER_SIZE + (long) this.capacity * RECORD_SIZE)
+                throw new IOException(file + " is truncated");
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        recover();
+    }
+
+    /**
+     * Opens a log, creating the file with {@link #DEFAULT_CAPACITY} records if needed. Don't call
+     * it on the main thread, it reads the whole file once to find the newest record.
+     * @param file The log file.
+     * @return The open log.
+     * @throws IOException If the file can't be opened or is not a log.
+     */
+    public static AttemptLog open(File file) throws IOException {
+        return open(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of records of the file if it is created. An existing file keeps
+     *                 its capacity.
+     */
+    public static AttemptLog open(File file, int capacity) throws IOException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        return new AttemptLog(file, capacity);
+    }
+
+    /**
+     * Records an attempt. It doesn't allocate and doesn't wait for the disk.
+     * @param key The key of the pin, or null when the application checks the pin.
+     * @param time Time of the attempt, in milliseconds since the epoch.
+     * @param outcome {@link #CORRECT}, {@link #WRONG} or {@link #ERROR}.
+     * @param latencyNanos Time from the tap on done to the result.
+     */
+    public synchronized void append(String key, long time, int outcome, long latencyNanos) {
+        checkOpen();
+        long sequence = next;
+        int offset = offset(sequence);
+        long hash = keyHash(key);
+        int latency = (int) Math.min(latencyNanos / 1000, Integer.MAX_VALUE);
+        //Invalidate the old record first, then number the new one once it is complete
+        buffer.putLong(offset + RECORD_SEQUENCE, 0);
+        buffer.putLong(offset + RECORD_TIME, time);
+        buffer.putLong(offset + RECORD_KEY, hash);
+        buffer.putInt(offset + RECORD_LATENCY, latency);
+        buffer.put(offset + RECORD_OUTCOME, (byte) outcome);
+        buffer.putShort(offset + RECORD_CHECK, check(sequence, time, hash, latency, outcome));
+        buffer.putLong(offset + RECORD_SEQUENCE, sequence + 1);
+        next = sequence + 1;
+        buffer.putLong(HEADER_NEXT, next);
+    }
+
+    /**
+     * @return A cursor over the records kept in the log, from the oldest.
+     */
+    public synchronized Cursor cursor() {
+        checkOpen();
+        return new Cursor(Math.max(0, next - capacity), next);
+    }
+
+    /**
+     * @return A cursor over the records of the last {@code count} attempts kept in the log.
+     */
+    public synchronized Cursor cursor(int count) {
+        checkOpen();
+        return new Cursor(Math.max(Math.max(0, next - capacity), next - count), next);
+    }
+
+    /**
+     * Counts the wrong pins of a key in a time window.
+     * @param key The key of the pin, null for the pins checked by the application.
+     * @param from Start of the window, in milliseconds since the epoch, included.
+     * @param to End of the window, excluded.
+     * @return Number of attempts with a wrong pin.
+     */
+    public int countFailures(String key, long from, long to) {
+        long hash = keyHash(key);
+        int failures = 0;
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            if (cursor.key == hash && cursor.outcome == WRONG
+                    && cursor.time >= from && cursor.time < to)
+                failures++;
+        }
+        return failures;
+    }
+
+    /**
+     * Counts the wrong pins of every key in a time window.
+     * @param from Start of the window, in milliseconds since the epoch, included.
+     * @param to End of the window, excluded.
+     * @return The number of attempts with a wrong pin by {@link #keyHash(String) key hash}, only
+     * for keys with any.
+     */
+    public Map<Long, Integer> failuresPerKey(long from, long to) {
+        Map<Long, Integer> failures = new HashMap<>();
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            if (cursor.outcome == WRONG && cursor.time >= from && cursor.time < to) {
+                Integer count = failures.get(cursor.key);
+                failures.put(cursor.key, count == null ? 1 : count + 1);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return Number of attempts recorded since the log was created, including the ones already
+     * replaced.
+     */
+    public synchronized long size() {
+        checkOpen();
+        return next;
+    }
+
+    /**
+     * @return Number of records the log keeps.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes the records to the disk and waits for it. Appends don't need it to survive a crash
+     * of the process, only of the device.
+     */
+    public synchronized void flush() {
+        checkOpen();
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        buffer = null;
+        data.close();
+    }
+
+    /**
+     * @param key A key, or null.
+     * @return The 64 bits FNV-1a hash of the key stored in the records, 0 for null. It doesn't
+     * allocate.
+     */
+    public static long keyHash(String key) {
+        if (key == null)
+            return 0;
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    private void map() throws IOException {
+        FileChannel channel = data.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+    }
+
+    /**
+     * Finds the newest record. The header is written after the record, a crash of the device may
+     * leave it behind.
+     */
+    private void recover() {
+        next = buffer.getLong(HEADER_NEXT);
+        for (int i = 0; i < capacity; i++) {
+            long stored = buffer.getLong(HEADER_SIZE + i * RECORD_SIZE + RECORD_SEQUENCE);
+            if (stored > next)
+                next = stored;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Log is closed");
+    }
+
+    private int offset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+    }
+
+    private static short check(long sequence, long time, long key, int latency, int outcome) {
+        long h = sequence * 0x9e3779b97f4a7c15L;
+        h = (h ^ time) * 0xff51afd7ed558ccdL;
+        h = (h ^ key) * 0xc4ceb9fe1a85ec53L;
+        h = (h ^ ((long) latency << 8 | outcome)) * 0x9e3779b97f4a7c15L;
+        return (short) (h >>> 48);
+    }
+}
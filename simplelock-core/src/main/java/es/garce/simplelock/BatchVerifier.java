@@ -0,0 +1,291 @@
+package es.garce.simplelock;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Checks or audits large sets of saved pin hashes in parallel, for example the hashes exported
+ * from many devices. The records are split between the threads of a {@link ForkJoinPool}, all the
+ * cores by default, and the {@link Report report} tells the outcome of every record and the
+ * throughput of the run.</p>
+ *
+ * <p>Records with a candidate pin are verified, records without one are only audited: the hash is
+ * parsed and its key derivation looked up without running it, so audits are fast. Both tell the
+ * hashes that {@link PinHasher#needsUpgrade(String, int) need an upgrade}.</p>
+ *
+ * <p>Instances are thread safe.</p>
+ */
+public final class BatchVerifier {
+
+    /**
+     * Outcome of a single record.
+     */
+    public enum Outcome {
+        /**
+         * The candidate matches the hash.
+         */
+        MATCH,
+        /**
+         * The candidate doesn't match the hash.
+         */
+        MISMATCH,
+        /**
+         * The hash is valid, there was no candidate to check.
+         */
+        VALID,
+        /**
+         * The hash is not a valid record.
+         */
+        MALFORMED,
+        /**
+         * The hash was created with a key derivation function that is not registered.
+         */
+        UNKNOWN_KDF
+    }
+
+    /**
+     * A saved hash together with the pin to check, if any.
+     */
+    public static final class Record {
+
+        public final String key;
+        public final String hash;
+        public final String candidate;
+
+        /**
+         * @param key The key of the pin, only used to identify the record.
+         * @param hash The saved hash.
+         * @param candidate The pin to check, or null to only audit the hash.
+         */
+        public Record(String key, String hash, String candidate) {
+            this.key = key;
+            this.hash = hash;
+            this.candidate = candidate;
+        }
+    }
+
+    /**
+     * Result of a run. Outcomes are in the same order as the records.
+     */
+    public static final class Report {
+
+        private final List<Record> records;
+        private final Outcome[] outcomes;
+        private final boolean[] upgrades;
+        private final long elapsedNanos;
+        private final int[] counts = new int[Outcome.values().length];
+        private final int upgradeCount;
+
+        Report(List<Record> records, Outcome[] outcomes, boolean[] upgrades, long elapsedNanos) {
+            this.records = records;
+            this.outcomes = outcomes;
+            this.upgrades = upgrades;
+            this.elapsedNanos = elapsedNanos;
+            int upgradeCount = 0;
+            for (int i = 0; i < outcomes.length; i++) {
+                counts[outcomes[i].ordinal()]++;
+                if (upgrades[i])
+                    upgradeCount++;
+            }
+            this.upgradeCount = upgradeCount;
+        }
+
+        /**
+         * @return Number of records processed.
+         */
+        public int size() {
+            return outcomes.length;
+        }
+
+        /**
+         * @param index Position of the record in the input list.
+         * @return The outcome of the record.
+         */
+        public Outcome getOutcome(int index) {
+            return outcomes[index];
+        }
+
+        /**
+         * @param index Position of the record in the input list.
+         * @return True if the hash of the record should be replaced.
+         */
+        public boolean needsUpgrade(int index) {
+            return upgrades[index];
+        }
+
+        /**
+         * @param index Position of the record in the input list.
+         * @return The record.
+         */
+        public Record getRecord(int index) {
+            return records.get(index);
+        }
+
+        /**
+         * @param outcome An outcome.
+         * @return Number of records with the outcome.
+         */
+        public int getCount(Outcome outcome) {
+            return counts[outcome.ordinal()];
+        }
+
+        /**
+         * @return Number of hashes that should be replaced.
+         */
+        public int getUpgradeCount() {
+            return upgradeCount;
+        }
+
+        /**
+         * @return Wall time of the run in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return Records processed per second.
+         */
+        public double getThroughput() {
+            return outcomes.length * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            return "Report{records=" + outcomes.length
+                    + ", match=" + getCount(Outcome.MATCH)
+                    + ", mismatch=" + getCount(Outcome.MISMATCH)
+                    + ", valid=" + getCount(Outcome.VALID)
+                    + ", malformed=" + getCount(Outcome.MALFORMED)
+                    + ", unknownKdf=" + getCount(Outcome.UNKNOWN_KDF)
+                    + ", upgrades=" + upgradeCount
+                    + ", elapsedMs=" + elapsedNanos / 1000000
+                    + ", perSecond=" + Math.round(getThroughput()) + "}";
+        }
+    }
+
+    //Records are verified one by one below this size, a verification is already expensive
+    private static final int VERIFY_THRESHOLD = 4;
+    //Audits only parse the hash, so more of them are kept together
+    private static final int AUDIT_THRESHOLD = 256;
+    private static final int SHA1_LENGTH = 20;
+
+    private final PinHasher hasher;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a verifier using every core.
+     * @param hasher The hasher knowing the key derivation functions of the records.
+     */
+    public BatchVerifier(PinHasher hasher) {
+        this(hasher, new ForkJoinPool());
+    }
+
+    /**
+     * @param hasher The hasher knowing the key derivation functions of the records.
+     * @param pool The pool running the checks.
+     */
+    public BatchVerifier(PinHasher hasher, ForkJoinPool pool) {
+        this.hasher = hasher;
+        this.pool = pool;
+    }
+
+    /**
+     * Processes the records. It blocks until every record is done.
+     * @param records The records to verify or audit.
+     * @param iterations The iterations current hashes are created with, older hashes with fewer
+     *                   iterations need an upgrade.
+     * @return The report of the run.
+     */
+    public Report run(List<Record> records, int iterations) {
+        records = Collections.unmodifiableList(records);
+        Outcome[] outcomes = new Outcome[records.size()];
+        boolean[] upgrades = new boolean[records.size()];
+        long start = System.nanoTime();
+        if (!records.isEmpty())
+            pool.invoke(new Task(records, outcomes, upgrades, iterations, 0, records.size()));
+        return new Report(records, outcomes, upgrades, System.nanoTime() - start);
+    }
+
+    /**
+     * Shuts down the pool. Runs already started complete.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private Outcome process(Record record) {
+        if (PinRecord.isLegacy(record.hash)) {
+            if (!isSha1(record.hash))
+                return Outcome.MALFORMED;
+        }
+        else {
+            PinRecord parsed = PinRecord.parse(record.hash);
+            if (parsed == null)
+                return Outcome.MALFORMED;
+            try {
+                hasher.getDerivation(parsed);
+            } catch (NoSuchAlgorithmException e) {
+                return Outcome.UNKNOWN_KDF;
+            }
+        }
+        if (record.candidate == null)
+            return Outcome.VALID;
+        try {
+            return hasher.verify(record.candidate, record.hash) ? Outcome.MATCH : Outcome.MISMATCH;
+        } catch (NoSuchAlgorithmException e) {
+            return Outcome.UNKNOWN_KDF;
+        }
+    }
+
+    private static boolean isSha1(String legacy) {
+        try {
+            return PinBase64.decode(legacy).length == SHA1_LENGTH;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Record> records;
+        private final Outcome[] outcomes;
+        private final boolean[] upgrades;
+        private final int iterations;
+        private final int from;
+        private final int to;
+
+        Task(List<Record> records, Outcome[] outcomes, boolean[] upgrades, int iterations,
+             int from, int to) {
+            this.records = records;
+            this.outcomes = outcomes;
+            this.upgrades = upgrades;
+            this.iterations = iterations;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int threshold = records.get(from).candidate != null ? VERIFY_THRESHOLD : AUDIT_THRESHOLD;
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    Record record = records.get(i);
+                    outcomes[i] = process(record);
+                    upgrades[i] = outcomes[i] != Outcome.MALFORMED
+                            && outcomes[i] != Outcome.UNKNOWN_KDF
+                            && hasher.needsUpgrade(record.hash, iterations);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Task(records, outcomes, upgrades, iterations, from, middle),
+                    new Task(records, outcomes, upgrades, iterations, middle, to));
+        }
+    }
+}
@@ -0,0 +1,643 @@
+package es.garce.simplelock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Pin store for applications with many keys. Pins are saved in a single memory mapped file as
+ * fixed size records that are also the slots of an open addressing hash table, so a lookup reads
+ * one or a few records and never loads the whole file.</p>
+ *
+ * <p>Every change (a single put, a bulk delete, an import) is a transaction: the new images of the
+ * records it touches are written to a journal next to the file and synced before the mapped file
+ * is changed, and the journal is emptied once the mapped file is synced. A journal left by a crash
+ * is replayed when the store is opened again, an incomplete one is dropped, so each transaction is
+ * either fully applied or not at all. The table grows by writing a new file and renaming it over
+ * the old one.</p>
+ *
+ * <p>Writes are durable when they return, {@link #flush()} does nothing.</p>
+ *
+ * <p>Keys and values are UTF-8 strings that together must fit in {@link #MAX_ENTRY_LENGTH} bytes.
+ * Instances are thread safe but only one instance must be open for a file.</p>
+ */
+public final class BinaryPinStore implements PinStore, Closeable {
+
+    /**
+     * Size of each record of the file.
+     */
+    public static final int RECORD_SIZE = 256;
+
+    private static final int RECORD_HEADER = 6;
+    private static final int RECORD_CRC = 4;
+    /**
+     * Maximum length in bytes of a key and its value together.
+     */
+    public static final int MAX_ENTRY_LENGTH = RECORD_SIZE - RECORD_HEADER - RECORD_CRC;
+
+    private static final int MAGIC = 0x534c5053; //SLPS
+    private static final int JOURNAL_MAGIC = 0x534c504a; //SLPJ
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FLAG_IMPORTED = 1;
+
+    //Header fields, the header takes the first record of the file
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_COUNT = 12;
+    private static final int HEADER_TOMBSTONES = 16;
+    private static final int HEADER_FLAGS = 20;
+
+    //Record states
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File journalFile;
+    private final RandomAccessFile journal;
+    private final CRC32 crc = new CRC32();
+
+    private RandomAccessFile data;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private boolean closed = false;
+
+    private BinaryPinStore(File file) throws IOException {
+        this.file = file;
+        journalFile = new File(file.getPath() + ".journal");
+        //A table creation or rebuild interrupted before the rename, the file is still as before
+        File tmp = getRebuildFile();
+        if (tmp.exists() && !tmp.delete())
+            throw new IOException("Can't delete " + tmp);
+
+        if (!file.exists() || file.length() == 0) {
+            //Renamed into place like a rebuild, a crash never leaves a partial table
+            writeTable(tmp, INITIAL_CAPACITY, Collections.<byte[]>emptyList(), 0);
+            if (!tmp.renameTo(file))
+                throw new IOException("Can't create " + file);
+        }
+        map();
+        journal = new RandomAccessFile(journalFile, "rw");
+        recover();
+    }
+
+    /**
+     * Opens a store, creating the file if needed. A transaction interrupted by a crash is
+     * finished or dropped.
+     * @param file The store file.
+     * @return The open store.
+     * @throws IOException If the file can't be opened or is not a store.
+     */
+    public static BinaryPinStore open(File file) throws IOException {
+        return new BinaryPinStore(file);
+    }
+
+    /**
+     * @param key The key of the pin.
+     * @return The saved value or null if there is no value for the key.
+     */
+    @Override
+    public synchronized String get(String key) {
+        checkOpen();
+        byte[] keyBytes = key.getBytes(UTF_8);
+        int slot = find(keyBytes, null);
+        if (slot < 0)
+            return null;
+        int offset = offset(slot);
+        int keyLength = buffer.getShort(offset + 2) & 0xffff;
+        int valueLength = buffer.getShort(offset + 4) & 0xffff;
+        byte[] value = new byte[valueLength];
+        buffer.position(offset + RECORD_HEADER + keyLength);
+        buffer.get(value);
+        return new String(value, UTF_8);
+    }
+
+    /**
+     * @param key The key of the pin.
+     * @return True if there is a value for the key.
+     */
+    public synchronized boolean contains(String key) {
+        checkOpen();
+        return find(key.getBytes(UTF_8), null) >= 0;
+    }
+
+    /**
+     * @return Number of saved pins.
+     */
+    public synchronized int size() {
+        checkOpen();
+        return buffer.getInt(HEADER_COUNT);
+    }
+
+    /**
+     * Saves a value, replacing the previous one.
+     * @throws IllegalArgumentException If the key and the value are too long.
+     */
+    @Override
+    public void put(String key, String value) throws IOException {
+        putAll(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Saves several values in a single transaction. A null value removes the key.
+     * @throws IllegalArgumentException If a key and its value are too long.
+     */
+    @Override
+    public synchronized void putAll(Map<String, String> values) throws IOException {
+        checkOpen();
+        List<byte[]> records = new ArrayList<>(values.size());
+        List<byte[]> removed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getValue() == null)
+                removed.add(entry.getKey().getBytes(UTF_8));
+            else
+                records.add(encode(entry.getKey(), entry.getValue()));
+        }
+        reserve(records.size());
+
+        Transaction txn = new Transaction();
+        for (byte[] key : removed)
+            delete(txn, key);
+        for (byte[] record : records)
+            insert(txn, record);
+        commit(txn);
+    }
+
+    /**
+     * Replaces several values in a single transaction, only where the key still has the expected
+     * value.
+     * @throws IllegalArgumentException If a key and its value are too long.
+     */
+    @Override
+    public synchronized int replaceAll(Map<String, String> expected,
+                                       Map<String, String> values) throws IOException {
+        checkOpen();
+        List<byte[]> records = new ArrayList<>(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (expected.get(entry.getKey()).equals(get(entry.getKey())))
+                records.add(encode(entry.getKey(), entry.getValue()));
+        }
+        reserve(records.size());
+
+        Transaction txn = new Transaction();
+        for (byte[] record : records)
+            insert(txn, record);
+        commit(txn);
+        return records.size();
+    }
+
+    /**
+     * @return True if there was a value for the key.
+     */
+    @Override
+    public synchronized boolean remove(String key) throws IOException {
+        checkOpen();
+        Transaction txn = new Transaction();
+        boolean removed = delete(txn, key.getBytes(UTF_8));
+        commit(txn);
+        return removed;
+    }
+
+    /**
+     * Lists the keys starting with a prefix. The file is scanned without reading the values.
+     * @param prefix The prefix, empty for every key.
+     * @return The matching keys in no particular order.
+     */
+    @Override
+    public synchronized List<String> keys(String prefix) {
+        checkOpen();
+        byte[] prefixBytes = prefix.getBytes(UTF_8);
+        List<String> keys = new ArrayList<>();
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) != USED || !startsWith(offset, prefixBytes) || !isValid(offset))
+                continue;
+            byte[] key = new byte[buffer.getShort(offset + 2) & 0xffff];
+            buffer.position(offset + RECORD_HEADER);
+            buffer.get(key);
+            keys.add(new String(key, UTF_8));
+        }
+        return keys;
+    }
+
+    /**
+     * Removes every key starting with a prefix in a single transaction.
+     * @param prefix The prefix, empty to remove every key.
+     * @return Number of keys removed.
+     */
+    public synchronized int removeAll(String prefix) throws IOException {
+        checkOpen();
+        byte[] prefixBytes = prefix.getBytes(UTF_8);
+        Transaction txn = new Transaction();
+        int removed = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) == USED && startsWith(offset, prefixBytes)) {
+                txn.record(slot)[0] = DELETED;
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            txn.header().putInt(HEADER_COUNT, txn.header().getInt(HEADER_COUNT) - removed);
+            txn.header().putInt(HEADER_TOMBSTONES,
+                    txn.header().getInt(HEADER_TOMBSTONES) + removed);
+        }
+        commit(txn);
+        return removed;
+    }
+
+    /**
+     * @return True if {@link #importFrom(Map)} already ran on this store.
+     */
+    public synchronized boolean isImported() {
+        checkOpen();
+        return (buffer.getInt(HEADER_FLAGS) & FLAG_IMPORTED) != 0;
+    }
+
+    /**
+     * Copies the pins saved somewhere else, usually the values of the Simple Lock preferences, in
+     * a single transaction. It only runs once per store, later calls do nothing. Keys already in
+     * the store keep their value and values that are not strings are skipped.
+     * @param values The pins to import.
+     * @return Number of pins imported.
+     */
+    public synchronized int importFrom(Map<String, ?> values) throws IOException {
+        checkOpen();
+        if (isImported())
+            return 0;
+        List<byte[]> records = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (entry.getValue() instanceof String && !contains(entry.getKey()))
+                records.add(encode(entry.getKey(), (String) entry.getValue()));
+        }
+        reserve(records.size());
+
+        Transaction txn = new Transaction();
+        for (byte[] record : records)
+            insert(txn, record);
+        txn.header().putInt(HEADER_FLAGS, txn.header().getInt(HEADER_FLAGS) | FLAG_IMPORTED);
+        commit(txn);
+        return records.size();
+    }
+
+    /**
+     * Does nothing, every write is synced before it returns.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        buffer = null;
+        try {
+            data.close();
+        } finally {
+            journal.close();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Store is closed");
+    }
+
+    private static int offset(int slot) {
+        //The first record is the header
+        return (slot + 1) * RECORD_SIZE;
+    }
+
+    private File getRebuildFile() {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * FNV-1a hash of the key, so the table layout doesn't depend on the runtime.
+     */
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    private byte[] encode(String key, String value) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        byte[] valueBytes = value.getBytes(UTF_8);
+        if (keyBytes.length + valueBytes.length > MAX_ENTRY_LENGTH)
+            throw new IllegalArgumentException("Key and value of " + key + " are longer than "
+                    + MAX_ENTRY_LENGTH + " bytes");
+        byte[] record = new byte[RECORD_SIZE];
+        ByteBuffer b = ByteBuffer.wrap(record);
+        b.put(USED).put((byte) 0)
+                .putShort((short) keyBytes.length)
+                .putShort((short) valueBytes.length)
+                .put(keyBytes)
+                .put(valueBytes);
+        crc.reset();
+        crc.update(record, 0, RECORD_SIZE - RECORD_CRC);
+        b.putInt(RECORD_SIZE - RECORD_CRC, (int) crc.getValue());
+        return record;
+    }
+
+    private boolean isValid(int offset) {
+        crc.reset();
+        for (int i = offset; i < offset + RECORD_SIZE - RECORD_CRC; i++)
+            crc.update(buffer.get(i));
+        return (int) crc.getValue() == buffer.getInt(offset + RECORD_SIZE - RECORD_CRC);
+    }
+
+    /**
+     * Finds the slot of a key, looking at the records changed by a transaction first.
+     * @return The slot or -1 if the key is not saved.
+     */
+    private int find(byte[] key, Transaction txn) {
+        int mask = capacity - 1;
+        for (int i = 0, slot = hash(key) & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+            ByteBuffer record = txn != null ? txn.peek(slot) : null;
+            int base = 0;
+            if (record == null) {
+                record = buffer;
+                base = offset(slot);
+            }
+            byte state = record.get(base);
+            if (state == EMPTY)
+                return -1;
+            if (state == USED && keyEquals(record, base, key))
+                return record == buffer && !isValid(base) ? -1 : slot;
+        }
+        return -1;
+    }
+
+    private static boolean keyEquals(ByteBuffer record, int base, byte[] key) {
+        if ((record.getShort(base + 2) & 0xffff) != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (record.get(base + RECORD_HEADER + i) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(int offset, byte[] prefix) {
+        if ((buffer.getShort(offset + 2) & 0xffff) < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + RECORD_HEADER + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void insert(Transaction txn, byte[] record) {
+        int keyLength = ByteBuffer.wrap(record).getShort(2) & 0xffff;
+        byte[] key = new byte[keyLength];
+        System.arraycopy(record, RECORD_HEADER, key, 0, keyLength);
+
+        int slot = find(key, txn);
+        ByteBuffer header = txn.header();
+        if (slot < 0) {
+            //First free slot of the probe sequence
+            int mask = capacity - 1;
+            slot = hash(key) & mask;
+            byte state;
+            while ((state = txn.state(slot)) == USED)
+                slot = (slot + 1) & mask;
+            if (state == DELETED)
+                header.putInt(HEADER_TOMBSTONES, header.getInt(HEADER_TOMBSTONES) - 1);
+            header.putInt(HEADER_COUNT, header.getInt(HEADER_COUNT) + 1);
+        }
+        System.arraycopy(record, 0, txn.record(slot), 0, RECORD_SIZE);
+    }
+
+    private boolean delete(Transaction txn, byte[] key) {
+        int slot = find(key, txn);
+        if (slot < 0)
+            return false;
+        txn.record(slot)[0] = DELETED;
+        ByteBuffer header = txn.header();
+        header.putInt(HEADER_COUNT, header.getInt(HEADER_COUNT) - 1);
+        header.putInt(HEADER_TOMBSTONES, header.getInt(HEADER_TOMBSTONES) + 1);
+        return true;
+    }
+
+    /**
+     * Makes sure the table can take some new keys while staying at most half full, rebuilding it
+     * without tombstones if needed.
+     */
+    private void reserve(int newKeys) throws IOException {
+        int used = buffer.getInt(HEADER_COUNT) + buffer.getInt(HEADER_TOMBSTONES);
+        if ((used + newKeys) * 2 <= capacity)
+            return;
+        int count = buffer.getInt(HEADER_COUNT);
+        int newCapacity = INITIAL_CAPACITY;
+        while ((count + newKeys) * 2 > newCapacity)
+            newCapacity *= 2;
+
+        List<byte[]> records = new ArrayList<>(count);
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset) == USED && isValid(offset)) {
+                byte[] record = new byte[RECORD_SIZE];
+                buffer.position(offset);
+                buffer.get(record);
+                records.add(record);
+            }
+        }
+        File tmp = getRebuildFile();
+        writeTable(tmp, newCapacity, records, buffer.getInt(HEADER_FLAGS));
+        data.close();
+        buffer = null;
+        if (!tmp.renameTo(file))
+            throw new IOException("Can't replace " + file);
+        map();
+    }
+
+    /**
+     * Writes and syncs a complete table file.
+     */
+    private static void writeTable(File target, int capacity, List<byte[]> records, int flags)
+            throws IOException {
+        int mask = capacity - 1;
+        ByteBuffer table = ByteBuffer.allocate((capacity + 1) * RECORD_SIZE);
+        table.putInt(HEADER_MAGIC, MAGIC)
+                .putInt(HEADER_VERSION, VERSION)
+                .putInt(HEADER_CAPACITY, capacity)
+                .putInt(HEADER_COUNT, records.size())
+                .putInt(HEADER_TOMBSTONES, 0)
+                .putInt(HEADER_FLAGS, flags);
+        for (byte[] record : records) {
+            int keyLength = ByteBuffer.wrap(record).getShort(2) & 0xffff;
+            byte[] key = new byte[keyLength];
+            System.arraycopy(record, RECORD_HEADER, key, 0, keyLength);
+            int slot = hash(key) & mask;
+            while (table.get(offset(slot)) != EMPTY)
+                slot = (slot + 1) & mask;
+            table.position(offset(slot));
+            table.put(record);
+        }
+
+        RandomAccessFile out = new RandomAccessFile(target, "rw");
+        try {
+            out.setLength(0);
+            out.write(table.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void map() throws IOException {
+        data = new RandomAccessFile(file, "rw");
+        FileChannel channel = data.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (channel.size() < RECORD_SIZE || buffer.getInt(HEADER_MAGIC) != MAGIC) {
+            data.close();
+            throw new IOException(file + " is not a pin store");
+        }
+        if (buffer.getInt(HEADER_VERSION) != VERSION) {
+            data.close();
+            throw new IOException("Unknown pin store version " + buffer.getInt(HEADER_VERSION));
+        }
+        capacity = buffer.getInt(HEADER_CAPACITY);
+        if (Integer.bitCount(capacity) != 1 || channel.size() != (long) (capacity + 1) * RECORD_SIZE) {
+            data.close();
+            throw new IOException(file + " is truncated");
+        }
+    }
+
+    /**
+     * Writes the changed records to the journal, then to the mapped file.
+     */
+    private void commit(Transaction txn) throws IOException {
+        if (txn.records.isEmpty())
+            return;
+        ByteBuffer log = ByteBuffer.allocate(8 + txn.records.size() * (4 + RECORD_SIZE) + 4);
+        log.putInt(JOURNAL_MAGIC).putInt(txn.records.size());
+        for (Map.Entry<Integer, byte[]> entry : txn.records.entrySet())
+            log.putInt(entry.getKey()).put(entry.getValue());
+        crc.reset();
+        crc.update(log.array(), 0, log.position());
+        log.putInt((int) crc.getValue());
+
+        //Once the journal is synced the transaction will survive a crash
+        journal.setLength(0);
+        journal.seek(0);
+        journal.write(log.array());
+        journal.getFD().sync();
+
+        apply(txn.records);
+        buffer.force();
+        journal.setLength(0);
+        journal.getFD().sync();
+    }
+
+    private void apply(Map<Integer, byte[]> records) {
+        for (Map.Entry<Integer, byte[]> entry : records.entrySet()) {
+            buffer.position(entry.getKey() * RECORD_SIZE);
+            buffer.put(entry.getValue());
+        }
+    }
+
+    /**
+     * Replays a complete journal left by a crash. An incomplete one was written before the file
+     * was changed, so it is dropped.
+     */
+    private void recover() throws IOException {
+        long length = journal.length();
+        if (length == 0)
+            return;
+        Map<Integer, byte[]> records = readJournal(length);
+        if (records != null) {
+            apply(records);
+            buffer.force();
+        }
+        journal.setLength(0);
+        journal.getFD().sync();
+    }
+
+    private Map<Integer, byte[]> readJournal(long length) throws IOException {
+        if (length < 12 || length > Integer.MAX_VALUE)
+            return null;
+        byte[] bytes = new byte[(int) length];
+        journal.seek(0);
+        journal.readFully(bytes);
+        ByteBuffer log = ByteBuffer.wrap(bytes);
+        if (log.getInt() != JOURNAL_MAGIC)
+            return null;
+        int count = log.getInt();
+        if (count < 0 || length != 8 + (long) count * (4 + RECORD_SIZE) + 4)
+            return null;
+        crc.reset();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != log.getInt(bytes.length - 4))
+            return null;
+
+        Map<Integer, byte[]> records = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int block = log.getInt();
+            if (block < 0 || block > capacity)
+                return null;
+            byte[] record = new byte[RECORD_SIZE];
+            log.get(record);
+            records.put(block, record);
+        }
+        return records;
+    }
+
+    /**
+     * Record images changed by a transaction, by block number. Block 0 is the header.
+     */
+    private class Transaction {
+        final Map<Integer, byte[]> records = new LinkedHashMap<>();
+
+        byte[] record(int slot) {
+            return block(slot + 1);
+        }
+
+        ByteBuffer header() {
+            return ByteBuffer.wrap(block(0));
+        }
+
+        ByteBuffer peek(int slot) {
+            byte[] record = records.get(slot + 1);
+            return record != null ? ByteBuffer.wrap(record) : null;
+        }
+
+        byte state(int slot) {
+            byte[] record = records.get(slot + 1);
+            return record != null ? record[0] : buffer.get(offset(slot));
+        }
+
+        private byte[] block(int block) {
+            byte[] image = records.get(block);
+            if (image == null) {
+                image = new byte[RECORD_SIZE];
+                buffer.position(block * RECORD_SIZE);
+                buffer.get(image);
+                records.put(block, image);
+            }
+            return image;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package es.garce.simplelock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>{@link PinStore} decorator keeping the most recently used pins in memory and delaying the
+ * writes. Writes are visible right away but are only sent to the wrapped store after a short
+ * delay, so a burst of writes (for example provisioning many keys) ends up in a single
+ * {@link PinStore#putAll(Map) putAll} followed by one {@link PinStore#flush() flush}. Call
+ * {@link #flush()} to write them immediately.</p>
+ *
+ * <p>Cached values keep their decoded {@link PinRecord}, so {@link PinVerifier} checks of a
+ * cached key don't parse the record again. A flush that fails keeps the writes and is tried again
+ * later, waiting twice as long after each failure up to a minute.</p>
+ *
+ * <p>Every access to the wrapped store must go through the decorator. Hits, misses and flushes
+ * are counted to help choosing the cache size.</p>
+ */
+public class CachingPinStore implements DecodedPinStore {
+
+    /**
+     * Default time writes wait to be merged with the following ones, in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_DELAY = 100;
+
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    private static class SchedulerHolder {
+        static final ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "SimpleLock-flush");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private final PinStore delegate;
+    private final long flushDelay;
+
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private final Map<String, StoredPin> cache;
+    //Writes not sent yet, a null entry is a removed key
+    private final Map<String, StoredPin> dirty = new HashMap<>();
+    //Writes being sent to the wrapped store
+    private Map<String, StoredPin> flushing = null;
+    private boolean flushScheduled = false;
+    //Time the last failed flush waits to be tried again, 0 if it didn't fail
+    private long retryDelay = 0;
+    //Changes on every write so values read from the wrapped store are not cached when stale
+    private long version = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                flushScheduled = false;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                //Writes are kept and the flush is scheduled again
+            }
+        }
+    };
+
+    /**
+     * @param delegate The store to cache.
+     * @param maxEntries Maximum number of values kept in memory.
+     */
+    public CachingPinStore(PinStore delegate, int maxEntries) {
+        this(delegate, maxEntries, DEFAULT_FLUSH_DELAY);
+    }
+
+    /**
+     * @param delegate The store to cache.
+     * @param maxEntries Maximum number of values kept in memory.
+     * @param flushDelay Time writes wait to be merged with the following ones, in milliseconds.
+     */
+    public CachingPinStore(PinStore delegate, final int maxEntries, long flushDelay) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive");
+        this.delegate = delegate;
+        this.flushDelay = flushDelay;
+        cache = new LinkedHashMap<String, StoredPin>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredPin> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        StoredPin entry = getStoredPin(key);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public StoredPin getStoredPin(String key) throws IOException {
+        long readVersion;
+        synchronized (lock) {
+            if (dirty.containsKey(key)) {
+                hits.incrementAndGet();
+                return dirty.get(key);
+            }
+            if (flushing != null && flushing.containsKey(key)) {
+                hits.incrementAndGet();
+                return flushing.get(key);
+            }
+            StoredPin entry = cache.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            readVersion = version;
+        }
+
+        misses.incrementAndGet();
+        String value = delegate.get(key);
+        if (value == null)
+            return null;
+        StoredPin entry = new StoredPin(value);
+        synchronized (lock) {
+            if (version == readVersion)
+                cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, String value) {
+        synchronized (lock) {
+            write(key, value);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, String> values) {
+        synchronized (lock) {
+            for (Map.Entry<String, String> entry : values.entrySet())
+                write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        boolean existed = get(key) != null;
+        synchronized (lock) {
+            write(key, null);
+        }
+        return existed;
+    }
+
+    @Override
+    public int replaceAll(Map<String, String> expected,
+                          Map<String, String> values) throws IOException {
+        //Rare, so the wrapped store is read holding the lock to keep the comparison atomic
+        synchronized (lock) {
+            int replaced = 0;
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                String key = entry.getKey();
+                String current;
+                if (dirty.containsKey(key))
+                    current = valueOf(dirty.get(key));
+                else if (flushing != null && flushing.containsKey(key))
+                    current = valueOf(flushing.get(key));
+                else if (cache.containsKey(key))
+                    current = valueOf(cache.get(key));
+                else
+                    current = delegate.get(key);
+                if (expected.get(key).equals(current)) {
+                    write(key, entry.getValue());
+                    replaced++;
+                }
+            }
+            return replaced;
+        }
+    }
+
+    @Override
+    public List<String> keys(String prefix) throws IOException {
+        flush();
+        return delegate.keys(prefix);
+    }
+
+    /**
+     * Sends the pending writes to the wrapped store and flushes it. If it fails the writes are
+     * kept and sent again later.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Map<String, StoredPin> batch;
+            synchronized (lock) {
+                if (dirty.isEmpty())
+                    return;
+                batch = new HashMap<>(dirty);
+                dirty.clear();
+                flushing = batch;
+            }
+            Map<String, String> values = new HashMap<>();
+            for (Map.Entry<String, StoredPin> entry : batch.entrySet())
+                values.put(entry.getKey(), valueOf(entry.getValue()));
+            try {
+                delegate.putAll(values);
+                delegate.flush();
+                flushes.incrementAndGet();
+                synchronized (lock) {
+                    retryDelay = 0;
+                }
+            } catch (IOException e) {
+                //Keep the writes that were not replaced meanwhile
+                synchronized (lock) {
+                    for (Map.Entry<String, StoredPin> entry : batch.entrySet()) {
+                        if (!dirty.containsKey(entry.getKey()))
+                            dirty.put(entry.getKey(), entry.getValue());
+                    }
+                    scheduleRetry();
+                }
+                throw e;
+            } finally {
+                synchronized (lock) {
+                    flushing = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of reads answered from memory.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of reads sent to the wrapped store.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of batches of writes sent to the wrapped store.
+     */
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    private void write(String key, String value) {
+        if (value == null) {
+            dirty.put(key, null);
+            cache.remove(key);
+        }
+        else {
+            StoredPin entry = new StoredPin(value);
+            dirty.put(key, entry);
+            cache.put(key, entry);
+        }
+        version++;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            SchedulerHolder.scheduler.schedule(flushTask, flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedules the flush again after a failure, waiting twice as long as after the previous one.
+     * Called holding the lock.
+     */
+    private void scheduleRetry() {
+        retryDelay = retryDelay == 0 ? Math.max(flushDelay, DEFAULT_FLUSH_DELAY)
+                : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+        //A flush already scheduled by a write sends the kept writes too
+        if (!flushScheduled) {
+            flushScheduled = true;
+            SchedulerHolder.scheduler.schedule(flushTask, retryDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String valueOf(StoredPin entry) {
+        return entry == null ? null : entry.value;
+    }
+}
@@ -0,0 +1,16 @@
+package es.garce.simplelock;
+
+import java.io.IOException;
+
+/**
+ * A {@link PinStore} keeping its values decoded, {@link PinVerifier} checks them without parsing
+ * the record again.
+ */
+interface DecodedPinStore extends PinStore {
+
+    /**
+     * Same as {@link #get(String)} with the decoded record of the value.
+     * @return The value of the key or null if there is no value for the key.
+     */
+    StoredPin getStoredPin(String key) throws IOException;
+}
@@ -0,0 +1,56 @@
+package es.garce.simplelock;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>Measures how fast a {@link KeyDerivation} runs on this device and picks the number of
+ * iterations that makes a single derivation take the requested time. Faster devices get more
+ * iterations and so stronger hashes.</p>
+ */
+public final class KdfCalibrator {
+
+    /**
+     * Lower bound of the calibrated iterations, used even on the slowest devices.
+     */
+    public static final int MIN_ITERATIONS = 10000;
+    /**
+     * Upper bound of the calibrated iterations.
+     */
+    public static final int MAX_ITERATIONS = 5000000;
+
+    private static final int PROBE_ITERATIONS = 2000;
+    private static final int PROBE_RUNS = 3;
+    private static final int ROUNDING = 1000;
+
+    private KdfCalibrator() {
+    }
+
+    /**
+     * Calibrates a key derivation function. It runs a few short derivations so it takes a small
+     * fraction of the target time and should not be called on the main thread.
+     * @param kdf The function to measure.
+     * @param targetMillis The time a derivation should take.
+     * @return The number of iterations, between {@link #MIN_ITERATIONS} and
+     * {@link #MAX_ITERATIONS}.
+     * @throws GeneralSecurityException If the function can not be run.
+     */
+    public static int calibrate(KeyDerivation kdf, long targetMillis)
+            throws GeneralSecurityException {
+        byte[] pin = {'0', '0', '0', '0'};
+        byte[] salt = new byte[PinHasher.SALT_LENGTH];
+
+        //Warm up and keep the fastest run to ignore scheduling noise
+        kdf.derive(pin, pin.length, salt, PROBE_ITERATIONS);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_RUNS; i++) {
+            long start = System.nanoTime();
+            kdf.derive(pin, pin.length, salt, PROBE_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        best = Math.max(best, 1);
+
+        double iterations = PROBE_ITERATIONS * (targetMillis * 1000000d / best);
+        long rounded = Math.round(iterations / ROUNDING) * ROUNDING;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, rounded));
+    }
+}
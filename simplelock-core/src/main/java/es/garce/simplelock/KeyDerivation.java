@@ -0,0 +1,30 @@
+package es.garce.simplelock;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * <p>A key derivation function used by {@link PinHasher} to hash pin codes. Implementations
+ * must be stateless so they can be shared between threads. Register custom implementations with
+ * {@code SimpleLockPin.setKeyDerivation(KeyDerivation)} on Android or
+ * {@link PinHasher#setKeyDerivation(KeyDerivation)}.</p>
+ */
+public interface KeyDerivation {
+
+    /**
+     * @return The identifier saved with every hash created by this function. It must not contain
+     * the {@code $} character.
+     */
+    String getId();
+
+    /**
+     * Derives a hash from a pin code.
+     * @param pin The pin bytes. Only the first {@code length} bytes are used.
+     * @param length Number of bytes of the pin.
+     * @param salt The random salt of the hash.
+     * @param iterations The cost of the derivation.
+     * @return The derived hash.
+     * @throws GeneralSecurityException If the underlying algorithm is not available.
+     */
+    byte[] derive(byte[] pin, int length, byte[] salt, int iterations)
+            throws GeneralSecurityException;
+}
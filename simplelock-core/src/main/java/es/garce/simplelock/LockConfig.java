@@ -0,0 +1,261 @@
+package es.garce.simplelock;
+
+/**
+ * <p>Immutable snapshot of the Simple Lock settings. A snapshot is loaded once per process by
+ * {@code SimpleLock.getConfig(Context)} and replaced as a whole every time the
+ * settings change, so it can be read from any thread without touching the preferences.</p>
+ *
+ * <p>Use {@link #buildUpon()} to get a {@link Builder} with a copy of these values and
+ * {@code SimpleLock.setConfig(Context, LockConfig)} to save it.</p>
+ */
+public final class LockConfig {
+
+    //Library defaults, kept here so the snapshot has no Android dependency
+    static final boolean DEFAULT_SHOW_PLACEHOLDER = true;
+    static final boolean DEFAULT_SHOW_PREVIEW = true;
+    static final boolean DEFAULT_SHUFFLE_BUTTONS = false;
+    static final int DEFAULT_MIN_LENGTH = 1;
+    static final int DEFAULT_MAX_LENGTH = 4;
+    static final boolean DEFAULT_VERIFY_ASYNC = false;
+    static final long DEFAULT_UNLOCK_TIMEOUT = 0;
+    static final boolean DEFAULT_AUTO_SUBMIT = false;
+    static final boolean DEFAULT_REJECT_WEAK_PINS = false;
+
+    private final boolean showPlaceholder;
+    private final boolean showPreview;
+    private final boolean shuffleButtons;
+    private final int minLength;
+    private final int maxLength;
+    private final boolean verifyAsync;
+    private final long unlockTimeout;
+    private final boolean autoSubmit;
+    private final boolean rejectWeakPins;
+    private final boolean init;
+
+    private LockConfig(Builder builder) {
+        showPlaceholder = builder.showPlaceholder;
+        showPreview = builder.showPreview;
+        shuffleButtons = builder.shuffleButtons;
+        minLength = builder.minLength;
+        maxLength = builder.maxLength;
+        verifyAsync = builder.verifyAsync;
+        unlockTimeout = builder.unlockTimeout;
+        autoSubmit = builder.autoSubmit;
+        rejectWeakPins = builder.rejectWeakPins;
+        init = builder.init;
+    }
+
+    public boolean isShowPlaceholder() {
+        return showPlaceholder;
+    }
+
+    public boolean isShowPreview() {
+        return showPreview;
+    }
+
+    public boolean isShuffleButtons() {
+        return shuffleButtons;
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return True if the pin check of the application runs on a background thread instead of the
+     * main thread. Pins checked by Simple Lock are always checked in background.
+     */
+    public boolean isVerifyAsync() {
+        return verifyAsync;
+    }
+
+    /**
+     * @return Milliseconds a key stays unlocked after its pin is entered, 0 if every request asks
+     * for the pin.
+     */
+    public long getUnlockTimeout() {
+        return unlockTimeout;
+    }
+
+    /**
+     * @return True if the pin is submitted as soon as it has the length of the saved pin.
+     */
+    public boolean isAutoSubmit() {
+        return autoSubmit;
+    }
+
+    /**
+     * @return True if new pins that are too easy to guess are not accepted.
+     */
+    public boolean isRejectWeakPins() {
+        return rejectWeakPins;
+    }
+
+    /**
+     * @return True if these values come from a saved configuration, false if they are the
+     * library defaults.
+     */
+    public boolean isInit() {
+        return init;
+    }
+
+    /**
+     * @return A new builder initialized with the values of this snapshot.
+     */
+    public Builder buildUpon() {
+        return new Builder()
+                .setShowPlaceholder(showPlaceholder)
+                .setShowPreview(showPreview)
+                .setShuffleButtons(shuffleButtons)
+                .setMinLength(minLength)
+                .setMaxLength(maxLength)
+                .setVerifyAsync(verifyAsync)
+                .setUnlockTimeout(unlockTimeout)
+                .setAutoSubmit(autoSubmit)
+                .setRejectWeakPins(rejectWeakPins)
+                .setInit(init);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof LockConfig))
+            return false;
+        LockConfig other = (LockConfig) o;
+        return showPlaceholder == other.showPlaceholder
+                && showPreview == other.showPreview
+                && shuffleButtons == other.shuffleButtons
+                && minLength == other.minLength
+                && maxLength == other.maxLength
+                && verifyAsync == other.verifyAsync
+                && unlockTimeout == other.unlockTimeout
+                && autoSubmit == other.autoSubmit
+                && rejectWeakPins == other.rejectWeakPins
+                && init == other.init;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = showPlaceholder ? 1 : 0;
+        result = 31 * result + (showPreview ? 1 : 0);
+        result = 31 * result + (shuffleButtons ? 1 : 0);
+        result = 31 * result + minLength;
+        result = 31 * result + maxLength;
+        result = 31 * result + (verifyAsync ? 1 : 0);
+        result = 31 * result + (int) (unlockTimeout ^ (unlockTimeout >>> 32));
+        result = 31 * result + (autoSubmit ? 1 : 0);
+        result = 31 * result + (rejectWeakPins ? 1 : 0);
+        result = 31 * result + (init ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LockConfig{showPlaceholder=" + showPlaceholder
+                + ", showPreview=" + showPreview
+                + ", shuffleButtons=" + shuffleButtons
+                + ", minLength=" + minLength
+                + ", maxLength=" + maxLength
+                + ", verifyAsync=" + verifyAsync
+                + ", unlockTimeout=" + unlockTimeout
+                + ", autoSubmit=" + autoSubmit
+                + ", rejectWeakPins=" + rejectWeakPins
+                + ", init=" + init + "}";
+    }
+
+    /**
+     * Builder for {@link LockConfig} snapshots. New builders start with the library defaults.
+     */
+    public static class Builder {
+        private boolean showPlaceholder = DEFAULT_SHOW_PLACEHOLDER;
+        private boolean showPreview = DEFAULT_SHOW_PREVIEW;
+        private boolean shuffleButtons = DEFAULT_SHUFFLE_BUTTONS;
+        private int minLength = DEFAULT_MIN_LENGTH;
+        private int maxLength = DEFAULT_MAX_LENGTH;
+        private boolean verifyAsync = DEFAULT_VERIFY_ASYNC;
+        private long unlockTimeout = DEFAULT_UNLOCK_TIMEOUT;
+        private boolean autoSubmit = DEFAULT_AUTO_SUBMIT;
+        private boolean rejectWeakPins = DEFAULT_REJECT_WEAK_PINS;
+        private boolean init = false;
+
+        public Builder setShowPlaceholder(boolean showPlaceholder) {
+            this.showPlaceholder = showPlaceholder;
+            return this;
+        }
+
+        public Builder setShowPreview(boolean showPreview) {
+            this.showPreview = showPreview;
+            return this;
+        }
+
+        public Builder setShuffleButtons(boolean shuffleButtons) {
+            this.shuffleButtons = shuffleButtons;
+            return this;
+        }
+
+        public Builder setMinLength(int minLength) {
+            this.minLength = minLength;
+            return this;
+        }
+
+        public Builder setMaxLength(int maxLength) {
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        /**
+         * @param verifyAsync True to call {@code OnEnterPin.onEnterPin} on a background thread.
+         *                    Pins of a key are always checked in background. The lock pad shows
+         *                    a busy state until the result is known.
+         */
+        public Builder setVerifyAsync(boolean verifyAsync) {
+            this.verifyAsync = verifyAsync;
+            return this;
+        }
+
+        /**
+         * @param unlockTimeout Milliseconds a key stays unlocked after its pin is entered. While
+         *                      unlocked, requests for the key succeed without showing the lock.
+         *                      0 to always ask for the pin.
+         */
+        public Builder setUnlockTimeout(long unlockTimeout) {
+            this.unlockTimeout = unlockTimeout;
+            return this;
+        }
+
+        /**
+         * @param autoSubmit True to submit the pin without the done button as soon as it has the
+         *                   length of the saved pin. Only used when Simple Lock checks the pin, and
+         *                   only for pins saved by this version or later, the length of older pins
+         *                   is not known.
+         */
+        public Builder setAutoSubmit(boolean autoSubmit) {
+            this.autoSubmit = autoSubmit;
+            return this;
+        }
+
+        /**
+         * @param rejectWeakPins True to not accept new pins that are sequences, repeats, dates or
+         *                       common leaked pins. The new pin lock tells it while the pin is
+         *                       typed.
+         */
+        public Builder setRejectWeakPins(boolean rejectWeakPins) {
+            this.rejectWeakPins = rejectWeakPins;
+            return this;
+        }
+
+        Builder setInit(boolean init) {
+            this.init = init;
+            return this;
+        }
+
+        public LockConfig build() {
+            return new LockConfig(this);
+        }
+    }
+}
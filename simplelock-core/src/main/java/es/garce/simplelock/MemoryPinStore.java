@@ -0,0 +1,67 @@
+package es.garce.simplelock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link PinStore} keeping the pins in memory only. Useful for tests and for pins that must not
+ * survive the process.
+ */
+public class MemoryPinStore implements PinStore {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    @Override
+    public synchronized String get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public synchronized void putAll(Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getValue() == null)
+                this.values.remove(entry.getKey());
+            else
+                this.values.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(String key) {
+        return values.remove(key) != null;
+    }
+
+    @Override
+    public synchronized int replaceAll(Map<String, String> expected,
+                                       Map<String, String> values) {
+        int replaced = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (expected.get(entry.getKey()).equals(this.values.get(entry.getKey()))) {
+                this.values.put(entry.getKey(), entry.getValue());
+                replaced++;
+            }
+        }
+        return replaced;
+    }
+
+    @Override
+    public synchronized List<String> keys(String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (String key : values.keySet()) {
+            if (key.startsWith(prefix))
+                keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public void flush() {
+    }
+}
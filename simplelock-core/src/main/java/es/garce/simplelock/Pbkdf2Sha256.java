@@ -0,0 +1,66 @@
+package es.garce.simplelock;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <p>PBKDF2 with HMAC-SHA256 (RFC 2898) producing a single 32 byte block. It is implemented on top
+ * of {@link Mac} because {@code PBKDF2WithHmacSHA256} is not available on every Android version
+ * supported by Simple Lock.</p>
+ */
+public class Pbkdf2Sha256 implements KeyDerivation {
+
+    public static final String ID = "pbkdf2-sha256";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+    private static final byte[] FIRST_BLOCK = {0, 0, 0, 1};
+
+    //Mac instances are not thread safe, each thread keeps its own to skip the provider lookup
+    private static final ThreadLocal<Mac> macs = new ThreadLocal<>();
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] derive(byte[] pin, int length, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        if (iterations < 1)
+            throw new IllegalArgumentException("iterations must be positive");
+
+        Mac mac = getMac();
+        //SecretKeySpec rejects empty keys, HMAC pads keys with zeros so this is the same key
+        mac.init(length > 0
+                ? new SecretKeySpec(pin, 0, length, ALGORITHM)
+                : new SecretKeySpec(new byte[1], ALGORITHM));
+
+        //U1 = PRF(pin, salt || INT(1))
+        byte[] u = new byte[HASH_LENGTH];
+        mac.update(salt);
+        mac.update(FIRST_BLOCK);
+        mac.doFinal(u, 0);
+
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            //Ui = PRF(pin, Ui-1)
+            mac.update(u);
+            mac.doFinal(u, 0);
+            for (int j = 0; j < HASH_LENGTH; j++)
+                result[j] ^= u[j];
+        }
+        return result;
+    }
+
+    private static Mac getMac() throws GeneralSecurityException {
+        Mac mac = macs.get();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+            macs.set(mac);
+        }
+        return mac;
+    }
+}
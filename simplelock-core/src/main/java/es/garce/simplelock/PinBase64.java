@@ -0,0 +1,106 @@
+package es.garce.simplelock;
+
+/**
+ * <p>Base64 encoding of the salts and hashes saved in pin records, so records can be read and
+ * written without Android. It produces the same output as {@code android.util.Base64} with
+ * {@code NO_WRAP}: the standard alphabet, padded and without line breaks.</p>
+ *
+ * <p>Like the Android decoder, characters outside the alphabet (line breaks written by
+ * {@code DEFAULT}) are skipped, so the legacy hashes saved by the first versions are accepted.</p>
+ */
+final class PinBase64 {
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final int SKIP = -1;
+    private static final int PAD = -2;
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; i++)
+            VALUES[i] = SKIP;
+        for (int i = 0; i < ALPHABET.length; i++)
+            VALUES[ALPHABET[i]] = i;
+        VALUES['='] = PAD;
+    }
+
+    private PinBase64() {
+    }
+
+    /**
+     * @param data The bytes to encode.
+     * @return The Base64 representation of the bytes.
+     */
+    static String encode(byte[] data) {
+        char[] out = new char[(data.length + 2) / 3 * 4];
+        int o = 0;
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        int left = data.length - i;
+        if (left > 0) {
+            int bits = (data[i] & 0xff) << 16 | (left == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = left == 2 ? ALPHABET[(bits >>> 6) & 0x3f] : '=';
+            out[o] = '=';
+        }
+        return new String(out);
+    }
+
+    /**
+     * @param encoded A Base64 String.
+     * @return The decoded bytes.
+     * @throws IllegalArgumentException If the String is not valid Base64.
+     */
+    static byte[] decode(String encoded) {
+        byte[] out = new byte[encoded.length() * 3 / 4];
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        boolean padded = false;
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : SKIP;
+            if (value == SKIP)
+                continue;
+            if (value == PAD) {
+                padded = true;
+                break;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                out[o++] = (byte) (bits >>> 16);
+                out[o++] = (byte) (bits >>> 8);
+                out[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        switch (count) {
+            case 0:
+                break;
+            case 2:
+                out[o++] = (byte) (bits >>> 4);
+                break;
+            case 3:
+                out[o++] = (byte) (bits >>> 10);
+                out[o++] = (byte) (bits >>> 2);
+                break;
+            default:
+                throw new IllegalArgumentException("bad base-64");
+        }
+        if (padded && count == 0)
+            throw new IllegalArgumentException("bad base-64");
+        if (o == out.length)
+            return out;
+        byte[] trimmed = new byte[o];
+        System.arraycopy(out, 0, trimmed, 0, o);
+        return trimmed;
+    }
+}
@@ -0,0 +1,130 @@
+package es.garce.simplelock;
+
+import java.util.Arrays;
+
+/**
+ * <p>Fixed capacity input of a pin code shared by the lock activities. Digits are kept as ASCII
+ * bytes in a reusable array, the same bytes {@code String.getBytes()} returns for the pin, so it
+ * can be hashed without creating Strings. Typing and deleting digits never allocates.</p>
+ *
+ * <p>{@link #clear()} wipes the digits, it must be called once the pin has been submitted.</p>
+ */
+final class PinBuffer {
+
+    private final byte[] digits;
+    private int length = 0;
+
+    /**
+     * @param capacity Maximum number of digits.
+     */
+    PinBuffer(int capacity) {
+        digits = new byte[capacity];
+    }
+
+    int capacity() {
+        return digits.length;
+    }
+
+    int length() {
+        return length;
+    }
+
+    boolean isEmpty() {
+        return length == 0;
+    }
+
+    boolean isFull() {
+        return length == digits.length;
+    }
+
+    /**
+     * Adds a digit at the end of the pin.
+     * @param digit A value between 0 and 9.
+     * @return False if the buffer is full and the digit was ignored.
+     */
+    boolean append(int digit) {
+        if (digit < 0 || digit > 9)
+            throw new IllegalArgumentException("Not a digit: " + digit);
+        if (isFull())
+            return false;
+        digits[length++] = (byte) ('0' + digit);
+        return true;
+    }
+
+    /**
+     * Removes the last digit.
+     * @return False if the buffer was empty.
+     */
+    boolean delete() {
+        if (length == 0)
+            return false;
+        digits[--length] = 0;
+        return true;
+    }
+
+    /**
+     * Removes and wipes all the digits.
+     * @return False if the buffer was empty.
+     */
+    boolean clear() {
+        if (length == 0)
+            return false;
+        Arrays.fill(digits, 0, length, (byte) 0);
+        length = 0;
+        return true;
+    }
+
+    /**
+     * Gives access to the digits without copying them. Only the first {@link #length()} bytes are
+     * part of the pin and the array must not be modified.
+     */
+    byte[] array() {
+        return digits;
+    }
+
+    /**
+     * Copies the digits to another buffer with enough capacity.
+     */
+    void copyTo(PinBuffer other) {
+        if (other.digits.length < length)
+            throw new IllegalArgumentException("Buffer too small");
+        other.clear();
+        System.arraycopy(digits, 0, other.digits, 0, length);
+        other.length = length;
+    }
+
+    /**
+     * @return A new buffer with the same digits. Remember to clear it when it is no longer used.
+     */
+    PinBuffer copy() {
+        PinBuffer copy = new PinBuffer(digits.length);
+        copyTo(copy);
+        return copy;
+    }
+
+    /**
+     * Compares two pins in constant time for pins of the same length.
+     */
+    boolean contentEquals(PinBuffer other) {
+        if (length != other.length)
+            return false;
+        int diff = 0;
+        for (int i = 0; i < length; i++)
+            diff |= digits[i] ^ other.digits[i];
+        return diff == 0;
+    }
+
+    /**
+     * Creates a String with the pin. Only used where the public API requires one, as the String
+     * can not be wiped.
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) digits[i];
+        String pin = new String(chars);
+        Arrays.fill(chars, '\0');
+        return pin;
+    }
+}
@@ -0,0 +1,238 @@
+package es.garce.simplelock;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Hashes pin codes and checks them against saved hashes, without any Android dependency. It
+ * reads and writes the same records as the Android library, so a server can check the hashes
+ * created on the devices or {@link BatchVerifier audit} them in bulk.</p>
+ *
+ * <p>New hashes use the {@link #setKeyDerivation(KeyDerivation) current key derivation function},
+ * hashes created with any {@link #register(KeyDerivation) registered} function can be checked.
+ * {@link Pbkdf2Sha256} is registered by default. Hashes saved as bare SHA-1 by the first versions
+ * of Simple Lock are accepted too.</p>
+ *
+ * <p>Instances are thread safe.</p>
+ */
+public final class PinHasher {
+
+    /**
+     * Length of the random salt of every hash.
+     */
+    public static final int SALT_LENGTH = 16;
+    private static final int SHA1_LENGTH = 20;
+
+    //MessageDigest instances are not thread safe, each thread keeps its own
+    private static final ThreadLocal<MessageDigest> sha1Digests = new ThreadLocal<>();
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, KeyDerivation> derivations = new ConcurrentHashMap<>();
+    private volatile KeyDerivation keyDerivation;
+
+    /**
+     * Creates a hasher using {@link Pbkdf2Sha256}.
+     */
+    public PinHasher() {
+        this(new Pbkdf2Sha256());
+    }
+
+    /**
+     * @param kdf The function used to hash new pins.
+     */
+    public PinHasher(KeyDerivation kdf) {
+        setKeyDerivation(kdf);
+    }
+
+    /**
+     * Registers a function so the hashes created with it can be checked. Functions are identified
+     * by {@link KeyDerivation#getId()}.
+     * @param kdf The function to register.
+     */
+    public void register(KeyDerivation kdf) {
+        derivations.put(kdf.getId(), kdf);
+    }
+
+    /**
+     * Registers a function and uses it to hash new pins.
+     * @param kdf The function to use.
+     */
+    public void setKeyDerivation(KeyDerivation kdf) {
+        register(kdf);
+        keyDerivation = kdf;
+    }
+
+    /**
+     * @return The function used to hash new pins.
+     */
+    public KeyDerivation getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    /**
+     * Hashes a pin with a new random salt.
+     * @param pin The pin code.
+     * @param iterations The cost of the key derivation.
+     * @return The record to save.
+     * @throws NoSuchAlgorithmException If the key derivation can not be run.
+     */
+    public String hash(String pin, int iterations) throws NoSuchAlgorithmException {
+        byte[] bytes = pin.getBytes();
+        try {
+            return hash(bytes, bytes.length, iterations);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #hash(String, int)} reading the pin from the first {@code length} bytes of a
+     * buffer. The buffer is not cleared.
+     */
+    public String hash(byte[] pin, int length, int iterations) throws NoSuchAlgorithmException {
+        KeyDerivation kdf = keyDerivation;
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = derive(kdf, pin, length, salt, iterations);
+        return new PinRecord(kdf.getId(), iterations, null, salt, hash).format();
+    }
+
+    /**
+     * Checks a pin against a saved hash.
+     * @param pin The pin code to check.
+     * @param stored The saved hash.
+     * @return True if the pin matches the hash, false if it doesn't or the hash is malformed.
+     * @throws NoSuchAlgorithmException If the hash was created with an unknown function.
+     */
+    public boolean verify(String pin, String stored) throws NoSuchAlgorithmException {
+        byte[] bytes = pin.getBytes();
+        try {
+            return verify(bytes, bytes.length, stored);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #verify(String, String)} reading the pin from the first {@code length} bytes
+     * of a buffer. The buffer is not cleared.
+     */
+    public boolean verify(byte[] pin, int length, String stored) throws NoSuchAlgorithmException {
+        if (PinRecord.isLegacy(stored)) {
+            try {
+                return PinRecord.constantTimeEquals(sha1(pin, length), PinBase64.decode(stored));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        return verify(pin, length, PinRecord.parse(stored));
+    }
+
+    /**
+     * Same as {@link #verify(byte[], int, String)} with a record already decoded.
+     * @param record The record, null if the saved value is malformed.
+     */
+    boolean verify(byte[] pin, int length, PinRecord record) throws NoSuchAlgorithmException {
+        if (record == null)
+            return false;
+        KeyDerivation kdf = getDerivation(record);
+        if (record.preHash != null) {
+            pin = sha1(pin, length);
+            length = pin.length;
+        }
+        return record.matches(derive(kdf, pin, length, record.salt, record.iterations));
+    }
+
+    /**
+     * Tells if a hash should be replaced by a new one the next time its pin is known.
+     * @param stored The saved hash.
+     * @param iterations The iterations new hashes are created with.
+     * @return True if the hash is a legacy or wrapped legacy hash, uses another function than the
+     * current one or fewer iterations.
+     */
+    public boolean needsUpgrade(String stored, int iterations) {
+        if (PinRecord.isLegacy(stored))
+            return true;
+        return needsUpgrade(PinRecord.parse(stored), iterations);
+    }
+
+    /**
+     * Same as {@link #needsUpgrade(String, int)} with a record already decoded.
+     * @param record The record, null if the saved value is malformed.
+     */
+    boolean needsUpgrade(PinRecord record, int iterations) {
+        return record != null && (record.preHash != null
+                || !record.kdf.equals(keyDerivation.getId())
+                || record.iterations < iterations);
+    }
+
+    /**
+     * Wraps a legacy SHA-1 hash in a record without knowing the pin.
+     * @param legacy The bare Base64 SHA-1 hash.
+     * @param iterations Iterations of the key derivation.
+     * @return The record or null if the value is not a valid SHA-1 hash.
+     * @throws NoSuchAlgorithmException If the key derivation can not be run.
+     */
+    public String wrapLegacy(String legacy, int iterations) throws NoSuchAlgorithmException {
+        byte[] digest;
+        try {
+            digest = PinBase64.decode(legacy);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (digest.length != SHA1_LENGTH)
+            return null;
+        KeyDerivation kdf = keyDerivation;
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = derive(kdf, digest, digest.length, salt, iterations);
+        return new PinRecord(kdf.getId(), iterations, PinRecord.PRE_HASH_SHA1, salt, hash).format();
+    }
+
+    /**
+     * Seeds the salt generator and looks up the hash providers, the slow part of the first hash.
+     */
+    void prewarm() throws NoSuchAlgorithmException {
+        random.nextBytes(new byte[SALT_LENGTH]);
+        sha1(new byte[0], 0);
+        derive(keyDerivation, new byte[0], 0, new byte[SALT_LENGTH], 1);
+    }
+
+    /**
+     * @return The function that created a record.
+     * @throws NoSuchAlgorithmException If the function or the pre-hash are unknown.
+     */
+    KeyDerivation getDerivation(PinRecord record) throws NoSuchAlgorithmException {
+        KeyDerivation kdf = derivations.get(record.kdf);
+        if (kdf == null)
+            throw new NoSuchAlgorithmException("Unknown key derivation " + record.kdf);
+        if (record.preHash != null && !PinRecord.PRE_HASH_SHA1.equals(record.preHash))
+            throw new NoSuchAlgorithmException("Unknown pre-hash " + record.preHash);
+        return kdf;
+    }
+
+    static byte[] derive(KeyDerivation kdf, byte[] pin, int length, byte[] salt, int iterations)
+            throws NoSuchAlgorithmException {
+        try {
+            return kdf.derive(pin, length, salt, iterations);
+        } catch (GeneralSecurityException e) {
+            throw new NoSuchAlgorithmException(e.getMessage());
+        }
+    }
+
+    private static byte[] sha1(byte[] pin, int length) throws NoSuchAlgorithmException {
+        MessageDigest md = sha1Digests.get();
+        if (md == null) {
+            md = MessageDigest.getInstance("SHA-1");
+            sha1Digests.set(md);
+        }
+        md.update(pin, 0, length);
+        return md.digest();
+    }
+}
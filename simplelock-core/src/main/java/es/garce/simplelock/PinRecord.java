@@ -0,0 +1,136 @@
+package es.garce.simplelock;
+
+/**
+ * <p>A pin hash together with the parameters used to derive it. Records are saved as
+ * {@code $<version>$<kdf>$<params>$<salt>$<hash>} with the salt and hash in Base64 and the params
+ * as a comma separated list of {@code name=value} pairs:</p>
+ * <ul>
+ *     <li>{@code i}: iterations of the key derivation function.</li>
+ *     <li>{@code pre}: optional hash applied to the pin before the key derivation. It is used to
+ *     wrap the bare SHA-1 hashes saved by the first versions of Simple Lock (version 1 records,
+ *     without any marker) without knowing the pin.</li>
+ * </ul>
+ */
+final class PinRecord {
+
+    /**
+     * Bare Base64 SHA-1 hash of the pin, saved without version marker.
+     */
+    static final int VERSION_LEGACY = 1;
+    /**
+     * Salted key derivation with its parameters.
+     */
+    static final int VERSION_KDF = 2;
+
+    static final String PRE_HASH_SHA1 = "sha1";
+
+    private static final char SEPARATOR = '$';
+    private static final String PARAM_ITERATIONS = "i";
+    private static final String PARAM_PRE_HASH = "pre";
+
+    final int version;
+    final String kdf;
+    final int iterations;
+    final String preHash;
+    final byte[] salt;
+    final byte[] hash;
+
+    PinRecord(String kdf, int iterations, String preHash, byte[] salt, byte[] hash) {
+        this.version = VERSION_KDF;
+        this.kdf = kdf;
+        this.iterations = iterations;
+        this.preHash = preHash;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * @param stored A saved pin.
+     * @return The version of the saved value.
+     */
+    static int getVersion(String stored) {
+        if (stored.length() < 2 || stored.charAt(0) != SEPARATOR)
+            return VERSION_LEGACY;
+        int end = stored.indexOf(SEPARATOR, 1);
+        try {
+            return Integer.parseInt(stored.substring(1, end < 0 ? stored.length() : end));
+        } catch (NumberFormatException e) {
+            return VERSION_LEGACY;
+        }
+    }
+
+    /**
+     * @param stored A saved pin.
+     * @return True if the value was saved by a previous version as a bare SHA-1 hash.
+     */
+    static boolean isLegacy(String stored) {
+        return getVersion(stored) == VERSION_LEGACY;
+    }
+
+    /**
+     * Parses a saved record.
+     * @param stored The saved value.
+     * @return The record or null if the value is not a valid record of a known version.
+     */
+    static PinRecord parse(String stored) {
+        if (getVersion(stored) != VERSION_KDF)
+            return null;
+        String[] parts = stored.split("\\$");
+        //First part is empty because the record starts with the separator
+        if (parts.length != 6)
+            return null;
+        try {
+            int iterations = 0;
+            String preHash = null;
+            for (String param : parts[3].split(",")) {
+                int eq = param.indexOf('=');
+                if (eq < 0)
+                    return null;
+                String name = param.substring(0, eq);
+                String value = param.substring(eq + 1);
+                if (PARAM_ITERATIONS.equals(name))
+                    iterations = Integer.parseInt(value);
+                else if (PARAM_PRE_HASH.equals(name))
+                    preHash = value;
+            }
+            if (iterations < 1)
+                return null;
+            byte[] salt = PinBase64.decode(parts[4]);
+            byte[] hash = PinBase64.decode(parts[5]);
+            return new PinRecord(parts[2], iterations, preHash, salt, hash);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The String representation of the record to be saved.
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder(128)
+                .append(SEPARATOR).append(version)
+                .append(SEPARATOR).append(kdf)
+                .append(SEPARATOR).append(PARAM_ITERATIONS).append('=').append(iterations);
+        if (preHash != null)
+            sb.append(',').append(PARAM_PRE_HASH).append('=').append(preHash);
+        return sb.append(SEPARATOR).append(PinBase64.encode(salt))
+                .append(SEPARATOR).append(PinBase64.encode(hash))
+                .toString();
+    }
+
+    /**
+     * Compares a derived hash with the saved one in constant time.
+     */
+    boolean matches(byte[] derived) {
+        return constantTimeEquals(hash, derived);
+    }
+
+    static boolean constantTimeEquals(byte[] a, byte[] b) {
+        if (a.length != b.length)
+            return false;
+        int diff = 0;
+        for (int i = 0; i < a.length; i++)
+            diff |= a[i] ^ b[i];
+        return diff == 0;
+    }
+}
@@ -0,0 +1,63 @@
+package es.garce.simplelock;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Storage of the hashed pins used by {@code SimpleLockPin} and the lock activities. Values are
+ * the records returned by {@link PinHasher#hash(String, int)}, stores don't need to understand
+ * them.</p>
+ *
+ * <p>Simple Lock includes {@code SharedPreferencesPinStore}, the preferences store used by default
+ * on Android, {@link MemoryPinStore}, {@link BinaryPinStore} for many keys and
+ * {@link CachingPinStore} to put a cache in front of any of them. Set the one to use with
+ * {@code SimpleLockPin.setPinStore(PinStore)}.</p>
+ *
+ * <p>Implementations must be thread safe. Writes may be saved asynchronously, {@link #flush()}
+ * waits until every previous write is durable.</p>
+ */
+public interface PinStore {
+
+    /**
+     * @param key The key of the pin.
+     * @return The saved value or null if there is no value for the key.
+     */
+    String get(String key) throws IOException;
+
+    /**
+     * Saves a value, replacing the previous one.
+     */
+    void put(String key, String value) throws IOException;
+
+    /**
+     * Saves several values at once. A null value removes the key.
+     */
+    void putAll(Map<String, String> values) throws IOException;
+
+    /**
+     * @return True if there was a value for the key.
+     */
+    boolean remove(String key) throws IOException;
+
+    /**
+     * Replaces several values at once. A value is only replaced if the key still has the expected
+     * value, so concurrent writes are never overwritten.
+     * @param expected The current value of each key.
+     * @param values The new value of each key.
+     * @return Number of values replaced.
+     */
+    int replaceAll(Map<String, String> expected, Map<String, String> values)
+            throws IOException;
+
+    /**
+     * @param prefix The prefix, empty for every key.
+     * @return The keys starting with the prefix in no particular order.
+     */
+    List<String> keys(String prefix) throws IOException;
+
+    /**
+     * Waits until every previous write is durable.
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,152 @@
+package es.garce.simplelock;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * <p>Checks pins saved in a {@link PinStore} without any user interface, for services, widgets or
+ * background jobs. It can be called from any number of threads at once.</p>
+ *
+ * <p>Checks don't take any lock, the hash is read from the store and verified on the calling
+ * thread with the {@link KeyDerivation} instances kept by each thread. A hash created with a weaker
+ * function or fewer iterations is upgraded: the new hash is derived without any lock and only its
+ * compare-and-replace in the store is serialized, by a lock chosen from the key among a fixed set
+ * of stripes, so the same hash is never replaced twice and checks of other keys never wait for a
+ * derivation.</p>
+ *
+ * <p>The records of a store keeping them decoded, like {@link CachingPinStore}, are not decoded
+ * again on every check.</p>
+ *
+ * <p>On Android get the verifier of the Simple Lock pins with
+ * {@code SimpleLockPin.getVerifier(Context)}.</p>
+ */
+public class PinVerifier {
+
+    /**
+     * Default number of stripes, enough to make collisions between concurrent upgrades rare.
+     */
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final PinHasher hasher;
+    private final PinStore store;
+    private final int iterations;
+    private final Object[] stripes;
+    private final int mask;
+
+    /**
+     * @param hasher The hasher knowing the functions of the saved hashes.
+     * @param store The store of the hashes.
+     * @param iterations The iterations of the current function, hashes with fewer are upgraded
+     *                   when their pin is checked. 0 to never upgrade.
+     */
+    public PinVerifier(PinHasher hasher, PinStore store, int iterations) {
+        this(hasher, store, iterations, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes Number of upgrade locks, rounded up to a power of two.
+     */
+    public PinVerifier(PinHasher hasher, PinStore store, int iterations, int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("stripes must be positive");
+        this.hasher = hasher;
+        this.store = store;
+        this.iterations = iterations;
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes)
+            size <<= 1;
+        this.stripes = new Object[size];
+        for (int i = 0; i < size; i++)
+            this.stripes[i] = new Object();
+        mask = size - 1;
+    }
+
+    /**
+     * Checks a pin against the hash saved for a key.
+     * @param key The key of the pin.
+     * @param pin The pin code to check.
+     * @return True if the pin matches, false if it doesn't or there is no pin for the key.
+     * @throws NoSuchAlgorithmException If the hash was created with an unknown function.
+     * @throws IOException If the store can't be read.
+     */
+    public boolean check(String key, String pin) throws NoSuchAlgorithmException, IOException {
+        byte[] bytes = pin.getBytes();
+        try {
+            return check(key, bytes, bytes.length);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #check(String, String)} reading the pin from the first {@code length} bytes
+     * of a buffer. The buffer is not cleared.
+     */
+    public boolean check(String key, byte[] pin, int length)
+            throws NoSuchAlgorithmException, IOException {
+        String stored;
+        PinRecord record = null;
+        if (store instanceof DecodedPinStore) {
+            StoredPin entry = ((DecodedPinStore) store).getStoredPin(key);
+            if (entry == null)
+                return false;
+            stored = entry.value;
+            //Null for legacy hashes, they are checked from the value
+            record = entry.getRecord();
+        }
+        else
+            stored = store.get(key);
+        if (stored == null)
+            return false;
+        boolean matches = record != null ? hasher.verify(pin, length, record)
+                : hasher.verify(pin, length, stored);
+        if (!matches)
+            return false;
+        if (iterations > 0 && (record != null ? hasher.needsUpgrade(record, iterations)
+                : hasher.needsUpgrade(stored, iterations)))
+            upgrade(key, stored, pin, length);
+        return true;
+    }
+
+    /**
+     * @return The iterations hashes are upgraded to.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    PinStore getStore() {
+        return store;
+    }
+
+    /**
+     * Called after the hash of a key was replaced by a stronger one.
+     * @param key The key of the pin.
+     */
+    protected void onUpgraded(String key) {
+    }
+
+    private void upgrade(String key, String stored, byte[] pin, int length)
+            throws NoSuchAlgorithmException, IOException {
+        //Already upgraded by another thread
+        if (!stored.equals(store.get(key)))
+            return;
+        //Slow, it must not hold the stripe shared with other keys
+        String upgraded = hasher.hash(pin, length, iterations);
+        synchronized (stripeOf(key)) {
+            //Another thread may have upgraded it while this one was hashing
+            if (store.replaceAll(Collections.singletonMap(key, stored),
+                    Collections.singletonMap(key, upgraded)) > 0)
+                onUpgraded(key);
+        }
+    }
+
+    private Object stripeOf(String key) {
+        int h = key.hashCode();
+        //Spread the high bits, keys often differ only in their last characters
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+}
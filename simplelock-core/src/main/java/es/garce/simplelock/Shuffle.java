@@ -0,0 +1,26 @@
+package es.garce.simplelock;
+
+import java.util.Random;
+
+/**
+ * Random permutations used to shuffle the keys of the pin pad.
+ */
+final class Shuffle {
+
+    private Shuffle() {
+    }
+
+    /**
+     * Shuffles an array in place with the Fisher-Yates algorithm, without allocating.
+     * @param values The values to shuffle.
+     * @param random Source of randomness.
+     */
+    static void permute(int[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
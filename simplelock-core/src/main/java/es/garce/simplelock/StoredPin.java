@@ -0,0 +1,28 @@
+package es.garce.simplelock;
+
+/**
+ * A value saved in a {@link PinStore} with its {@link PinRecord}, decoded the first time it is
+ * needed so a store keeping it decodes each value once.
+ */
+final class StoredPin {
+
+    final String value;
+    private PinRecord record;
+    private volatile boolean parsed = false;
+
+    StoredPin(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return The decoded record or null if the value is a legacy hash or not a record.
+     */
+    PinRecord getRecord() {
+        //Records never change, two threads decoding it at once get equal ones
+        if (!parsed) {
+            record = PinRecord.parse(value);
+            parsed = true;
+        }
+        return record;
+    }
+}
@@ -0,0 +1,208 @@
+package es.garce.simplelock;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Writes the file read by {@link WeakPinPolicy}. Every pin of 4 to 6 digits is checked against
+ * the rules and the leaked pins once, at build time, and its answer is saved as one bit. Leaked
+ * pins of other lengths are saved in a Bloom filter.</p>
+ *
+ * <p>The Simple Lock build runs {@link #main(String[])} to create the asset shipped with the
+ * library, with the default rules and the lists of its {@code weakpins} folder.</p>
+ */
+public final class WeakPinGenerator {
+
+    /**
+     * Lengths of the pins saved in the exact bitset. The 6 digits space takes 122 KB.
+     */
+    public static final int EXACT_MIN_LENGTH = 4;
+    public static final int EXACT_MAX_LENGTH = 6;
+
+    /**
+     * Rate of pins of other lengths wrongly reported as weak by the Bloom filter.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MIN_BLOOM_BITS = 64;
+
+    private final List<WeakPinPolicy.Rule> rules = new ArrayList<>();
+    private final Set<String> pins = new LinkedHashSet<>();
+    private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+    /**
+     * Blocks every pin of 4 to 6 digits matching a rule.
+     */
+    public WeakPinGenerator addRules(List<? extends WeakPinPolicy.Rule> rules) {
+        this.rules.addAll(rules);
+        return this;
+    }
+
+    /**
+     * Blocks a pin, usually one from a list of leaked pins.
+     * @param pin The pin, only digits.
+     */
+    public WeakPinGenerator addPin(String pin) {
+        if (pin.isEmpty())
+            throw new IllegalArgumentException("Empty pin");
+        for (int i = 0; i < pin.length(); i++) {
+            if (pin.charAt(i) < '0' || pin.charAt(i) > '9')
+                throw new IllegalArgumentException("Not a pin: " + pin);
+        }
+        pins.add(pin);
+        return this;
+    }
+
+    /**
+     * Blocks the pins of a list with one pin per line. Empty lines and lines starting with
+     * {@code #} are skipped.
+     */
+    public WeakPinGenerator addPins(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#"))
+                addPin(line);
+        }
+        return this;
+    }
+
+    /**
+     * @param falsePositiveRate Rate of pins of lengths outside the exact range wrongly reported
+     *                          as weak, it sets the size of the Bloom filter.
+     */
+    public WeakPinGenerator setFalsePositiveRate(double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+        this.falsePositiveRate = falsePositiveRate;
+        return this;
+    }
+
+    /**
+     * @return The content of the weak pin file.
+     */
+    public ByteBuffer generate() {
+        List<String> bloomPins = new ArrayList<>();
+        for (String pin : pins) {
+            if (pin.length() < EXACT_MIN_LENGTH || pin.length() > EXACT_MAX_LENGTH)
+                bloomPins.add(pin);
+        }
+        int n = bloomPins.size();
+        double ln2 = Math.log(2);
+        int bloomBits = Math.max(MIN_BLOOM_BITS,
+                (int) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        //The optimal number of probes for the rate, a bigger filter than needed doesn't need more
+        int bloomHashes = Math.max(1, (int) Math.round(-Math.log(falsePositiveRate) / ln2));
+
+        int size = WeakPinPolicy.HEADER_SIZE;
+        for (int length = EXACT_MIN_LENGTH; length <= EXACT_MAX_LENGTH; length++)
+            size += WeakPinPolicy.bytesFor(WeakPinPolicy.space(length));
+        int bloomOffset = size;
+        size += WeakPinPolicy.bytesFor(bloomBits);
+
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.putInt(WeakPinPolicy.HEADER_MAGIC, WeakPinPolicy.MAGIC);
+        data.putInt(WeakPinPolicy.HEADER_VERSION, WeakPinPolicy.VERSION);
+        data.putInt(WeakPinPolicy.HEADER_EXACT_MIN, EXACT_MIN_LENGTH);
+        data.putInt(WeakPinPolicy.HEADER_EXACT_MAX, EXACT_MAX_LENGTH);
+        data.putInt(WeakPinPolicy.HEADER_BLOOM_BITS, bloomBits);
+        data.putInt(WeakPinPolicy.HEADER_BLOOM_HASHES, bloomHashes);
+        data.putInt(WeakPinPolicy.HEADER_BLOOM_COUNT, n);
+
+        int offset = WeakPinPolicy.HEADER_SIZE;
+        byte[] pin = new byte[EXACT_MAX_LENGTH];
+        for (int length = EXACT_MIN_LENGTH; length <= EXACT_MAX_LENGTH; length++) {
+            int space = WeakPinPolicy.space(length);
+            for (int value = 0; value < space; value++) {
+                toDigits(value, pin, length);
+                if (matchesRule(pin, length))
+                    set(data, offset, value);
+            }
+            offset += WeakPinPolicy.bytesFor(space);
+        }
+        for (String listed : pins) {
+            int length = listed.length();
+            if (length >= EXACT_MIN_LENGTH && length <= EXACT_MAX_LENGTH) {
+                int lengthOffset = WeakPinPolicy.HEADER_SIZE;
+                for (int l = EXACT_MIN_LENGTH; l < length; l++)
+                    lengthOffset += WeakPinPolicy.bytesFor(WeakPinPolicy.space(l));
+                set(data, lengthOffset, Integer.parseInt(listed));
+            }
+        }
+        for (String listed : bloomPins) {
+            byte[] bytes = listed.getBytes(UTF_8);
+            long[] hashes = WeakPinPolicy.hashes(bytes, bytes.length);
+            for (int i = 0; i < bloomHashes; i++)
+                set(data, bloomOffset, WeakPinPolicy.bloomIndex(hashes[0], hashes[1], i, bloomBits));
+        }
+        return data;
+    }
+
+    /**
+     * Writes the content of the weak pin file.
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(generate().array());
+    }
+
+    /**
+     * Writes a weak pin file with the default rules.
+     * @param args The output file followed by the files of leaked pin lists.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: WeakPinGenerator <output> [pin lists...]");
+            System.exit(1);
+        }
+        WeakPinGenerator generator = new WeakPinGenerator().addRules(WeakPinRules.defaults());
+        for (int i = 1; i < args.length; i++) {
+            Reader reader = new InputStreamReader(new FileInputStream(args[i]), UTF_8);
+            try {
+                generator.addPins(reader);
+            } finally {
+                reader.close();
+            }
+        }
+        File output = new File(args[0]);
+        OutputStream out = new FileOutputStream(output);
+        try {
+            generator.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean matchesRule(byte[] pin, int length) {
+        for (WeakPinPolicy.Rule rule : rules) {
+            if (rule.matches(pin, length))
+                return true;
+        }
+        return false;
+    }
+
+    private static void toDigits(int value, byte[] pin, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            pin[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void set(ByteBuffer data, int offset, int bit) {
+        int index = offset + (bit >>> 3);
+        data.put(index, (byte) (data.get(index) | (1 << (bit & 7))));
+    }
+}
@@ -0,0 +1,214 @@
+package es.garce.simplelock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * <p>Tells if a pin is too easy to guess. The answers are precomputed by {@link WeakPinGenerator}
+ * in a compact file, usually memory mapped, so only the pages that are read are loaded:</p>
+ * <ul>
+ *     <li>Pins of 4 to 6 digits are looked up in an exact bitset of the whole space, one bit per
+ *     pin, set when the pin matched a rule or a leaked pin list when the file was generated.</li>
+ *     <li>Pins of other lengths are looked up in a Bloom filter of the leaked pins of those
+ *     lengths, and then checked against the {@link Rule rules} given to the policy.</li>
+ * </ul>
+ *
+ * <p>A lookup is a few reads of the buffer and never allocates, so it can be done on every key
+ * press. Instances are immutable and thread safe.</p>
+ */
+public final class WeakPinPolicy {
+
+    /**
+     * A kind of weak pin, like sequences or dates. Rules must not allocate or keep state, they
+     * are evaluated on every key press.
+     */
+    public interface Rule {
+        /**
+         * @param pin ASCII digits of the pin, only the first {@code length} bytes are part of it.
+         *            It must not be modified.
+         * @param length Number of digits of the pin.
+         * @return True if the pin is weak.
+         */
+        boolean matches(byte[] pin, int length);
+    }
+
+    static final int MAGIC = 0x534c5750; //SLWP
+    static final int VERSION = 1;
+
+    //Header fields, all of them ints
+    static final int HEADER_MAGIC = 0;
+    static final int HEADER_VERSION = 4;
+    static final int HEADER_EXACT_MIN = 8;
+    static final int HEADER_EXACT_MAX = 12;
+    static final int HEADER_BLOOM_BITS = 16;
+    static final int HEADER_BLOOM_HASHES = 20;
+    static final int HEADER_BLOOM_COUNT = 24;
+    static final int HEADER_SIZE = 32;
+
+    //Seeds of the two hashes combined for the probes of the Bloom filter
+    private static final long SEED_1 = 0xcbf29ce484222325L;
+    private static final long SEED_2 = 0x9e3779b97f4a7c15L;
+
+    private final ByteBuffer data;
+    private final int exactMin;
+    private final int exactMax;
+    private final int[] exactOffsets;
+    private final int bloomOffset;
+    private final int bloomBits;
+    private final int bloomHashes;
+    private final Rule[] rules;
+
+    /**
+     * @param data Content of a file written by {@link WeakPinGenerator}. It is read with absolute
+     *             reads only, so its position and limit don't matter.
+     * @param rules Rules checked for pins of lengths outside the exact range. Rules for 4 to 6
+     *              digits must be given to the generator instead.
+     * @throws IOException If the data is not a weak pin file.
+     */
+    public WeakPinPolicy(ByteBuffer data, List<? extends Rule> rules) throws IOException {
+        if (data.capacity() < HEADER_SIZE || data.getInt(HEADER_MAGIC) != MAGIC)
+            throw new IOException("Not a weak pin file");
+        if (data.getInt(HEADER_VERSION) != VERSION)
+            throw new IOException("Unknown weak pin file version " + data.getInt(HEADER_VERSION));
+        this.data = data;
+        exactMin = data.getInt(HEADER_EXACT_MIN);
+        exactMax = data.getInt(HEADER_EXACT_MAX);
+        bloomBits = data.getInt(HEADER_BLOOM_BITS);
+        bloomHashes = data.getInt(HEADER_BLOOM_HASHES);
+        if (exactMin < 1 || exactMax < exactMin || exactMax > 9 || bloomBits < 1 || bloomHashes < 1)
+            throw new IOException("Corrupted weak pin file");
+
+        exactOffsets = new int[exactMax - exactMin + 1];
+        int offset = HEADER_SIZE;
+        for (int length = exactMin; length <= exactMax; length++) {
+            exactOffsets[length - exactMin] = offset;
+            offset += bytesFor(space(length));
+        }
+        bloomOffset = offset;
+        if (bloomOffset + (long) bytesFor(bloomBits) > data.capacity())
+            throw new IOException("Truncated weak pin file");
+        this.rules = rules.toArray(new Rule[rules.size()]);
+    }
+
+    /**
+     * Maps a file written by {@link WeakPinGenerator}. The file is closed, the mapping stays valid
+     * until the policy is garbage collected.
+     * @param file The weak pin file.
+     * @param rules Rules checked for pins of lengths outside the exact range.
+     * @return The policy.
+     * @throws IOException If the file can't be mapped or is not a weak pin file.
+     */
+    public static WeakPinPolicy open(File file, List<? extends Rule> rules) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new WeakPinPolicy(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                    rules);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param pin ASCII digits of the pin, the same bytes {@code String.getBytes()} returns.
+     * @param length Number of digits of the pin.
+     * @return True if the pin is weak. Pins of 4 to 6 digits are never reported by mistake, other
+     *         lengths may be, rarely, by the Bloom filter.
+     */
+    public boolean isWeak(byte[] pin, int length) {
+        if (length >= exactMin && length <= exactMax) {
+            int value = 0;
+            for (int i = 0; i < length; i++)
+                value = value * 10 + digit(pin[i]);
+            return isSet(exactOffsets[length - exactMin], value);
+        }
+        for (int i = 0; i < length; i++)
+            digit(pin[i]);
+        if (mightContain(pin, length))
+            return true;
+        for (Rule rule : rules) {
+            if (rule.matches(pin, length))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #isWeak(byte[], int)} for a String. It allocates a copy of the pin.
+     */
+    public boolean isWeak(String pin) {
+        return isWeak(pin.getBytes(), pin.length());
+    }
+
+    /**
+     * @return Size in bytes of the precomputed data.
+     */
+    public int size() {
+        return data.capacity();
+    }
+
+    private boolean mightContain(byte[] pin, int length) {
+        long h1 = hash(pin, length, SEED_1);
+        long h2 = hash(pin, length, SEED_2) | 1;
+        for (int i = 0; i < bloomHashes; i++) {
+            if (!isSet(bloomOffset, bloomIndex(h1, h2, i, bloomBits)))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isSet(int offset, int bit) {
+        return (data.get(offset + (bit >>> 3)) & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * @return Number of pins of a length.
+     */
+    static int space(int length) {
+        int space = 1;
+        for (int i = 0; i < length; i++)
+            space *= 10;
+        return space;
+    }
+
+    static int bytesFor(int bits) {
+        return (bits + 7) >>> 3;
+    }
+
+    static int bloomIndex(long h1, long h2, int probe, int bits) {
+        return (int) (((h1 + probe * h2) & Long.MAX_VALUE) % bits);
+    }
+
+    /**
+     * @return The two hashes of a pin used by the probes of the Bloom filter. Only used when
+     * generating the file.
+     */
+    static long[] hashes(byte[] pin, int length) {
+        return new long[] {hash(pin, length, SEED_1), hash(pin, length, SEED_2) | 1};
+    }
+
+    private static long hash(byte[] pin, int length, long seed) {
+        //FNV-1a followed by the MurmurHash3 finalizer to spread the few bits of the digits
+        long h = seed ^ length;
+        for (int i = 0; i < length; i++) {
+            h ^= pin[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int digit(byte b) {
+        if (b < '0' || b > '9')
+            throw new IllegalArgumentException("Not a digit: " + b);
+        return b - '0';
+    }
+}
@@ -0,0 +1,150 @@
+package es.garce.simplelock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The {@link WeakPinPolicy.Rule rules} of the weak pins blocked by Simple Lock. None of them
+ * allocates.</p>
+ */
+public final class WeakPinRules {
+
+    private static final int MIN_YEAR = 1900;
+    private static final int MAX_YEAR = 2039;
+
+    /**
+     * A block of digits repeated, like 0000, 1212 or 123123, every digit doubled, like 112233, and
+     * pins that read the same backwards, like 1221.
+     */
+    public static final WeakPinPolicy.Rule REPEATS = new WeakPinPolicy.Rule() {
+        @Override
+        public boolean matches(byte[] pin, int length) {
+            if (length < 2)
+                return false;
+            for (int block = 1; block <= length / 2; block++) {
+                if (length % block == 0 && isRepeated(pin, length, block))
+                    return true;
+            }
+            return length >= 4 && (isDoubled(pin, length) || isMirrored(pin, length));
+        }
+    };
+
+    /**
+     * Digits going up or down one by one, like 1234, 9876 or 7890.
+     */
+    public static final WeakPinPolicy.Rule SEQUENCES = new WeakPinPolicy.Rule() {
+        @Override
+        public boolean matches(byte[] pin, int length) {
+            if (length < 3)
+                return false;
+            int step = (pin[1] - pin[0] + 10) % 10;
+            if (step != 1 && step != 9)
+                return false;
+            for (int i = 2; i < length; i++) {
+                if ((pin[i] - pin[i - 1] + 10) % 10 != step)
+                    return false;
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Dates and years: MMDD, DDMM and years from 1900 to 2039 for 4 digits, DDMMYY, MMDDYY and
+     * YYMMDD for 6 digits and DDMMYYYY, MMDDYYYY and YYYYMMDD for 8 digits.
+     */
+    public static final WeakPinPolicy.Rule DATES = new WeakPinPolicy.Rule() {
+        @Override
+        public boolean matches(byte[] pin, int length) {
+            switch (length) {
+                case 4: {
+                    int year = number(pin, 0, 4);
+                    return (year >= MIN_YEAR && year <= MAX_YEAR)
+                            || isDate(number(pin, 0, 2), number(pin, 2, 2))
+                            || isDate(number(pin, 2, 2), number(pin, 0, 2));
+                }
+                case 6:
+                    return isDate(number(pin, 0, 2), number(pin, 2, 2))
+                            || isDate(number(pin, 2, 2), number(pin, 0, 2))
+                            || isDate(number(pin, 4, 2), number(pin, 2, 2));
+                case 8:
+                    return (isYear(number(pin, 4, 4))
+                            && (isDate(number(pin, 0, 2), number(pin, 2, 2))
+                            || isDate(number(pin, 2, 2), number(pin, 0, 2))))
+                            || (isYear(number(pin, 0, 4))
+                            && isDate(number(pin, 6, 2), number(pin, 4, 2)));
+                default:
+                    return false;
+            }
+        }
+    };
+
+    private static final List<WeakPinPolicy.Rule> DEFAULTS =
+            Collections.unmodifiableList(Arrays.asList(REPEATS, SEQUENCES, DATES));
+
+    private WeakPinRules() {
+    }
+
+    /**
+     * @return Every rule of this class, the ones used by Simple Lock.
+     */
+    public static List<WeakPinPolicy.Rule> defaults() {
+        return DEFAULTS;
+    }
+
+    private static boolean isRepeated(byte[] pin, int length, int block) {
+        for (int i = block; i < length; i++) {
+            if (pin[i] != pin[i - block])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDoubled(byte[] pin, int length) {
+        if (length % 2 != 0)
+            return false;
+        for (int i = 0; i < length; i += 2) {
+            if (pin[i] != pin[i + 1])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isMirrored(byte[] pin, int length) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            if (pin[i] != pin[j])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isYear(int year) {
+        return year >= MIN_YEAR && year <= MAX_YEAR;
+    }
+
+    /**
+     * @return True if there is a day with that number in the month, in any year.
+     */
+    private static boolean isDate(int day, int month) {
+        if (month < 1 || month > 12 || day < 1)
+            return false;
+        switch (month) {
+            case 2:
+                return day <= 29;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return day <= 30;
+            default:
+                return day <= 31;
+        }
+    }
+
+    private static int number(byte[] pin, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++)
+            value = value * 10 + pin[i] - '0';
+        return value;
+    }
+}
@@ -0,0 +1,141 @@
+package es.garce.simplelock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AttemptLogTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("attempts", ".log");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void streamsRecordsInOrder() throws IOException {
+        AttemptLog log = AttemptLog.open(file, 16);
+        try {
+            log.append("MAIN", 1000, AttemptLog.WRONG, 150000000);
+            log.append("MAIN", 2000, AttemptLog.CORRECT, 2000000);
+            log.append(null, 3000, AttemptLog.ERROR, 0);
+
+            AttemptLog.Cursor cursor = log.cursor();
+            assertTrue(cursor.next());
+            assertEquals(0, cursor.getSequence());
+            assertEquals(1000, cursor.getTime());
+            assertEquals(AttemptLog.keyHash("MAIN"), cursor.getKeyHash());
+            assertEquals(AttemptLog.WRONG, cursor.getOutcome());
+            assertEquals(150000, cursor.getLatencyMicros());
+            assertTrue(cursor.next());
+            assertEquals(AttemptLog.CORRECT, cursor.getOutcome());
+            assertTrue(cursor.next());
+            assertEquals(0, cursor.getKeyHash());
+            assertEquals(AttemptLog.ERROR, cursor.getOutcome());
+            assertFalse(cursor.next());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void keepsTheNewestRecordsWhenFull() throws IOException {
+        AttemptLog log = AttemptLog.open(file, 8);
+        try {
+            for (int i = 0; i < 20; i++)
+                log.append("key", i, AttemptLog.WRONG, 0);
+            assertEquals(20, log.size());
+
+            AttemptLog.Cursor cursor = log.cursor();
+            long expected = 12;
+            while (cursor.next())
+                assertEquals(expected++, cursor.getTime());
+            assertEquals(20, expected);
+
+            cursor = log.cursor(3);
+            assertTrue(cursor.next());
+            assertEquals(17, cursor.getSequence());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void reopensAndSkipsTornRecords() throws IOException {
+        AttemptLog log = AttemptLog.open(file, 8);
+        for (int i = 0; i < 5; i++)
+            log.append("key", i, AttemptLog.WRONG, 0);
+        log.close();
+
+        //Damage the time of the third record, as a write cut by a crash would
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(64 + 2 * AttemptLog.RECORD_SIZE + 8);
+            raf.writeLong(12345);
+        } finally {
+            raf.close();
+        }
+
+        log = AttemptLog.open(file);
+        try {
+            assertEquals(8, log.capacity());
+            assertEquals(5, log.size());
+            log.append("key", 5, AttemptLog.CORRECT, 0);
+            int records = 0;
+            AttemptLog.Cursor cursor = log.cursor();
+            while (cursor.next()) {
+                assertNotEquals(2, cursor.getSequence());
+                records++;
+            }
+            assertEquals(5, records);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void countsFailuresPerKeyInWindow() throws IOException {
+        AttemptLog log = AttemptLog.open(file, 64);
+        try {
+            log.append("a", 100, AttemptLog.WRONG, 0);
+            log.append("a", 200, AttemptLog.WRONG, 0);
+            log.append("a", 300, AttemptLog.CORRECT, 0);
+            log.append("b", 250, AttemptLog.WRONG, 0);
+            log.append("a", 900, AttemptLog.WRONG, 0);
+
+            assertEquals(2, log.countFailures("a", 100, 500));
+            assertEquals(0, log.countFailures("c", 0, 1000));
+            Map<Long, Integer> failures = log.failuresPerKey(150, 1000);
+            assertEquals(2, failures.size());
+            assertEquals(2, (int) failures.get(AttemptLog.keyHash("a")));
+            assertEquals(1, (int) failures.get(AttemptLog.keyHash("b")));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[128]);
+        } finally {
+            raf.close();
+        }
+        AttemptLog.open(file);
+    }
+}
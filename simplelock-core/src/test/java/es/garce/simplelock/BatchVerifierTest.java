@@ -0,0 +1,52 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchVerifierTest {
+
+    @Test
+    public void verifiesAndAuditsInOrder() throws Exception {
+        PinHasher hasher = new PinHasher();
+        List<BatchVerifier.Record> records = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String pin = String.format("%04d", i);
+            String hash = hasher.hash(pin, i % 2 == 0 ? 10 : 5);
+            String candidate = i % 3 == 0 ? null : (i % 3 == 1 ? pin : "x" + pin);
+            records.add(new BatchVerifier.Record("key" + i, hash, candidate));
+        }
+        records.add(new BatchVerifier.Record("malformed", "$2$pbkdf2-sha256$i=0$$", "1234"));
+        records.add(new BatchVerifier.Record("unknown", "$2$scrypt$i=10$AAAA$AAAA", null));
+
+        BatchVerifier verifier = new BatchVerifier(hasher);
+        BatchVerifier.Report report = verifier.run(records, 10);
+        verifier.shutdown();
+
+        assertEquals(202, report.size());
+        for (int i = 0; i < 200; i++) {
+            BatchVerifier.Outcome expected = i % 3 == 0 ? BatchVerifier.Outcome.VALID
+                    : (i % 3 == 1 ? BatchVerifier.Outcome.MATCH : BatchVerifier.Outcome.MISMATCH);
+            assertEquals("key" + i, expected, report.getOutcome(i));
+            assertEquals("key" + i, i % 2 != 0, report.needsUpgrade(i));
+            assertEquals("key" + i, report.getRecord(i).key);
+        }
+        assertEquals(BatchVerifier.Outcome.MALFORMED, report.getOutcome(200));
+        assertEquals(BatchVerifier.Outcome.UNKNOWN_KDF, report.getOutcome(201));
+        assertEquals(67, report.getCount(BatchVerifier.Outcome.VALID));
+        assertEquals(67, report.getCount(BatchVerifier.Outcome.MATCH));
+        assertEquals(66, report.getCount(BatchVerifier.Outcome.MISMATCH));
+        assertEquals(100, report.getUpgradeCount());
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void emptyRun() {
+        BatchVerifier.Report report =
+                new BatchVerifier(new PinHasher()).run(new ArrayList<BatchVerifier.Record>(), 10);
+        assertEquals(0, report.size());
+    }
+}
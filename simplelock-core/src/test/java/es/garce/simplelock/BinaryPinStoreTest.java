@@ -0,0 +1,143 @@
+package es.garce.simplelock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BinaryPinStoreTest {
+
+    private File file;
+    private BinaryPinStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("pins", ".store");
+        assertTrue(file.delete());
+        store = BinaryPinStore.open(file);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        file.delete();
+        new File(file.getPath() + ".journal").delete();
+    }
+
+    @Test
+    public void putGetRemove() throws Exception {
+        assertNull(store.get("a"));
+        store.put("a", "1");
+        store.put("b", "2");
+        store.put("a", "3");
+        assertEquals("3", store.get("a"));
+        assertEquals("2", store.get("b"));
+        assertEquals(2, store.size());
+        assertTrue(store.remove("a"));
+        assertFalse(store.remove("a"));
+        assertNull(store.get("a"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void growsAndSurvivesReopen() throws Exception {
+        for (int i = 0; i < 2000; i++)
+            store.put("doc/" + i, "$2$pbkdf2-sha256$i=10000$salt$hash" + i);
+        store.close();
+
+        store = BinaryPinStore.open(file);
+        assertEquals(2000, store.size());
+        for (int i = 0; i < 2000; i++)
+            assertEquals("$2$pbkdf2-sha256$i=10000$salt$hash" + i, store.get("doc/" + i));
+    }
+
+    @Test
+    public void prefixListingAndBulkDelete() throws Exception {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            values.put("doc/" + i, "d" + i);
+            values.put("profile/" + i, "p" + i);
+        }
+        store.putAll(values);
+
+        List<String> docs = store.keys("doc/");
+        assertEquals(100, docs.size());
+        assertTrue(docs.contains("doc/42"));
+        assertEquals(100, store.removeAll("doc/"));
+        assertTrue(store.keys("doc/").isEmpty());
+        assertEquals(100, store.size());
+        assertEquals("p7", store.get("profile/7"));
+
+        //Slots of deleted keys are reused
+        store.put("doc/1", "again");
+        assertEquals("again", store.get("doc/1"));
+    }
+
+    @Test
+    public void tornJournalIsDropped() throws Exception {
+        store.put("a", "1");
+        store.close();
+
+        FileOutputStream out = new FileOutputStream(file.getPath() + ".journal");
+        out.write(new byte[] {0x53, 0x4c, 0x50, 0x4a, 0, 0, 0, 1, 0, 0});
+        out.close();
+
+        store = BinaryPinStore.open(file);
+        assertEquals("1", store.get("a"));
+        assertEquals(0, new File(file.getPath() + ".journal").length());
+    }
+
+    @Test
+    public void interruptedCreationIsDropped() throws Exception {
+        store.close();
+        assertTrue(file.delete());
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            //Part of the header of a table being created
+            out.write(new byte[]{0x53, 0x4c, 0x50});
+        } finally {
+            out.close();
+        }
+
+        store = BinaryPinStore.open(file);
+        assertFalse(tmp.exists());
+        store.put("a", "1");
+        store.flush();
+        store.close();
+        store = BinaryPinStore.open(file);
+        assertEquals("1", store.get("a"));
+    }
+
+    @Test
+    public void importRunsOnce() throws Exception {
+        store.put("kept", "new");
+        Map<String, Object> prefs = new HashMap<>();
+        prefs.put("a", "1");
+        prefs.put("kept", "old");
+        prefs.put("number", 3);
+        assertEquals(1, store.importFrom(prefs));
+        assertTrue(store.isImported());
+        assertEquals("new", store.get("kept"));
+        assertEquals("1", store.get("a"));
+        assertNull(store.get("number"));
+
+        assertEquals(0, store.importFrom(Collections.<String, Object>singletonMap("b", "2")));
+        assertNull(store.get("b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLongEntries() throws Exception {
+        char[] value = new char[BinaryPinStore.MAX_ENTRY_LENGTH];
+        java.util.Arrays.fill(value, 'x');
+        store.put("k", new String(value));
+    }
+}
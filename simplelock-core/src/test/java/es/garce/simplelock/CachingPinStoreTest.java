@@ -0,0 +1,216 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CachingPinStoreTest {
+
+    /**
+     * Memory store counting the calls that reach it.
+     */
+    private static class CountingStore extends MemoryPinStore {
+        int gets = 0;
+        int putAlls = 0;
+        int flushes = 0;
+
+        @Override
+        public synchronized String get(String key) {
+            gets++;
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized void putAll(Map<String, String> values) {
+            putAlls++;
+            super.putAll(values);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    /**
+     * Memory store failing to flush until it is allowed to.
+     */
+    private static class FailingStore implements PinStore {
+        final MemoryPinStore values = new MemoryPinStore();
+        volatile boolean failing = true;
+        volatile int attempts = 0;
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<String, String> values) {
+            this.values.putAll(values);
+        }
+
+        @Override
+        public boolean remove(String key) {
+            return values.remove(key);
+        }
+
+        @Override
+        public int replaceAll(Map<String, String> expected, Map<String, String> values) {
+            return this.values.replaceAll(expected, values);
+        }
+
+        @Override
+        public List<String> keys(String prefix) {
+            return values.keys(prefix);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            attempts++;
+            if (failing)
+                throw new IOException("Disk full");
+        }
+    }
+
+    @Test
+    public void readsAreCached() throws Exception {
+        CountingStore backend = new CountingStore();
+        backend.put("a", "1");
+        CachingPinStore store = new CachingPinStore(backend, 10, 60000);
+
+        assertEquals("1", store.get("a"));
+        assertEquals("1", store.get("a"));
+        assertNull(store.get("missing"));
+        assertEquals(2, backend.gets);
+        assertEquals(1, store.getHitCount());
+        assertEquals(2, store.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception {
+        CountingStore backend = new CountingStore();
+        backend.put("a", "1");
+        backend.put("b", "2");
+        backend.put("c", "3");
+        CachingPinStore store = new CachingPinStore(backend, 2, 60000);
+
+        store.get("a");
+        store.get("b");
+        store.get("a");
+        store.get("c");
+        assertEquals(3, backend.gets);
+        store.get("a");
+        assertEquals(3, backend.gets);
+        store.get("b");
+        assertEquals(4, backend.gets);
+    }
+
+    @Test
+    public void writesAreMergedInOneFlush() throws Exception {
+        CountingStore backend = new CountingStore();
+        CachingPinStore store = new CachingPinStore(backend, 10, 60000);
+
+        for (int i = 0; i < 100; i++)
+            store.put("key" + i, "value" + i);
+        assertTrue(store.remove("key0"));
+        assertEquals("value5", store.get("key5"));
+        assertNull(store.get("key0"));
+        assertEquals(0, backend.putAlls);
+
+        store.flush();
+        store.flush();
+        assertEquals(1, backend.putAlls);
+        assertEquals(1, backend.flushes);
+        assertEquals(1, store.getFlushCount());
+        assertEquals(99, backend.keys("key").size());
+        assertNull(backend.get("key0"));
+    }
+
+    @Test
+    public void writesAreFlushedAfterTheDelay() throws Exception {
+        CountingStore backend = new CountingStore();
+        CachingPinStore store = new CachingPinStore(backend, 10, 10);
+        store.put("a", "1");
+        store.put("b", "2");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getFlushCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, store.getFlushCount());
+        assertEquals("2", backend.get("b"));
+    }
+
+    @Test
+    public void replaceOnlyExpectedValues() throws Exception {
+        MemoryPinStore backend = new MemoryPinStore();
+        backend.put("a", "old");
+        backend.put("b", "changed");
+        CachingPinStore store = new CachingPinStore(backend, 10, 60000);
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("a", "old");
+        expected.put("b", "old");
+        Map<String, String> values = new HashMap<>();
+        values.put("a", "new");
+        values.put("b", "new");
+        assertEquals(1, store.replaceAll(expected, values));
+        assertEquals("new", store.get("a"));
+        assertEquals("changed", store.get("b"));
+
+        assertEquals(0, store.replaceAll(Collections.singletonMap("a", "old"),
+                Collections.singletonMap("a", "newer")));
+    }
+
+    @Test
+    public void recordsAreDecodedOnce() throws Exception {
+        PinHasher hasher = new PinHasher();
+        MemoryPinStore backend = new MemoryPinStore();
+        backend.put("a", hasher.hash("1234", 10));
+        backend.put("legacy", "cRDtpNCeBiql5KOQsKVyrA0sAiA=");
+        CachingPinStore store = new CachingPinStore(backend, 10, 60000);
+
+        PinRecord record = store.getStoredPin("a").getRecord();
+        assertNotNull(record);
+        assertSame(record, store.getStoredPin("a").getRecord());
+        assertNull(store.getStoredPin("legacy").getRecord());
+        assertNull(store.getStoredPin("missing"));
+
+        PinVerifier verifier = new PinVerifier(hasher, store, 0);
+        assertTrue(verifier.check("a", "1234"));
+        assertFalse(verifier.check("a", "4321"));
+        assertTrue(verifier.check("legacy", "1234"));
+    }
+
+    @Test
+    public void failedFlushIsRetried() throws Exception {
+        FailingStore backend = new FailingStore();
+        CachingPinStore store = new CachingPinStore(backend, 10, 10);
+        store.put("a", "1");
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backend.attempts == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, store.getFlushCount());
+        assertEquals("1", store.get("a"));
+
+        //No other write arrives, the flush is tried again by itself
+        backend.failing = false;
+        deadline = System.currentTimeMillis() + 5000;
+        while (store.getFlushCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, store.getFlushCount());
+        assertEquals("1", backend.get("a"));
+    }
+}
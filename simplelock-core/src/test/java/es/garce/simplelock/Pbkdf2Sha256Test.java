@@ -0,0 +1,46 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link Pbkdf2Sha256} against the PBKDF2 implementation of the JVM.
+ */
+public class Pbkdf2Sha256Test {
+
+    private static final byte[] SALT = "0123456789abcdef".getBytes();
+
+    @Test
+    public void derive_matchesJvmPbkdf2() throws Exception {
+        String[] pins = {"0", "1234", "0987654321"};
+        int[] iterations = {1, 2, 1000};
+        for (String pin : pins)
+            for (int count : iterations)
+                assertArrayEquals(pin + " / " + count, reference(pin, count),
+                        new Pbkdf2Sha256().derive(pin.getBytes(), pin.length(), SALT, count));
+    }
+
+    @Test
+    public void derive_usesOnlyGivenLength() throws Exception {
+        byte[] buffer = {'1', '2', '3', '4', '9', '9'};
+        assertArrayEquals(reference("1234", 10),
+                new Pbkdf2Sha256().derive(buffer, 4, SALT, 10));
+    }
+
+    @Test
+    public void calibrate_staysInBounds() throws Exception {
+        int iterations = KdfCalibrator.calibrate(new Pbkdf2Sha256(), 1);
+        assertTrue(iterations >= KdfCalibrator.MIN_ITERATIONS);
+        assertTrue(iterations <= KdfCalibrator.MAX_ITERATIONS);
+    }
+
+    private static byte[] reference(String pin, int iterations) throws Exception {
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+                .generateSecret(new PBEKeySpec(pin.toCharArray(), SALT, iterations, 256))
+                .getEncoded();
+    }
+}
@@ -0,0 +1,60 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PinBufferTest {
+
+    @Test
+    public void append_keepsAsciiDigits() {
+        PinBuffer pin = new PinBuffer(4);
+        pin.append(1);
+        pin.append(2);
+        pin.append(3);
+        assertEquals(3, pin.length());
+        assertEquals("123", pin.toString());
+        assertArrayEquals("123".getBytes(), java.util.Arrays.copyOf(pin.array(), pin.length()));
+    }
+
+    @Test
+    public void append_ignoresDigitsWhenFull() {
+        PinBuffer pin = new PinBuffer(2);
+        assertTrue(pin.append(1));
+        assertTrue(pin.append(2));
+        assertFalse(pin.append(3));
+        assertTrue(pin.isFull());
+        assertEquals("12", pin.toString());
+    }
+
+    @Test
+    public void deleteAndClear_wipeDigits() {
+        PinBuffer pin = new PinBuffer(4);
+        pin.append(5);
+        pin.append(6);
+        pin.append(7);
+        assertTrue(pin.delete());
+        assertEquals(0, pin.array()[2]);
+        assertTrue(pin.clear());
+        assertTrue(pin.isEmpty());
+        for (byte b : pin.array())
+            assertEquals(0, b);
+        assertFalse(pin.delete());
+        assertFalse(pin.clear());
+    }
+
+    @Test
+    public void contentEquals_comparesDigits() {
+        PinBuffer a = new PinBuffer(4);
+        PinBuffer b = new PinBuffer(6);
+        a.append(1);
+        a.append(2);
+        b.append(1);
+        assertFalse(a.contentEquals(b));
+        b.append(2);
+        assertTrue(a.contentEquals(b));
+        b.append(3);
+        assertFalse(a.contentEquals(b));
+        assertTrue(a.contentEquals(a.copy()));
+    }
+}
@@ -0,0 +1,70 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.Assert.*;
+
+public class PinHasherTest {
+
+    private final PinHasher hasher = new PinHasher();
+
+    @Test
+    public void hashAndVerify() throws Exception {
+        String hash = hasher.hash("1234", 10);
+        assertTrue(hash.startsWith("$2$pbkdf2-sha256$i=10$"));
+        assertTrue(hasher.verify("1234", hash));
+        assertFalse(hasher.verify("4321", hash));
+        assertNotEquals(hash, hasher.hash("1234", 10));
+    }
+
+    @Test
+    public void verifiesLegacyAndWrappedHashes() throws Exception {
+        byte[] sha1 = MessageDigest.getInstance("SHA-1").digest("1234".getBytes());
+        String legacy = PinBase64.encode(sha1);
+        assertTrue(hasher.verify("1234", legacy));
+        //Written with line breaks by android.util.Base64.DEFAULT
+        assertTrue(hasher.verify("1234", legacy + "\n"));
+        assertFalse(hasher.verify("4321", legacy));
+
+        String wrapped = hasher.wrapLegacy(legacy, 10);
+        assertTrue(wrapped.contains("pre=sha1"));
+        assertTrue(hasher.verify("1234", wrapped));
+        assertFalse(hasher.verify("4321", wrapped));
+        assertNull(hasher.wrapLegacy("not a hash", 10));
+    }
+
+    @Test
+    public void needsUpgrade() throws Exception {
+        String hash = hasher.hash("1234", 10);
+        assertFalse(hasher.needsUpgrade(hash, 10));
+        assertTrue(hasher.needsUpgrade(hash, 20));
+        assertTrue(hasher.needsUpgrade(hasher.wrapLegacy(PinBase64.encode(new byte[20]), 10), 10));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void rejectsUnknownKdf() throws Exception {
+        hasher.verify("1234", "$2$scrypt$i=10$AAAA$AAAA");
+    }
+
+    @Test
+    public void base64MatchesAndroidNoWrap() {
+        String[] plain = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+        String[] encoded = {"", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy"};
+        for (int i = 0; i < plain.length; i++) {
+            assertEquals(encoded[i], PinBase64.encode(plain[i].getBytes()));
+            assertArrayEquals(plain[i].getBytes(), PinBase64.decode(encoded[i]));
+        }
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++)
+            all[i] = (byte) i;
+        assertArrayEquals(all, PinBase64.decode(PinBase64.encode(all)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void base64RejectsTruncatedInput() {
+        PinBase64.decode("Zm9vY");
+    }
+}
@@ -0,0 +1,111 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PinVerifierTest {
+
+    private static final int KEYS = 64;
+    private static final int THREADS = 8;
+    private static final int CHECKS_PER_THREAD = 200;
+
+    @Test
+    public void concurrentChecksDoNotMixResults() throws Exception {
+        PinHasher hasher = new PinHasher();
+        MemoryPinStore store = new MemoryPinStore();
+        for (int i = 0; i < KEYS; i++)
+            store.put("key" + i, hasher.hash(pin(i), 10));
+        final PinVerifier verifier = new PinVerifier(hasher, store, 10);
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Random random = new Random(seed);
+                    int errors = 0;
+                    for (int i = 0; i < CHECKS_PER_THREAD; i++) {
+                        int key = random.nextInt(KEYS);
+                        //Half of the checks use the pin of another key
+                        int candidate = random.nextBoolean() ? key : (key + 1) % KEYS;
+                        if (verifier.check("key" + key, pin(candidate)) != (candidate == key))
+                            errors++;
+                    }
+                    return errors;
+                }
+            });
+        }
+        assertEquals(0, runAll(tasks));
+        assertFalse(verifier.check("missing", pin(0)));
+    }
+
+    @Test
+    public void concurrentChecksUpgradeOnce() throws Exception {
+        PinHasher hasher = new PinHasher();
+        final MemoryPinStore store = new MemoryPinStore();
+        store.put("key", hasher.hash("1234", 5));
+        final AtomicInteger upgrades = new AtomicInteger();
+        final PinVerifier verifier = new PinVerifier(hasher, store, 20) {
+            @Override
+            protected void onUpgraded(String key) {
+                upgrades.incrementAndGet();
+            }
+        };
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    return verifier.check("key", "1234") ? 0 : 1;
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Callable<Integer> task : tasks)
+                results.add(pool.submit(task));
+            start.countDown();
+            for (Future<Integer> result : results)
+                assertEquals(0, (int) result.get());
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(1, upgrades.get());
+        assertEquals(20, PinRecord.parse(store.get("key")).iterations);
+        assertFalse(hasher.needsUpgrade(store.get("key"), 20));
+        assertTrue(verifier.check("key", "1234"));
+    }
+
+    private static int runAll(List<Callable<Integer>> tasks) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try {
+            int total = 0;
+            for (Future<Integer> result : pool.invokeAll(tasks))
+                total += result.get();
+            return total;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String pin(int i) {
+        return String.format("%04d", i * 37 % 10000);
+    }
+}
@@ -0,0 +1,100 @@
+package es.garce.simplelock;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WeakPinPolicyTest {
+
+    private static final String LEAKED = "# Leaked pins\n7395\n\n246813\n13572468\n9753124680\n";
+
+    private static WeakPinPolicy policy() throws IOException {
+        ByteBuffer data = new WeakPinGenerator()
+                .addRules(WeakPinRules.defaults())
+                .addPins(new StringReader(LEAKED))
+                .generate();
+        return new WeakPinPolicy(data, WeakPinRules.defaults());
+    }
+
+    @Test
+    public void blocksRulesAndLeakedPins() throws IOException {
+        WeakPinPolicy policy = policy();
+        for (String pin : new String[] {"0000", "1234", "9876", "7890", "1212", "1221", "1122",
+                "1987", "2512", "1225", "123123", "112233", "311299", "7395", "246813",
+                "1234567", "11111111", "25121987", "19871225", "13572468", "9753124680"})
+            assertTrue(pin, policy.isWeak(pin));
+        for (String pin : new String[] {"7394", "4862", "583920", "7294618", "62839471",
+                "8362957104"})
+            assertFalse(pin, policy.isWeak(pin));
+    }
+
+    @Test
+    public void exactLengthsMatchTheRules() throws IOException {
+        WeakPinPolicy policy = new WeakPinPolicy(
+                new WeakPinGenerator().addRules(WeakPinRules.defaults()).generate(),
+                Collections.<WeakPinPolicy.Rule>emptyList());
+        for (int length = WeakPinGenerator.EXACT_MIN_LENGTH;
+             length <= WeakPinGenerator.EXACT_MAX_LENGTH; length++) {
+            for (int value = 0; value < WeakPinPolicy.space(length); value += 7) {
+                byte[] pin = String.format("%0" + length + "d", value).getBytes();
+                boolean rule = false;
+                for (WeakPinPolicy.Rule r : WeakPinRules.defaults())
+                    rule |= r.matches(pin, length);
+                assertEquals(new String(pin), rule, policy.isWeak(pin, length));
+            }
+        }
+    }
+
+    @Test
+    public void bloomFilterKeepsItsFalsePositiveRate() throws IOException {
+        WeakPinGenerator generator = new WeakPinGenerator();
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++)
+            generator.addPin(String.valueOf(10000000 + random.nextInt(90000000)));
+        WeakPinPolicy policy = new WeakPinPolicy(generator.generate(),
+                Collections.<WeakPinPolicy.Rule>emptyList());
+
+        int positives = 0;
+        int checks = 100000;
+        for (int i = 0; i < checks; i++) {
+            //9 digits, none of them is in the list
+            if (policy.isWeak(String.valueOf(100000000 + random.nextInt(900000000))))
+                positives++;
+        }
+        assertTrue("False positives: " + positives, positives < checks * 0.003);
+    }
+
+    @Test
+    public void opensMappedFile() throws IOException {
+        File file = File.createTempFile("weak_pins", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                new WeakPinGenerator().addRules(WeakPinRules.defaults())
+                        .addPins(new StringReader(LEAKED)).write(out);
+            } finally {
+                out.close();
+            }
+            WeakPinPolicy policy = WeakPinPolicy.open(file, WeakPinRules.defaults());
+            assertEquals(file.length(), policy.size());
+            assertTrue(policy.isWeak("1111"));
+            assertTrue(policy.isWeak("13572468"));
+            assertFalse(policy.isWeak("4862"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        new WeakPinPolicy(ByteBuffer.allocate(64), WeakPinRules.defaults());
+    }
+}
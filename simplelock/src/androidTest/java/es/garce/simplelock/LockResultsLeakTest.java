@@ -0,0 +1,123 @@
+package es.garce.simplelock;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens and closes many locks with listeners that keep a large object alive, like an anonymous
+ * listener keeps its activity, and checks that neither the locks nor the listeners are retained
+ * once the locks are closed.
+ */
+public class LockResultsLeakTest extends InstrumentationTestCase {
+
+    private static final String TAG = "LockResultsLeakTest";
+    private static final int CYCLES = 40;
+    private static final int WARM_UP_CYCLES = 5;
+    private static final int PAYLOAD = 256 * 1024;
+    //Far less than the payloads of the cycles after the warm up
+    private static final long MAX_GROWTH = 2 * 1024 * 1024;
+
+    private static class Listener implements OnEnterPin {
+        //Stands for the activity an anonymous listener would keep
+        final byte[] payload = new byte[PAYLOAD];
+
+        @Override
+        public boolean onEnterPin(String pinCode) {
+            return false;
+        }
+
+        @Override
+        public void onCorrectPin(SimpleLockActivity simpleLockActivity) {
+        }
+
+        @Override
+        public void onWrongPin(SimpleLockActivity simpleLockActivity) {
+        }
+
+        @Override
+        public void onBack(SimpleLockActivity simpleLockActivity) {
+        }
+    }
+
+    public void testLockCyclesDoNotRetainListeners() throws Exception {
+        final Instrumentation instrumentation = getInstrumentation();
+        final Context context = instrumentation.getTargetContext();
+        List<WeakReference<Object>> refs = new ArrayList<>();
+        long baseline = 0;
+
+        for (int i = 0; i < CYCLES; i++) {
+            if (i == WARM_UP_CYCLES)
+                baseline = usedHeap();
+
+            final Listener oneShot = new Listener();
+            final String[] tag = new String[1];
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    tag[0] = LockResults.enterPin.registerOneShot(context, oneShot);
+                }
+            });
+            Intent intent = SimpleLockActivity.newIntent(context, tag[0], null)
+                    .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            final SimpleLockActivity lock =
+                    (SimpleLockActivity) instrumentation.startActivitySync(intent);
+
+            //A listener owned by an activity goes away with it
+            final Listener owned = new Listener();
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    SimpleLockActivity.registerListener(lock, "owned", owned);
+                    lock.finish();
+                }
+            });
+            waitForDestroy(lock);
+
+            refs.add(new WeakReference<Object>(lock));
+            refs.add(new WeakReference<Object>(oneShot));
+            refs.add(new WeakReference<Object>(owned));
+        }
+
+        instrumentation.waitForIdleSync();
+        long growth = usedHeap() - baseline;
+        Log.i(TAG, "Heap growth after " + CYCLES + " cycles: " + growth / 1024 + " KB");
+
+        final int[] kept = new int[1];
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                kept[0] = LockResults.enterPin.size();
+            }
+        });
+        assertEquals(0, kept[0]);
+        for (WeakReference<Object> ref : refs)
+            assertNull("Retained " + ref.get(), ref.get());
+        assertTrue("Heap grew " + growth + " bytes", growth < MAX_GROWTH);
+    }
+
+    private void waitForDestroy(SimpleLockActivity lock) {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (!lock.isDestroyed() && SystemClock.uptimeMillis() < deadline) {
+            getInstrumentation().waitForIdleSync();
+            SystemClock.sleep(10);
+        }
+        assertTrue(lock.isDestroyed());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,70 @@
+package es.garce.simplelock;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.Arrays;
+
+/**
+ * Compares the lock layout using {@link PinPadView} with the previous layout made of one button
+ * per key. Reports the view count and the median time to inflate, measure, lay out and draw a
+ * first frame of each one.
+ */
+public class PinPadInflateTest extends AndroidTestCase {
+
+    private static final String TAG = "PinPadInflateTest";
+    private static final int RUNS = 21;
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+
+    public void testPinPadHasFewerViews() {
+        LayoutInflater inflater = LayoutInflater.from(getContext());
+        int pinPad = countViews(inflater.inflate(R.layout.activity_lock, null));
+        int legacy = countViews(inflater.inflate(
+                es.garce.simplelock.test.R.layout.legacy_activity_lock, null));
+        Log.i(TAG, "Views: pin pad " + pinPad + ", buttons " + legacy);
+        assertTrue(pinPad < legacy);
+    }
+
+    public void testFirstFrameTime() {
+        long pinPad = medianFirstFrame(R.layout.activity_lock);
+        long legacy = medianFirstFrame(es.garce.simplelock.test.R.layout.legacy_activity_lock);
+        Log.i(TAG, "Median first frame (us): pin pad " + pinPad / 1000
+                + ", buttons " + legacy / 1000);
+    }
+
+    private long medianFirstFrame(int layout) {
+        LayoutInflater inflater = LayoutInflater.from(getContext());
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            View root = inflater.inflate(layout, null);
+            root.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            root.layout(0, 0, WIDTH, HEIGHT);
+            root.draw(canvas);
+            times[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        bitmap.recycle();
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++)
+                count += countViews(group.getChildAt(i));
+        }
+        return count;
+    }
+}
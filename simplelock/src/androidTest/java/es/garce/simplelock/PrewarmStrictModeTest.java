@@ -0,0 +1,85 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.os.StrictMode;
+import android.test.InstrumentationTestCase;
+import android.view.LayoutInflater;
+import android.view.View;
+
+/**
+ * Checks that once {@link SimpleLock#prewarm(Context) warm} showing the lock and checking a pin on
+ * the main thread does no disk access. StrictMode kills the process on any violation, failing the
+ * test run.
+ */
+public class PrewarmStrictModeTest extends InstrumentationTestCase {
+
+    private static final String KEY = "es.garce.simplelock.test.prewarm";
+
+    private Context context;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = getInstrumentation().getTargetContext();
+        //Off the main thread, as prewarm does
+        SimpleLock.warmUp(context);
+        SimpleLockPin.savePin(context, KEY, "1234");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PinStore store = SimpleLockPin.getPinStore(context);
+        store.remove(KEY);
+        store.flush();
+        super.tearDown();
+    }
+
+    public void testWarmLockDoesNoDiskAccess() throws Throwable {
+        final boolean[] result = new boolean[2];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy policy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+                try {
+                    View root = LayoutInflater.from(context).inflate(R.layout.activity_lock, null);
+                    EnterPinController controller = new EnterPinController(context, null);
+                    controller.bind(root);
+                    controller.start(new OnEnterPin() {
+                        @Override
+                        public boolean onEnterPin(String pinCode) {
+                            return false;
+                        }
+
+                        @Override
+                        public void onCorrectPin(SimpleLockActivity simpleLockActivity) {
+                        }
+
+                        @Override
+                        public void onWrongPin(SimpleLockActivity simpleLockActivity) {
+                        }
+
+                        @Override
+                        public void onBack(SimpleLockActivity simpleLockActivity) {
+                        }
+                    }, KEY);
+
+                    result[0] = SimpleLockPin.checkPin(context, KEY, "1234");
+                    result[1] = SimpleLockPin.checkPin(context, KEY, "4321");
+                    controller.stop();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    StrictMode.setThreadPolicy(policy);
+                }
+            }
+        });
+        assertTrue(result[0]);
+        assertFalse(result[1]);
+    }
+}
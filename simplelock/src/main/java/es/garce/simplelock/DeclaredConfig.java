@@ -0,0 +1,180 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.os.Bundle;
+
+/**
+ * <p>Settings declared at build time by the application. They are read once per process from
+ * data the system has already loaded, without any file I/O:</p>
+ * <ol>
+ *     <li>The {@code simplelock*} attributes of the {@code android:theme} of the
+ *     {@code <application>} element, see the {@code SimpleLock} styleable. Themes of the activities
+ *     are not read.</li>
+ *     <li>The {@code <meta-data>} of the {@code <application>} element of the manifest, named
+ *     {@code es.garce.simplelock.} followed by the name of the setting, like
+ *     {@code es.garce.simplelock.maxLength}. They win over the theme.</li>
+ * </ol>
+ *
+ * <p>Values not declared keep the library defaults. Values set at runtime are saved in the
+ * preferences and win over both.</p>
+ */
+final class DeclaredConfig {
+
+    static final String META_PREFIX = "es.garce.simplelock.";
+    static final String META_SHOW_PLACEHOLDER = META_PREFIX + "showPlaceholder";
+    static final String META_SHOW_PREVIEW = META_PREFIX + "showPreview";
+    static final String META_SHUFFLE_BUTTONS = META_PREFIX + "shuffleButtons";
+    static final String META_MIN_LENGTH = META_PREFIX + "minLength";
+    static final String META_MAX_LENGTH = META_PREFIX + "maxLength";
+    static final String META_VERIFY_ASYNC = META_PREFIX + "verifyAsync";
+    static final String META_UNLOCK_TIMEOUT = META_PREFIX + "unlockTimeout";
+    static final String META_AUTO_SUBMIT = META_PREFIX + "autoSubmit";
+    static final String META_REJECT_WEAK_PINS = META_PREFIX + "rejectWeakPins";
+
+    private DeclaredConfig() {
+    }
+
+    /**
+     * @param defaults The library defaults.
+     * @return The defaults with the declared values. It is {@link LockConfig#isInit() init} if any
+     * value was declared.
+     * @throws IllegalStateException If the declared values are not valid.
+     */
+    static LockConfig load(Context context, LockConfig defaults) {
+        Context appContext = context.getApplicationContext();
+        LockConfig.Builder builder = defaults.buildUpon();
+        boolean declared = readTheme(appContext, builder);
+        declared |= readMetaData(appContext, builder);
+        LockConfig config = builder.setInit(declared).build();
+
+        String error = SimpleLock.validate(config);
+        if (error != null)
+            throw new IllegalStateException("Simple Lock settings of the manifest or theme: " + error);
+        return config;
+    }
+
+    private static boolean readTheme(Context context, LockConfig.Builder builder) {
+        //The manifest theme is only given to the activities, not to the application context
+        int themeRes = context.getApplicationInfo().theme;
+        if (themeRes == 0)
+            return false;
+        Resources.Theme theme = context.getResources().newTheme();
+        theme.applyStyle(themeRes, true);
+        TypedArray a = theme.obtainStyledAttributes(R.styleable.SimpleLock);
+        try {
+            boolean declared = false;
+            LockConfig base = builder.build();
+            if (a.hasValue(R.styleable.SimpleLock_simplelockShowPlaceholder)) {
+                builder.setShowPlaceholder(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockShowPlaceholder, base.isShowPlaceholder()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockShowPreview)) {
+                builder.setShowPreview(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockShowPreview, base.isShowPreview()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockShuffleButtons)) {
+                builder.setShuffleButtons(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockShuffleButtons, base.isShuffleButtons()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockMinLength)) {
+                builder.setMinLength(a.getInt(
+                        R.styleable.SimpleLock_simplelockMinLength, base.getMinLength()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockMaxLength)) {
+                builder.setMaxLength(a.getInt(
+                        R.styleable.SimpleLock_simplelockMaxLength, base.getMaxLength()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockVerifyAsync)) {
+                builder.setVerifyAsync(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockVerifyAsync, base.isVerifyAsync()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockUnlockTimeout)) {
+                builder.setUnlockTimeout(a.getInt(
+                        R.styleable.SimpleLock_simplelockUnlockTimeout, 0));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockAutoSubmit)) {
+                builder.setAutoSubmit(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockAutoSubmit, base.isAutoSubmit()));
+                declared = true;
+            }
+            if (a.hasValue(R.styleable.SimpleLock_simplelockRejectWeakPins)) {
+                builder.setRejectWeakPins(a.getBoolean(
+                        R.styleable.SimpleLock_simplelockRejectWeakPins, base.isRejectWeakPins()));
+                declared = true;
+            }
+            return declared;
+        } finally {
+            a.recycle();
+        }
+    }
+
+    private static boolean readMetaData(Context context, LockConfig.Builder builder) {
+        Bundle meta;
+        try {
+            //Parsed by the system when the package was installed, it is not read from the APK
+            ApplicationInfo info = context.getPackageManager().getApplicationInfo(
+                    context.getPackageName(), PackageManager.GET_META_DATA);
+            meta = info.metaData;
+        } catch (PackageManager.NameNotFoundException e) {
+            //Our own package
+            throw new IllegalStateException(e);
+        }
+        if (meta == null)
+            return false;
+
+        boolean declared = false;
+        LockConfig base = builder.build();
+        if (meta.containsKey(META_SHOW_PLACEHOLDER)) {
+            builder.setShowPlaceholder(meta.getBoolean(META_SHOW_PLACEHOLDER,
+                    base.isShowPlaceholder()));
+            declared = true;
+        }
+        if (meta.containsKey(META_SHOW_PREVIEW)) {
+            builder.setShowPreview(meta.getBoolean(META_SHOW_PREVIEW, base.isShowPreview()));
+            declared = true;
+        }
+        if (meta.containsKey(META_SHUFFLE_BUTTONS)) {
+            builder.setShuffleButtons(meta.getBoolean(META_SHUFFLE_BUTTONS,
+                    base.isShuffleButtons()));
+            declared = true;
+        }
+        if (meta.containsKey(META_MIN_LENGTH)) {
+            builder.setMinLength(meta.getInt(META_MIN_LENGTH, base.getMinLength()));
+            declared = true;
+        }
+        if (meta.containsKey(META_MAX_LENGTH)) {
+            builder.setMaxLength(meta.getInt(META_MAX_LENGTH, base.getMaxLength()));
+            declared = true;
+        }
+        if (meta.containsKey(META_VERIFY_ASYNC)) {
+            builder.setVerifyAsync(meta.getBoolean(META_VERIFY_ASYNC, base.isVerifyAsync()));
+            declared = true;
+        }
+        if (meta.containsKey(META_UNLOCK_TIMEOUT)) {
+            //Integers in the manifest, enough for 24 days
+            builder.setUnlockTimeout(meta.getInt(META_UNLOCK_TIMEOUT, 0));
+            declared = true;
+        }
+        if (meta.containsKey(META_AUTO_SUBMIT)) {
+            builder.setAutoSubmit(meta.getBoolean(META_AUTO_SUBMIT, base.isAutoSubmit()));
+            declared = true;
+        }
+        if (meta.containsKey(META_REJECT_WEAK_PINS)) {
+            builder.setRejectWeakPins(meta.getBoolean(META_REJECT_WEAK_PINS,
+                    base.isRejectWeakPins()));
+            declared = true;
+        }
+        return declared;
+    }
+}
@@ -0,0 +1,607 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Logic of the pin pad that asks for a pin code. It is bound to the views of a lock layout and
+ * shared by {@link SimpleLockActivity} and {@link SimpleLockOverlay}, so one instance can be
+ * started again for every lock without creating new views. {@link SimpleLockActivity} keeps it
+ * across configuration changes, with the typed pin and any running check, and only binds it to
+ * the new views.</p>
+ *
+ * <p>Pins of a key are always checked in background, the key derivation function is too slow for
+ * the main thread. {@link LockConfig#isVerifyAsync()} only moves the checks of
+ * {@link OnEnterPin#onEnterPin(String)} listeners off it.</p>
+ *
+ * <p>When Simple Lock checks the pin of a key, the typed pin is checked in background as soon as it
+ * has the minimum length and again after every change, so the result is usually known when done
+ * is tapped. Only one of these speculative checks runs at a time, a change while it runs drops
+ * its result and the latest pin is checked when it ends.</p>
+ *
+ * <p>Only the pins submitted by the user are recorded in the {@link AttemptLog} and reported to
+ * {@link SimpleLockMetrics#onPinChecked(String, boolean, long)}, the speculative checks are not
+ * attempts.</p>
+ *
+ * <p>All the methods must be called on the main thread.</p>
+ */
+final class EnterPinController {
+
+    private Context context;
+    @Nullable
+    private SimpleLockActivity activity;
+
+    private TextView tvDesc;
+    private PinIndicatorView pinIndicator;
+    private PinPadView pinPad;
+
+    private OnEnterPin listener;
+    private PinBuffer pinCode;
+    private boolean started = false;
+
+    //Preference
+    private String key = null;
+    private boolean showPreview = SimpleLock.showPreview;
+    private boolean showPlaceholder = SimpleLock.showPlaceholder;
+    private boolean shuffleButtons = SimpleLock.shuffleButtons;
+    private int maxLength = SimpleLock.maxLength;
+    private int minLength = SimpleLock.minLength;
+    private boolean verifyAsync = SimpleLock.verifyAsync;
+    private boolean autoSubmit = SimpleLock.autoSubmit;
+    //Length of the saved pin, 0 while unknown
+    private int pinLength = 0;
+
+    //Asynchronous check state
+    private boolean checking = false;
+    private int checkGeneration = 0;
+    private CharSequence idleDescription;
+
+    //Speculative check state, the pin generation changes every time the typed pin changes
+    private int pinGeneration = 0;
+    private boolean speculating = false;
+    private int speculatedGeneration = -1;
+    private boolean speculationPending = false;
+    private int verdictGeneration = -1;
+    private boolean verdict = false;
+    private long verdictNanos = 0;
+    private boolean waitingVerdict = false;
+    private long waitingTapStart = 0;
+
+    private final SimpleLock.OnConfigChangeListener configListener =
+            new SimpleLock.OnConfigChangeListener() {
+        @Override
+        public void onConfigChanged(final LockConfig config) {
+            SimpleLockExecutor.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    if (started)
+                        applyConfig(config);
+                }
+            });
+        }
+    };
+
+    private final PinPadView.OnPinPadListener padListener = new PinPadView.OnPinPadListener() {
+        @Override
+        public void onDigit(int digit) {
+            clickNumber(digit);
+        }
+
+        @Override
+        public void onDelete() {
+            clickDel();
+        }
+
+        @Override
+        public void onDeleteAll() {
+            clickLongDel();
+        }
+
+        @Override
+        public void onDone() {
+            clickOk();
+        }
+    };
+
+    /**
+     * @param context Context used to check the pin and show errors.
+     * @param activity The activity given to the listener callbacks, null when the lock is not
+     *                 shown by an activity.
+     */
+    EnterPinController(Context context, @Nullable SimpleLockActivity activity) {
+        this.context = context;
+        this.activity = activity;
+    }
+
+    /**
+     * Moves a started lock to a new activity after a configuration change. Results of running
+     * checks are delivered to the new listener.
+     * @param context Context used to check the pin and show errors.
+     * @param activity The activity given to the listener callbacks.
+     * @param listener Listener that will receive the lock callbacks.
+     */
+    void attach(Context context, @Nullable SimpleLockActivity activity, OnEnterPin listener) {
+        this.context = context;
+        this.activity = activity;
+        this.listener = listener;
+    }
+
+    /**
+     * Takes the views of a new lock layout and shows on them the state of the previous ones: the
+     * description, the typed digits, the order of the keys and the busy state.
+     * @param root Root of an inflated {@code activity_lock} layout.
+     */
+    void rebind(View root) {
+        CharSequence description = tvDesc.getText();
+        int[] order = pinPad.getOrder();
+        boolean doneEnabled = pinPad.isDoneEnabled();
+        bind(root);
+        tvDesc.setText(description);
+        setupIndicator();
+        if (showPreview)
+            pinIndicator.setFilled(pinCode.length());
+        pinPad.setOrder(order);
+        pinPad.setEnabled(!checking);
+        pinPad.setDoneEnabled(doneEnabled);
+    }
+
+    /**
+     * Takes the views of a lock layout. Must be called before {@link #start(OnEnterPin, String)}.
+     * @param root Root of an inflated {@code activity_lock} layout.
+     */
+    void bind(View root) {
+        tvDesc = (TextView) root.findViewById(R.id.es_garce_simplelock_description);
+        pinIndicator = (PinIndicatorView) root.findViewById(R.id.es_garce_simplelock_pin_indicator);
+        pinPad = (PinPadView) root.findViewById(R.id.es_garce_simplelock_pin_pad);
+        pinPad.setOnPinPadListener(padListener);
+    }
+
+    /**
+     * Resets the pad and starts asking for a pin.
+     * @param listener Listener that will receive the lock callbacks.
+     * @param key The key of the pin to check, null if the check is done by the listener.
+     */
+    void start(OnEnterPin listener, @Nullable String key) {
+        stop();
+        this.listener = listener;
+        this.key = key;
+        started = true;
+
+        //Load preference
+        LockConfig config = SimpleLock.getConfig(context);
+        showPreview = config.isShowPreview();
+        showPlaceholder = config.isShowPlaceholder();
+        shuffleButtons = config.isShuffleButtons();
+        maxLength = config.getMaxLength();
+        minLength = config.getMinLength();
+        verifyAsync = config.isVerifyAsync();
+        autoSubmit = config.isAutoSubmit();
+        if (pinCode == null || pinCode.capacity() != maxLength)
+            pinCode = new PinBuffer(maxLength);
+        pinGeneration++;
+        pinLength = 0;
+        if (key != null && autoSubmit)
+            loadPinLength(key);
+        SimpleLock.registerOnConfigChangeListener(configListener);
+
+        //Set description
+        tvDesc.setText(context.getResources().getString(R.string.es_garce_simplelock_enter_pin));
+        setupIndicator();
+        pinIndicator.clear();
+        pinPad.setEnabled(true);
+        pinPad.setDoneEnabled(false);
+
+        //If shuffle enabled then reorder buttons
+        if (shuffleButtons)
+            pinPad.shuffle();
+        else
+            pinPad.resetOrder();
+    }
+
+    /**
+     * Stops asking for a pin. The typed pin is cleared and the result of a running check dropped.
+     */
+    void stop() {
+        if (!started)
+            return;
+        started = false;
+        checkGeneration++;
+        waitingVerdict = false;
+        if (checking)
+            setChecking(false);
+        clearPin();
+        SimpleLock.unregisterOnConfigChangeListener(configListener);
+    }
+
+    /**
+     * Sets text of the lock.
+     * @param description Text to show.
+     */
+    void setDescription(String description) {
+        tvDesc.setText(description);
+    }
+
+    private void clickNumber(int digit) {
+        if (!checking && !pinCode.isFull()) {
+
+            //Show preview
+            if (showPreview)
+                addCircle();
+
+            //Update pin
+            pinCode.append(digit);
+
+            //Enable OK button
+            if (pinCode.length() == minLength)
+                pinPad.setDoneEnabled(true);
+
+            onPinChanged();
+            if (autoSubmit && pinLength != 0 && pinCode.length() == pinLength)
+                clickOk();
+        }
+    }
+
+    private void clickOk() {
+        //Taps while a check is running join that check
+        if (checking)
+            return;
+
+        //Measured for the metrics and the attempt log
+        long tapStart = System.nanoTime();
+        if (key != null && verdictGeneration == pinGeneration) {
+            //The typed pin was already checked in background
+            reportSpeculation(verdict, verdictNanos);
+            deliverResult(verdict, tapStart);
+            if (started)
+                resetPad();
+            return;
+        }
+        if (key != null && speculating && speculatedGeneration == pinGeneration) {
+            //Wait for the check already running instead of starting another one
+            waitingVerdict = true;
+            waitingTapStart = tapStart;
+            setChecking(true);
+            return;
+        }
+        //Simple Lock checks of a key hash the pin, never on the main thread
+        if (key != null || verifyAsync || listener instanceof OnEnterPinAsync) {
+            startAsyncCheck(tapStart);
+            return;
+        }
+
+        SimpleLockTrace.begin(SimpleLockTrace.SUBMIT);
+        try {
+            //The check is managed by the application
+            deliverResult(listener.onEnterPin(pinCode.toString()), tapStart);
+        } finally {
+            SimpleLockTrace.end();
+        }
+        resetPad();
+    }
+
+    /**
+     * Drops the result of the speculative check of the previous pin and checks the new one.
+     */
+    private void onPinChanged() {
+        pinGeneration++;
+        if (key != null && pinCode.length() >= minLength)
+            speculate();
+    }
+
+    /**
+     * Checks the typed pin in background. The result is kept until the pin changes. If a check is
+     * running the pin is checked when it ends, PBKDF2 can't be interrupted.
+     */
+    private void speculate() {
+        if (speculating) {
+            speculationPending = true;
+            return;
+        }
+        speculating = true;
+        speculationPending = false;
+        final int generation = pinGeneration;
+        speculatedGeneration = generation;
+        final PinBuffer pin = pinCode.copy();
+        final String checkKey = key;
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                boolean correct = false;
+                boolean error = false;
+                try {
+                    correct = SimpleLockPin.checkPinUnreported(appContext, checkKey, pin);
+                } catch (NoSuchAlgorithmException | IOException e) {
+                    error = true;
+                }
+                pin.clear();
+                postSpeculation(generation, correct, error, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private void postSpeculation(final int generation, final boolean correct,
+                                 final boolean error, final long hashNanos) {
+        SimpleLockExecutor.postToMain(new Runnable() {
+            @Override
+            public void run() {
+                speculating = false;
+                if (!started)
+                    return;
+                if (generation == pinGeneration) {
+                    if (!error) {
+                        verdictGeneration = generation;
+                        verdict = correct;
+                        verdictNanos = hashNanos;
+                    }
+                    if (waitingVerdict) {
+                        waitingVerdict = false;
+                        if (!error)
+                            reportSpeculation(correct, hashNanos);
+                        finishCheck(correct, error, waitingTapStart);
+                    }
+                }
+                //A submitted pin is checked by its own check, don't hash it twice
+                else if (speculationPending && !checking && pinCode.length() >= minLength)
+                    speculate();
+            }
+        });
+    }
+
+    /**
+     * Reports the speculative check of a submitted pin to the metrics, as if it had been checked
+     * when done was tapped.
+     */
+    private void reportSpeculation(boolean correct, long hashNanos) {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        if (metrics != null)
+            metrics.onPinChecked(key, correct, hashNanos);
+    }
+
+    /**
+     * Runs the pin check on a background thread, or delegates it to {@link OnEnterPinAsync}, and
+     * shows the pad as busy until the result comes back on the main thread. Results of checks
+     * started before the lock was stopped are dropped.
+     */
+    private void startAsyncCheck(final long tapStart) {
+        final int generation = ++checkGeneration;
+        final PinBuffer pin = pinCode.copy();
+        final String checkKey = key;
+        final OnEnterPin checkListener = listener;
+        final Context appContext = context.getApplicationContext();
+        setChecking(true);
+        //The pin is checked now, the stale speculation must not check it again when it ends
+        speculationPending = false;
+
+        if (checkKey == null && checkListener instanceof OnEnterPinAsync) {
+            ((OnEnterPinAsync) checkListener).onEnterPinAsync(pin.toString(),
+                    new OnEnterPinAsync.Result() {
+                private final AtomicBoolean delivered = new AtomicBoolean();
+
+                @Override
+                public void deliver(boolean correct) {
+                    if (delivered.compareAndSet(false, true))
+                        postCheckResult(generation, correct, false, tapStart);
+                }
+            });
+            pin.clear();
+            return;
+        }
+
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean correct = false;
+                boolean error = false;
+                if (checkKey != null) {
+                    try {
+                        correct = SimpleLockPin.checkPin(appContext, checkKey, pin);
+                    } catch (NoSuchAlgorithmException | IOException e) {
+                        error = true;
+                    }
+                }
+                else
+                    correct = checkListener.onEnterPin(pin.toString());
+                pin.clear();
+                postCheckResult(generation, correct, error, tapStart);
+            }
+        });
+    }
+
+    private void postCheckResult(final int generation, final boolean correct, final boolean error,
+                                 final long tapStart) {
+        SimpleLockExecutor.postToMain(new Runnable() {
+            @Override
+            public void run() {
+                if (!started || generation != checkGeneration)
+                    return;
+                finishCheck(correct, error, tapStart);
+            }
+        });
+    }
+
+    /**
+     * Ends the busy state of a background check and gives its result.
+     */
+    private void finishCheck(boolean correct, boolean error, long tapStart) {
+        setChecking(false);
+        if (error) {
+            logAttempt(AttemptLog.ERROR, tapStart);
+            Toast.makeText(context, context.getResources().getString(
+                    R.string.es_garce_simplelock_check_error), Toast.LENGTH_SHORT).show();
+        }
+        else
+            deliverResult(correct, tapStart);
+        //The listener may have stopped the lock
+        if (started)
+            resetPad();
+    }
+
+    private void resetPad() {
+        clearPin();
+        resetCircles();
+        pinPad.setDoneEnabled(false);
+    }
+
+    private void clearPin() {
+        pinCode.clear();
+        pinGeneration++;
+    }
+
+    /**
+     * Reads the length of the saved pin in background, auto submit is off until it is known.
+     */
+    private void loadPinLength(final String lengthKey) {
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int length;
+                try {
+                    length = SimpleLockPin.getPinLength(appContext, lengthKey);
+                } catch (IOException e) {
+                    return;
+                }
+                final int loaded = length;
+                SimpleLockExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (started && lengthKey.equals(key))
+                            pinLength = loaded;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Gives the result of a check to the listener and reports the time since the tap on done.
+     */
+    private void deliverResult(boolean correct, long tapStart) {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        if (metrics != null)
+            metrics.onVerdict(correct, System.nanoTime() - tapStart);
+        logAttempt(correct ? AttemptLog.CORRECT : AttemptLog.WRONG, tapStart);
+        if (correct && key != null)
+            UnlockSession.unlock(context, key);
+        if (correct)
+            listener.onCorrectPin(activity);
+        else
+            listener.onWrongPin(activity);
+    }
+
+    /**
+     * Records a submitted pin in the attempt log, if it is enabled. It doesn't allocate or touch
+     * the disk.
+     */
+    private void logAttempt(int outcome, long tapStart) {
+        AttemptLog log = SimpleLock.getAttemptLog();
+        if (log != null)
+            log.append(key, System.currentTimeMillis(), outcome, System.nanoTime() - tapStart);
+    }
+
+    /**
+     * Shows or hides the busy state of the pad while a pin is being checked.
+     */
+    private void setChecking(boolean checking) {
+        this.checking = checking;
+        pinPad.setEnabled(!checking);
+        if (checking) {
+            idleDescription = tvDesc.getText();
+            tvDesc.setText(context.getResources().getString(
+                    R.string.es_garce_simplelock_checking_pin));
+        }
+        else
+            tvDesc.setText(idleDescription);
+    }
+
+    private void clickDel() {
+        if (!checking && !pinCode.isEmpty()) {
+            //Preview
+            if (showPreview)
+                removeCircle();
+
+            //Update pin
+            pinCode.delete();
+
+            //Disable OK button
+            if (pinCode.length() < minLength)
+                pinPad.setDoneEnabled(false);
+
+            onPinChanged();
+        }
+    }
+
+    private void clickLongDel() {
+        if (!checking && !pinCode.isEmpty()) {
+            //Preview
+            if (showPreview)
+                resetCircles();
+
+            //Update pin
+            clearPin();
+
+            //Disable OK button
+            pinPad.setDoneEnabled(false);
+        }
+    }
+
+    /**
+     * Applies a settings snapshot published while the lock is visible. The typed pin is discarded
+     * because it may not fit the new lengths.
+     */
+    private void applyConfig(LockConfig config) {
+        if (checking) {
+            checkGeneration++;
+            waitingVerdict = false;
+            setChecking(false);
+        }
+        clickLongDel();
+
+        showPreview = config.isShowPreview();
+        showPlaceholder = config.isShowPlaceholder();
+        maxLength = config.getMaxLength();
+        minLength = config.getMinLength();
+        verifyAsync = config.isVerifyAsync();
+        if (config.isAutoSubmit() && !autoSubmit && key != null)
+            loadPinLength(key);
+        autoSubmit = config.isAutoSubmit();
+        if (pinCode.capacity() != maxLength)
+            pinCode = new PinBuffer(maxLength);
+        setupIndicator();
+
+        if (config.isShuffleButtons() != shuffleButtons) {
+            shuffleButtons = config.isShuffleButtons();
+            if (shuffleButtons)
+                pinPad.shuffle();
+            else
+                pinPad.resetOrder();
+        }
+    }
+
+    private void setupIndicator () {
+        pinIndicator.setShowPlaceholder(showPlaceholder);
+        pinIndicator.setShowFilled(showPreview);
+        pinIndicator.setCapacity(maxLength);
+    }
+
+    private void addCircle () {
+        pinIndicator.add();
+    }
+
+    private void removeCircle () {
+        pinIndicator.remove();
+    }
+
+    private void resetCircles () {
+        pinIndicator.clear();
+    }
+}
@@ -0,0 +1,201 @@
+package es.garce.simplelock;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Routes the callbacks of the lock activities to their callers by request tag, so the lock
+ * never keeps a static reference to a listener. A listener is registered under a tag together
+ * with the activity that owns it, and it is dropped when that activity is destroyed. The lock
+ * activity only keeps the tag, which survives recreation and process death in its intent.</p>
+ *
+ * <p>Results produced while no listener is registered for their tag, because the caller is being
+ * recreated or the process was restarted, are kept until a listener is registered again. Only
+ * the last one of every tag is kept. The lock activity has finished by then, so these results are
+ * delivered with a null activity, as documented on {@link OnEnterPin} and {@link OnNewPin}.</p>
+ *
+ * <p>All the methods must be called on the main thread.</p>
+ *
+ * @param <L> The listener type, {@link OnEnterPin} or {@link OnNewPin}.
+ */
+final class LockResults<L> {
+
+    /**
+     * A result waiting for a listener.
+     */
+    interface Delivery<L> {
+        void deliver(L listener);
+    }
+
+    static final LockResults<OnEnterPin> enterPin = new LockResults<>("enter");
+    static final LockResults<OnNewPin> newPin = new LockResults<>("new");
+
+    //Prefix of the tags of requests made without a tag, nobody can register them again
+    private static final String ONE_SHOT_PREFIX = "es.garce.simplelock.request.";
+    private static final AtomicInteger nextRequest = new AtomicInteger();
+    private static boolean lifecycleRegistered = false;
+
+    private static final Application.ActivityLifecycleCallbacks lifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            enterPin.removeOwner(activity);
+            newPin.removeOwner(activity);
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    };
+
+    private static final class Registration<L> {
+        final L listener;
+        //Null for listeners registered without an activity, dropped with their lock
+        @Nullable
+        final WeakReference<Activity> owner;
+
+        Registration(L listener, @Nullable Activity owner) {
+            this.listener = listener;
+            this.owner = owner != null ? new WeakReference<>(owner) : null;
+        }
+    }
+
+    private final String name;
+    private final Map<String, Registration<L>> registrations = new HashMap<>();
+    private final Map<String, Delivery<L>> pending = new HashMap<>();
+
+    private LockResults(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Registers the listener of a tag, replacing the previous one. A result that was waiting for
+     * the tag is delivered right after.
+     * @param context Context to watch the lifecycle of the owner.
+     * @param owner The activity the listener belongs to, it is unregistered when the activity is
+     *              destroyed. Null to keep it until the lock using it finishes.
+     * @param tag The request tag.
+     * @param listener The listener.
+     */
+    void register(Context context, @Nullable Activity owner, final String tag, L listener) {
+        registerLifecycle(context);
+        registrations.put(tag, new Registration<>(listener, owner));
+        if (pending.containsKey(tag)) {
+            //Let the owner finish its creation first
+            SimpleLockExecutor.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    L current = get(tag);
+                    Delivery<L> delivery = pending.get(tag);
+                    if (current != null && delivery != null) {
+                        pending.remove(tag);
+                        delivery.deliver(current);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Registers a listener under a new tag for a request made without tag. Its results are lost
+     * if the process dies.
+     * @return The new tag.
+     */
+    String registerOneShot(Context context, L listener) {
+        String tag = newOneShotTag();
+        register(context, context instanceof Activity ? (Activity) context : null, tag, listener);
+        return tag;
+    }
+
+    /**
+     * @return A new tag of a request made without tag. Used as is by locks started without any
+     * tag, their results are dropped.
+     */
+    String newOneShotTag() {
+        return ONE_SHOT_PREFIX + name + "." + nextRequest.incrementAndGet();
+    }
+
+    /**
+     * @return The listener of a tag, or null if it is not registered right now.
+     */
+    @Nullable
+    L get(String tag) {
+        Registration<L> registration = registrations.get(tag);
+        return registration != null ? registration.listener : null;
+    }
+
+    /**
+     * Keeps a result until a listener is registered for its tag. Results of requests made without
+     * a tag are dropped. The delivery must not reference the lock activity, it is finished by then.
+     */
+    void keep(String tag, Delivery<L> delivery) {
+        if (!tag.startsWith(ONE_SHOT_PREFIX))
+            pending.put(tag, delivery);
+    }
+
+    /**
+     * Called when the lock using a tag finishes for good. Listeners registered without a tag are
+     * only used once, so they are dropped.
+     */
+    void finish(String tag) {
+        if (tag.startsWith(ONE_SHOT_PREFIX)) {
+            registrations.remove(tag);
+            pending.remove(tag);
+        }
+    }
+
+    /**
+     * @return Number of listeners and results kept, used by tests to check nothing is leaked.
+     */
+    int size() {
+        return registrations.size() + pending.size();
+    }
+
+    private void removeOwner(Activity activity) {
+        Iterator<Registration<L>> it = registrations.values().iterator();
+        while (it.hasNext()) {
+            WeakReference<Activity> owner = it.next().owner;
+            if (owner != null && (owner.get() == activity || owner.get() == null))
+                it.remove();
+        }
+    }
+
+    private static void registerLifecycle(Context context) {
+        if (lifecycleRegistered)
+            return;
+        Context appContext = context.getApplicationContext();
+        if (appContext instanceof Application) {
+            ((Application) appContext).registerActivityLifecycleCallbacks(lifecycleCallbacks);
+            lifecycleRegistered = true;
+        }
+    }
+}
@@ -0,0 +1,584 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Logic of the pin pad that asks for a new pin code. It is bound to the views of a lock layout
+ * and shared by {@link SimpleLockNewActivity} and {@link SimpleLockOverlay}, so one instance can
+ * be started again for every new pin without creating new views. {@link SimpleLockNewActivity}
+ * keeps it across configuration changes, with the typed and confirmed pins, and only binds it to
+ * the new views.</p>
+ *
+ * <p>The first pin is hashed in background with the key derivation function of
+ * {@link SimpleLockPin} as soon as it is typed, and only the record is kept. Each confirmation is
+ * checked against the record in background, the pad is busy meanwhile. When Simple Lock saves the
+ * pin the record is saved as soon as the last confirmation matches and the listener is told once
+ * it is durable. A save already requested is finished even if the lock is stopped before the
+ * record is ready.</p>
+ *
+ * <p>When weak pins are rejected the first pin is checked against the {@link WeakPinPolicy} on
+ * every digit, done stays disabled while it is weak and the description tells why.</p>
+ *
+ * <p>All the methods must be called on the main thread.</p>
+ */
+final class NewPinController {
+
+    private Context context;
+    @Nullable
+    private SimpleLockNewActivity activity;
+
+    private TextView tvDesc;
+    private PinIndicatorView pinIndicator;
+    private PinPadView pinPad;
+
+    private OnNewPin listener;
+    private PinBuffer pinCode;
+    private boolean started = false;
+
+    //Settings
+    private String key = null;
+    private int repeat = 1;
+    private int localRepeat = 0;
+
+    //Background hash of the first pin, results of previous pins are dropped by generation
+    @Nullable
+    private FirstPin first = null;
+    private int generation = 0;
+    private boolean saving = false;
+    private boolean checking = false;
+    private boolean weak = false;
+
+    //Preference
+    private int maxLength;
+    private int minLength;
+    private boolean rejectWeakPins;
+
+    private final SimpleLock.OnConfigChangeListener configListener =
+            new SimpleLock.OnConfigChangeListener() {
+        @Override
+        public void onConfigChanged(final LockConfig config) {
+            SimpleLockExecutor.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    if (!started)
+                        return;
+                    clickLongDel();
+                    maxLength = config.getMaxLength();
+                    minLength = config.getMinLength();
+                    rejectWeakPins = config.isRejectWeakPins();
+                    if (rejectWeakPins)
+                        WeakPins.prefetch(context);
+                    if (pinCode.capacity() != maxLength)
+                        pinCode = new PinBuffer(maxLength);
+                    pinIndicator.setCapacity(maxLength);
+                }
+            });
+        }
+    };
+
+    /**
+     * The record of a first pin, created in background. Its fields are only used on the main
+     * thread.
+     */
+    private static final class FirstPin {
+        final int generation;
+        final int length;
+        boolean ready = false;
+        String record = null;
+        long nanos = 0;
+        //A confirmation waiting for the record
+        PinBuffer confirmation = null;
+        //Set when the lock was stopped while the save waited for the record
+        OnNewPin orphanListener = null;
+        SimpleLockNewActivity orphanActivity = null;
+        String orphanKey = null;
+
+        FirstPin(int generation, int length) {
+            this.generation = generation;
+            this.length = length;
+        }
+    }
+
+    private final PinPadView.OnPinPadListener padListener = new PinPadView.OnPinPadListener() {
+        @Override
+        public void onDigit(int digit) {
+            clickNumber(digit);
+        }
+
+        @Override
+        public void onDelete() {
+            clickDel();
+        }
+
+        @Override
+        public void onDeleteAll() {
+            clickLongDel();
+        }
+
+        @Override
+        public void onDone() {
+            clickOk();
+        }
+    };
+
+    /**
+     * @param context Context used to save the pin and show errors.
+     * @param activity The activity given to the listener callbacks, null when the lock is not
+     *                 shown by an activity.
+     */
+    NewPinController(Context context, @Nullable SimpleLockNewActivity activity) {
+        this.context = context;
+        this.activity = activity;
+    }
+
+    /**
+     * Moves a started lock to a new activity after a configuration change. A pin being saved is
+     * reported to the new listener.
+     * @param context Context used to save the pin and show errors.
+     * @param activity The activity given to the listener callbacks.
+     * @param listener Listener that will receive the lock callbacks.
+     */
+    void attach(Context context, @Nullable SimpleLockNewActivity activity, OnNewPin listener) {
+        this.context = context;
+        this.activity = activity;
+        this.listener = listener;
+    }
+
+    /**
+     * Takes the views of a new lock layout and shows on them the state of the previous ones.
+     * @param root Root of an inflated {@code activity_lock} layout.
+     */
+    void rebind(View root) {
+        CharSequence description = tvDesc.getText();
+        boolean doneEnabled = pinPad.isDoneEnabled();
+        bind(root);
+        tvDesc.setText(description);
+        pinIndicator.setShowPlaceholder(false);
+        pinIndicator.setShowFilled(true);
+        pinIndicator.setCapacity(maxLength);
+        pinIndicator.setFilled(pinCode.length());
+        pinPad.setEnabled(!saving && !checking);
+        pinPad.setDoneEnabled(doneEnabled);
+    }
+
+    /**
+     * Takes the views of a lock layout. Must be called before
+     * {@link #start(OnNewPin, int, String)}.
+     * @param root Root of an inflated {@code activity_lock} layout.
+     */
+    void bind(View root) {
+        tvDesc = (TextView) root.findViewById(R.id.es_garce_simplelock_description);
+        pinIndicator = (PinIndicatorView) root.findViewById(R.id.es_garce_simplelock_pin_indicator);
+        pinPad = (PinPadView) root.findViewById(R.id.es_garce_simplelock_pin_pad);
+        pinPad.setOnPinPadListener(padListener);
+    }
+
+    /**
+     * Resets the pad and starts asking for a new pin.
+     * @param listener Listener that will receive the lock callbacks.
+     * @param repeats Number of times the user must repeat the pin, default if negative.
+     * @param key The key to save the pin or null if the application saves it.
+     */
+    void start(OnNewPin listener, int repeats, @Nullable String key) {
+        stop();
+        this.listener = listener;
+        this.key = key;
+        repeat = repeats >= 0 ? repeats : 1;
+        localRepeat = 0;
+        saving = false;
+        checking = false;
+        weak = false;
+        started = true;
+
+        //Load preference
+        LockConfig config = SimpleLock.getConfig(context);
+        maxLength = config.getMaxLength();
+        minLength = config.getMinLength();
+        rejectWeakPins = config.isRejectWeakPins();
+        if (rejectWeakPins)
+            WeakPins.prefetch(context);
+        if (pinCode == null || pinCode.capacity() != maxLength)
+            pinCode = new PinBuffer(maxLength);
+        SimpleLock.registerOnConfigChangeListener(configListener);
+
+        //Set description
+        tvDesc.setText(context.getResources().getString(R.string.es_garce_simplelock_new_pin));
+
+        //New pins are always shown while typed
+        pinIndicator.setShowPlaceholder(false);
+        pinIndicator.setShowFilled(true);
+        pinIndicator.setCapacity(maxLength);
+        pinPad.setEnabled(true);
+        pinPad.setDoneEnabled(false);
+        pinPad.resetOrder();
+    }
+
+    /**
+     * Stops asking for a pin. The typed pins are cleared. A save waiting for the record of the
+     * pin is finished in background and reported to the current listener.
+     */
+    void stop() {
+        if (!started)
+            return;
+        started = false;
+        pinCode.clear();
+        if (saving && first != null && !first.ready) {
+            first.orphanListener = listener;
+            first.orphanActivity = activity;
+            first.orphanKey = key;
+        }
+        forgetFirstPin();
+        SimpleLock.unregisterOnConfigChangeListener(configListener);
+    }
+
+    /**
+     * Sets text of the lock.
+     * @param description Text to show.
+     */
+    void setDescription(String description) {
+        tvDesc.setText(description);
+    }
+
+    private void clickNumber(int digit) {
+        if (!pinCode.isFull()) {
+            addCircle();
+            //Update pin
+            pinCode.append(digit);
+            //Enable Done
+            updateDone();
+        }
+    }
+
+    private void clickOk() {
+        if (saving || checking)
+            return;
+
+        if (first == null) {
+            //The policy may have been loaded after the pin was typed
+            if (isWeak()) {
+                updateDone();
+                return;
+            }
+            derive();
+            setDescription(context.getResources().getString(R.string.es_garce_simplelock_repeat_pin));
+            //No confirmations
+            if (localRepeat == repeat)
+                finish(pinCode);
+        }
+        else {
+            checking = true;
+            pinPad.setEnabled(false);
+            first.confirmation = pinCode.copy();
+            if (first.ready)
+                confirm(first);
+        }
+
+        //Always reset UI
+        resetCircles();
+        //Empty pin
+        pinCode.clear();
+        //Diable Done
+        weak = false;
+        pinPad.setDoneEnabled(false);
+    }
+
+    /**
+     * Gives the repeated pin to the listener and saves it if Simple Lock manages it.
+     */
+    private void finish(PinBuffer pin) {
+        //Simple Lock manage pins
+        if (listener.onDone(activity, pin.toString())) {
+            if (key == null)
+                listener.onError(activity, SimpleLockNewActivity.NO_KEY);
+            else
+                save();
+        }
+    }
+
+    /**
+     * Enables done when the pin is long enough and, for the first pin, not weak. The description
+     * tells the user when the pin becomes weak or stops being it.
+     */
+    private void updateDone() {
+        boolean wasWeak = weak;
+        weak = first == null && isWeak();
+        if (weak != wasWeak)
+            setDescription(context.getResources().getString(weak
+                    ? R.string.es_garce_simplelock_weak_pin
+                    : R.string.es_garce_simplelock_new_pin));
+        pinPad.setDoneEnabled(pinCode.length() > minLength && !weak);
+    }
+
+    /**
+     * @return True if weak pins are rejected and the typed pin is one. Pins still shorter than the
+     * minimum are not checked, and nothing is rejected until the policy is loaded.
+     */
+    private boolean isWeak() {
+        if (!rejectWeakPins || pinCode.length() <= minLength)
+            return false;
+        WeakPinPolicy policy = WeakPins.peek();
+        return policy != null && policy.isWeak(pinCode.array(), pinCode.length());
+    }
+
+    /**
+     * Hashes the first pin in background. The copy of the pin is cleared once it is hashed.
+     */
+    private void derive() {
+        final FirstPin derivation = new FirstPin(++generation, pinCode.length());
+        first = derivation;
+        final PinBuffer pin = pinCode.copy();
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                String hashed = null;
+                try {
+                    hashed = SimpleLockPin.derivePin(appContext, pin.array(), pin.length());
+                } catch (NoSuchAlgorithmException e) {
+                    //Reported when the pin is confirmed or saved
+                } finally {
+                    pin.clear();
+                }
+                final String result = hashed;
+                final long nanos = System.nanoTime() - start;
+                SimpleLockExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        derivation.ready = true;
+                        derivation.record = result;
+                        derivation.nanos = nanos;
+                        if (derivation.orphanListener != null)
+                            storeOrphan(appContext, derivation);
+                        else if (derivation.generation != generation)
+                            return;
+                        else if (saving)
+                            store();
+                        else if (derivation.confirmation != null)
+                            confirm(derivation);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Checks the waiting confirmation against the record of the first pin in background.
+     */
+    private void confirm(final FirstPin derivation) {
+        final PinBuffer confirmation = derivation.confirmation;
+        derivation.confirmation = null;
+        final String record = derivation.record;
+        if (record == null) {
+            confirmation.clear();
+            checking = false;
+            failSave(derivation.generation);
+            return;
+        }
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean matches;
+                try {
+                    matches = SimpleLockPin.verifyPin(
+                            confirmation.array(), confirmation.length(), record);
+                } catch (NoSuchAlgorithmException e) {
+                    //The record was just created with the same function
+                    matches = false;
+                }
+                final boolean match = matches;
+                SimpleLockExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (derivation.generation != generation || !started) {
+                            confirmation.clear();
+                            return;
+                        }
+                        checking = false;
+                        pinPad.setEnabled(true);
+                        if (match) {
+                            localRepeat++;
+                            setDescription(context.getResources().getString(R.string.es_garce_simplelock_repeat_pin));
+                        }
+                        else {
+                            setDescription(context.getResources().getString(R.string.es_garce_simplelock_repeat_error));
+                        }
+                        //If finished repeats then save
+                        if (localRepeat == repeat)
+                            finish(confirmation);
+                        confirmation.clear();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Saves the pin once its hash is ready. The pad is busy meanwhile.
+     */
+    private void save() {
+        saving = true;
+        pinPad.setEnabled(false);
+        setDescription(context.getResources().getString(R.string.es_garce_simplelock_saving_pin));
+        if (first != null && first.ready)
+            store();
+    }
+
+    private void store() {
+        final String hashed = first.record;
+        final String saveKey = key;
+        final int length = first.length;
+        final long nanos = first.nanos;
+        //The pin is already durable when this is delivered, so it reaches the listener of the
+        //request even if the lock was stopped meanwhile. If the lock was moved to a new activity
+        //it goes to the new one.
+        final OnNewPin saveListener = listener;
+        final SimpleLockNewActivity saveActivity = activity;
+        final Context appContext = context.getApplicationContext();
+        forgetFirstPin();
+        final int saveGeneration = generation;
+        if (hashed == null) {
+            failSave(saveGeneration);
+            return;
+        }
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean stored = true;
+                try {
+                    SimpleLockPin.storePin(appContext, saveKey, hashed, length, nanos);
+                } catch (IOException e) {
+                    stored = false;
+                }
+                final boolean success = stored;
+                SimpleLockExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!success) {
+                            failSave(saveGeneration);
+                            return;
+                        }
+                        if (saveGeneration == generation && started) {
+                            restart();
+                            listener.onSaved(activity, hashed);
+                        }
+                        else
+                            saveListener.onSaved(saveActivity, hashed);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Saves the record of a lock stopped while its save waited for it, and tells the listener of
+     * that lock. If it can't be saved the listener is told with
+     * {@link SimpleLockNewActivity#SAVE_ERROR}.
+     */
+    private static void storeOrphan(final Context appContext, final FirstPin derivation) {
+        final OnNewPin saveListener = derivation.orphanListener;
+        final SimpleLockNewActivity saveActivity = derivation.orphanActivity;
+        final String hashed = derivation.record;
+        if (hashed == null) {
+            saveListener.onError(saveActivity, SimpleLockNewActivity.SAVE_ERROR);
+            return;
+        }
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean stored = true;
+                try {
+                    SimpleLockPin.storePin(appContext, derivation.orphanKey, hashed,
+                            derivation.length, derivation.nanos);
+                } catch (IOException e) {
+                    stored = false;
+                }
+                final boolean success = stored;
+                SimpleLockExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (success)
+                            saveListener.onSaved(saveActivity, hashed);
+                        else
+                            saveListener.onError(saveActivity, SimpleLockNewActivity.SAVE_ERROR);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Tells the user the pin couldn't be saved and asks for a new one.
+     */
+    private void failSave(int saveGeneration) {
+        if (saveGeneration != generation || !started)
+            return;
+        Toast.makeText(context, context.getResources().getString(
+                R.string.es_garce_simplelock_save_error), Toast.LENGTH_SHORT).show();
+        forgetFirstPin();
+        restart();
+    }
+
+    /**
+     * Asks for a new pin again after a save, in case the listener keeps the lock shown.
+     */
+    private void restart() {
+        saving = false;
+        localRepeat = 0;
+        pinPad.setEnabled(true);
+        setDescription(context.getResources().getString(R.string.es_garce_simplelock_new_pin));
+    }
+
+    /**
+     * Drops the record of the first pin and a waiting confirmation, and the result of a running
+     * hash.
+     */
+    private void forgetFirstPin() {
+        generation++;
+        if (first != null && first.confirmation != null) {
+            first.confirmation.clear();
+            first.confirmation = null;
+        }
+        first = null;
+        checking = false;
+    }
+
+    private void clickDel() {
+        if (!pinCode.isEmpty()) {
+            removeCircle();
+            //Update pin
+            pinCode.delete();
+            //Disable Done if needed
+            updateDone();
+        }
+    }
+
+    private void clickLongDel() {
+        if (!pinCode.isEmpty()) {
+            resetCircles();
+            //Empty pin
+            pinCode.clear();
+            //Diable Done
+            updateDone();
+        }
+    }
+
+    private void addCircle () {
+        pinIndicator.add();
+    }
+
+    private void removeCircle () {
+        pinIndicator.remove();
+    }
+
+    private void resetCircles () {
+        pinIndicator.clear();
+    }
+}
@@ -1,9 +1,23 @@
 package es.garce.simplelock;
 
 import android.os.Bundle;
+import android.support.annotation.Nullable;
 
 /**
- * This interface is used by the lock activity to communicate with the caller.
+ * <p>This interface is used by the lock activity to communicate with the caller.</p>
+ *
+ * <p>The activity received by the callbacks is null, so check it before finishing it:</p>
+ * <ul>
+ *     <li>When the lock is shown by a {@link SimpleLockOverlay}.</li>
+ *     <li>In {@link #onCorrectPin(SimpleLockActivity)} when the key is
+ *     {@link SimpleLock#isUnlocked(String) unlocked} and the lock is not shown at all.</li>
+ *     <li>In {@link #onCorrectPin(SimpleLockActivity)} and {@link #onBack(SimpleLockActivity)}
+ *     when the result was produced while no listener was registered for the tag of the request,
+ *     because the owner of the listener was being recreated or the process was restarted. The
+ *     result is delivered when the listener is
+ *     {@link SimpleLockActivity#registerListener(android.app.Activity, String, OnEnterPin)
+ *     registered} again, the lock activity has already finished by then.</li>
+ * </ul>
  *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
@@ -16,19 +30,22 @@ public interface OnEnterPin {
     boolean onEnterPin(String pinCode);
     /**
      * This is called when the pin is managed by SimpleLock and it was correct.
-     * @param simpleLockActivity The activity reference if user wants to finish it.
+     * @param simpleLockActivity The activity reference if user wants to finish it, or null if
+     *                           there is none.
      */
-    void onCorrectPin(SimpleLockActivity simpleLockActivity);
+    void onCorrectPin(@Nullable SimpleLockActivity simpleLockActivity);
     /**
      * This is called when the pin is not correct.
-     * @param simpleLockActivity The activity reference if user wants to finish it.
+     * @param simpleLockActivity The activity reference if user wants to finish it, or null if
+     *                           there is none.
      */
-    void onWrongPin(SimpleLockActivity simpleLockActivity);
+    void onWrongPin(@Nullable SimpleLockActivity simpleLockActivity);
     /**
      * Called when user tries to go back from this activity. Listener must override the back
      * behaviour of the lock activity. Usually useful to prevent access when lock was called in
      * {@link android.app.Activity#onCreate(Bundle) onCreate}
-     * @param simpleLockActivity The activity reference if user wants to finish it.
+     * @param simpleLockActivity The activity reference if user wants to finish it, or null if
+     *                           there is none.
      */
-    void onBack(SimpleLockActivity simpleLockActivity);
+    void onBack(@Nullable SimpleLockActivity simpleLockActivity);
 }
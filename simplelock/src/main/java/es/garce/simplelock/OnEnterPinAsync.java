@@ -0,0 +1,29 @@
+package es.garce.simplelock;
+
+/**
+ * <p>Asynchronous variant of {@link OnEnterPin#onEnterPin(String)}. If the listener passed to
+ * {@link SimpleLockActivity#requestPin(android.content.Context, OnEnterPin, String)} also implements
+ * this interface and the lock has no key, the pin check is delegated here instead. The lock pad
+ * stays busy until the result is delivered.</p>
+ */
+public interface OnEnterPinAsync {
+
+    /**
+     * Receives the result of an asynchronous pin check. It can be used from any thread and only
+     * the first result delivered is taken.
+     */
+    interface Result {
+        /**
+         * @param correct True if the pin was correct, false otherwise.
+         */
+        void deliver(boolean correct);
+    }
+
+    /**
+     * This will be fired on the main thread when the pin is not managed by SimpleLock and user
+     * hits done button. The check can be done on any thread as long as the result is delivered.
+     * @param pinCode The input pin.
+     * @param result Where the check result must be delivered.
+     */
+    void onEnterPinAsync(String pinCode, Result result);
+}
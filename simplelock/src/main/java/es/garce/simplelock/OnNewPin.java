@@ -1,7 +1,20 @@
 package es.garce.simplelock;
 
+import android.support.annotation.Nullable;
+
 /**
- * This interface is used by the new pin lock activity to communicate with the caller.
+ * <p>This interface is used by the new pin lock activity to communicate with the caller.</p>
+ *
+ * <p>The activity received by the callbacks is null, so check it before finishing it:</p>
+ * <ul>
+ *     <li>When the new pin is asked by a {@link SimpleLockOverlay}.</li>
+ *     <li>In {@link #onSaved(SimpleLockNewActivity, String)} and
+ *     {@link #onError(SimpleLockNewActivity, int)} when the result was produced while no listener
+ *     was registered for the tag of the request, because the owner of the listener was being
+ *     recreated or the process was restarted. The result is delivered when the listener is
+ *     {@link SimpleLockNewActivity#registerListener(android.app.Activity, String, OnNewPin)
+ *     registered} again, the lock activity has already finished by then.</li>
+ * </ul>
  *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
@@ -10,25 +23,29 @@ public interface OnNewPin {
      * When the new pin was inserted correctly the listener calls this function. If you decide to return
      * True and let Simple Lock the pin persistence you must not finish the activity until
      * {@link OnNewPin#onSaved(SimpleLockNewActivity, String)} has been called.
-     * @param simpleLockActivity The activity reference if user wants to terminate it.
+     * @param simpleLockActivity The activity reference if user wants to terminate it, or null if
+     *                           there is none.
      * @param pin The pin inserted by the user.
      * @return True if the pin should be saved in preferences by Simple Lock, false otherwise.
      * (See {@link SimpleLockPin} documentation for further information).
      */
-    boolean onDone(SimpleLockNewActivity simpleLockActivity, String pin);
+    boolean onDone(@Nullable SimpleLockNewActivity simpleLockActivity, String pin);
     /**
      * This can be called when user pin confirmation doesn't match.
-     * @param simpleLockActivity The activity reference if user wants to terminate it.
+     * @param simpleLockActivity The activity reference if user wants to terminate it, or null if
+     *                           there is none.
      * @param code Error code. See {@link SimpleLockNewActivity} errors
      *             ({@link SimpleLockNewActivity#CANCELED CANCELED},
      *             {@link SimpleLockNewActivity#NO_KEY NO_KEY}, etc).
      */
-    void onError(SimpleLockNewActivity simpleLockActivity, int code);
+    void onError(@Nullable SimpleLockNewActivity simpleLockActivity, int code);
     /**
-     * This is fired when Simple Lock manage the pin persistence and it has been saved. When this is
+     * This is fired when Simple Lock manage the pin persistence and it has been saved. The pin is
+     * already written to disk, so it is kept even if the process dies right after. When this is
      * called is secure to finish the {@link SimpleLockNewActivity activity}.
-     * @param simpleLockActivity The activity reference if user wants to terminate it.
+     * @param simpleLockActivity The activity reference if user wants to terminate it, or null if
+     *                           there is none.
      * @param pin The hash representation of the pin that has been saved.
      */
-    void onSaved(SimpleLockNewActivity simpleLockActivity, String pin);
+    void onSaved(@Nullable SimpleLockNewActivity simpleLockActivity, String pin);
 }
@@ -0,0 +1,228 @@
+package es.garce.simplelock;
+
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.animation.DecelerateInterpolator;
+
+/**
+ * <p>Shows the length of the pin being typed as a row of dots drawn on a single view. Typing only
+ * invalidates this view, no child views are added or removed.</p>
+ *
+ * <p>With placeholders enabled a small dot is drawn for each digit that can still be typed and
+ * filled dots replace them as the user types. If the dots don't fit they are drawn closer and, as
+ * a last resort, only the last ones are shown so long pins never need more space.</p>
+ *
+ * <p>Look can be changed with the {@code simplelockDotColor}, {@code simplelockDotSize},
+ * {@code simplelockPlaceholderSize} and {@code simplelockDotSpacing} attributes, by default taken
+ * from the {@code SimpleLock.Indicator} style.</p>
+ */
+public class PinIndicatorView extends View {
+
+    private static final long FILL_DURATION = 120;
+    //Dots never shrink below this fraction of their size
+    private static final float MIN_SCALE = 0.5f;
+
+    private final Paint dotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final ValueAnimator fillAnimator = ValueAnimator.ofFloat(0f, 1f);
+
+    private float dotRadius;
+    private float placeholderRadius;
+    private float spacing;
+
+    private int capacity = SimpleLock.maxLength;
+    private int filled = 0;
+    private boolean showPlaceholder = SimpleLock.showPlaceholder;
+    private boolean showFilled = SimpleLock.showPreview;
+
+    //Fill animation of the last typed dot
+    private int animatedIndex = -1;
+    private float animatedScale = 1f;
+
+    public PinIndicatorView(Context context) {
+        this(context, null);
+    }
+
+    public PinIndicatorView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public PinIndicatorView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PinIndicatorView,
+                defStyleAttr, R.style.SimpleLock_Indicator);
+        try {
+            dotPaint.setColor(a.getColor(R.styleable.PinIndicatorView_simplelockDotColor, 0xFF000000));
+            dotRadius = a.getDimension(R.styleable.PinIndicatorView_simplelockDotSize, 0) / 2f;
+            placeholderRadius = a.getDimension(
+                    R.styleable.PinIndicatorView_simplelockPlaceholderSize, 0) / 2f;
+            spacing = a.getDimension(R.styleable.PinIndicatorView_simplelockDotSpacing, 0);
+        } finally {
+            a.recycle();
+        }
+        dotPaint.setStyle(Paint.Style.FILL);
+
+        fillAnimator.setDuration(FILL_DURATION);
+        fillAnimator.setInterpolator(new DecelerateInterpolator());
+        fillAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                animatedScale = animation.getAnimatedFraction();
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Sets the maximum number of digits, used to draw the placeholders. Filled dots are cleared.
+     * @param capacity Maximum length of the pin.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        filled = 0;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * @param showPlaceholder True to draw a small dot for each digit not typed yet.
+     */
+    public void setShowPlaceholder(boolean showPlaceholder) {
+        this.showPlaceholder = showPlaceholder;
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * @param showFilled False to hide the typed digits, placeholders will stay still.
+     */
+    public void setShowFilled(boolean showFilled) {
+        this.showFilled = showFilled;
+        invalidate();
+    }
+
+    /**
+     * @return Number of filled dots.
+     */
+    public int getFilled() {
+        return filled;
+    }
+
+    /**
+     * Fills the first dots at once, without animation.
+     * @param filled Number of filled dots.
+     */
+    public void setFilled(int filled) {
+        this.filled = Math.min(filled, capacity);
+        stopAnimation();
+        invalidate();
+    }
+
+    /**
+     * Fills the next dot with an animation.
+     */
+    public void add() {
+        if (filled >= capacity)
+            return;
+        animatedIndex = filled++;
+        animatedScale = 0f;
+        fillAnimator.cancel();
+        fillAnimator.start();
+        invalidate();
+    }
+
+    /**
+     * Empties the last filled dot.
+     */
+    public void remove() {
+        if (filled == 0)
+            return;
+        filled--;
+        stopAnimation();
+        invalidate();
+    }
+
+    /**
+     * Empties all the dots.
+     */
+    public void clear() {
+        filled = 0;
+        stopAnimation();
+        invalidate();
+    }
+
+    private void stopAnimation() {
+        fillAnimator.cancel();
+        animatedIndex = -1;
+        animatedScale = 1f;
+    }
+
+    private int getSlots() {
+        if (showPlaceholder)
+            return capacity;
+        return showFilled ? filled : 0;
+    }
+
+    private float getMaxRadius() {
+        return Math.max(dotRadius, placeholderRadius);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        float pitch = getMaxRadius() * 2 + spacing;
+        int slots = showPlaceholder ? capacity : Math.max(capacity, 1);
+        int width = (int) Math.ceil(slots * pitch) + getPaddingLeft() + getPaddingRight();
+        int height = (int) Math.ceil(getMaxRadius() * 2) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int slots = getSlots();
+        if (slots == 0)
+            return;
+
+        float available = getWidth() - getPaddingLeft() - getPaddingRight();
+        float size = getMaxRadius() * 2;
+        float pitch = size + spacing;
+
+        //Shrink first, then show only the last dots if they still don't fit
+        int first = 0;
+        int visible = slots;
+        float scale = 1f;
+        if (slots * pitch > available) {
+            scale = Math.max(available / (slots * pitch), MIN_SCALE);
+            pitch *= scale;
+            visible = Math.max(1, (int) (available / pitch));
+            if (visible < slots)
+                first = Math.max(0, Math.min(slots - visible, filled - visible + 1));
+        }
+        float dot = dotRadius * scale;
+        float placeholder = placeholderRadius * scale;
+
+        float cy = getPaddingTop() + (getHeight() - getPaddingTop() - getPaddingBottom()) / 2f;
+        float cx = getPaddingLeft() + (available - visible * pitch) / 2f + pitch / 2f;
+        for (int i = first; i < first + visible; i++, cx += pitch) {
+            if (showFilled && i < filled) {
+                float radius = i == animatedIndex ? dot * animatedScale : dot;
+                if (showPlaceholder && radius < placeholder)
+                    radius = placeholder;
+                canvas.drawCircle(cx, cy, radius, dotPaint);
+            }
+            else if (showPlaceholder)
+                canvas.drawCircle(cx, cy, placeholder, dotPaint);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopAnimation();
+        super.onDetachedFromWindow();
+    }
+}
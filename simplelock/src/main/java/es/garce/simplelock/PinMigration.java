@@ -0,0 +1,224 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Background migration of the pins saved as bare SHA-1 hashes to {@link PinRecord} records.
+ * The legacy digest is wrapped with the current key derivation function (see
+ * {@link PinRecord#PRE_HASH_SHA1}), so the pin is not needed.</p>
+ *
+ * <p>Keys are migrated in chunks on a pool of background threads. Each chunk is saved on its own,
+ * so if the process dies or a chunk fails only the unsaved chunks are left as legacy values, and
+ * the next run scans for them again. Legacy values keep working while they wait, and a key whose
+ * value changed while its chunk was running is left untouched.</p>
+ *
+ * <p>The state is kept per store: a store {@link SimpleLockPin#setPinStore(PinStore) set} later,
+ * or filled by {@link SimpleLockPin#importPins(Context, BinaryPinStore) an import}, is scanned
+ * again. Only the migration of the default store is saved for future processes, other stores are
+ * migrated once per process.</p>
+ */
+final class PinMigration {
+
+    private static final String migrationPreference = "es.garce.simplelock_pin_migration";
+    private static final String versionPreference = "version";
+
+    static final int CHUNK_SIZE = 32;
+
+    private static final Object lock = new Object();
+    //The store of the last run, runs of a previous store or generation are stale
+    private static PinStore current = null;
+    private static int generation = 0;
+    private static boolean started = false;
+    private static volatile PinStore migrated = null;
+
+    private PinMigration() {
+    }
+
+    /**
+     * Starts the migration of the {@link SimpleLockPin#getPinStore(Context) current store} in
+     * background unless it already ran for this store. It is cheap to call once the migration is
+     * finished. A run that fails is tried again the next time it is called. Client processes of the
+     * multi-process mode leave it to the owner process.
+     * @param context Context to get preferences.
+     */
+    static void start(Context context) {
+        if (SimpleLockRemote.isClient())
+            return;
+        final PinStore store = SimpleLockPin.getPinStore(context);
+        if (migrated == store)
+            return;
+        final int run;
+        synchronized (lock) {
+            if (store == current && started)
+                return;
+            current = store;
+            started = true;
+            run = ++generation;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        final ExecutorService pool =
+                SimpleLockExecutor.newBackgroundPool("SimpleLock-migration", threads);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                migrate(appContext, store, run, pool);
+            }
+        });
+    }
+
+    /**
+     * Scans a store again the next time the migration {@link #start(Context) starts}, after
+     * values were written to it without going through Simple Lock.
+     * @param store The store.
+     */
+    static void invalidate(PinStore store) {
+        synchronized (lock) {
+            if (store == current) {
+                started = false;
+                generation++;
+            }
+            if (store == migrated)
+                migrated = null;
+        }
+    }
+
+    private static void migrate(Context context, final PinStore store, final int run,
+                                ExecutorService pool) {
+        final SharedPreferences state = getState(context);
+        final boolean persistent = SimpleLockPin.isDefaultPinStore(store);
+        if (persistent
+                && state.getInt(versionPreference, PinRecord.VERSION_LEGACY) >= PinRecord.VERSION_KDF) {
+            pool.shutdown();
+            markMigrated(store, run);
+            return;
+        }
+
+        //Sorted scan of the values still in the legacy format
+        List<String> keys = new ArrayList<>();
+        final Map<String, String> legacy = new HashMap<>();
+        try {
+            for (String key : store.keys("")) {
+                String value = store.get(key);
+                if (value != null && PinRecord.isLegacy(value)) {
+                    keys.add(key);
+                    legacy.put(key, value);
+                }
+            }
+        } catch (IOException e) {
+            //Legacy values keep working, try again next start
+            pool.shutdown();
+            release(store, run);
+            return;
+        }
+        if (keys.isEmpty()) {
+            finish(state, pool, store, run, true);
+            return;
+        }
+        Collections.sort(keys);
+
+        final int iterations;
+        try {
+            iterations = SimpleLockPin.getIterations(context);
+        } catch (NoSuchAlgorithmException e) {
+            //Legacy values keep working, try again next start
+            pool.shutdown();
+            release(store, run);
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger((keys.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        //Any failed chunk leaves the store to be scanned again
+        final AtomicBoolean allComplete = new AtomicBoolean(true);
+        final ExecutorService chunkPool = pool;
+        for (int from = 0; from < keys.size(); from += CHUNK_SIZE) {
+            final List<String> chunk = keys.subList(from, Math.min(keys.size(), from + CHUNK_SIZE));
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!migrateChunk(store, chunk, legacy, iterations))
+                        allComplete.set(false);
+                    if (remaining.decrementAndGet() == 0)
+                        finish(state, chunkPool, store, run, allComplete.get());
+                }
+            });
+        }
+    }
+
+    /**
+     * @return False if any key of the chunk could not be migrated.
+     */
+    private static boolean migrateChunk(PinStore store, List<String> chunk,
+                                        Map<String, String> legacy, int iterations) {
+        Map<String, String> expected = new HashMap<>();
+        Map<String, String> wrapped = new HashMap<>();
+        boolean complete = true;
+        for (String key : chunk) {
+            String value = legacy.get(key);
+            try {
+                String record = SimpleLockPin.wrapLegacy(value, iterations);
+                //Values that are not valid hashes can never match, they are left as they are
+                if (record != null) {
+                    expected.put(key, value);
+                    wrapped.put(key, record);
+                }
+            } catch (NoSuchAlgorithmException e) {
+                complete = false;
+            }
+        }
+        try {
+            store.replaceAll(expected, wrapped);
+        } catch (IOException e) {
+            complete = false;
+        }
+        return complete;
+    }
+
+    private static void finish(SharedPreferences state, ExecutorService pool, PinStore store,
+                               int run, boolean complete) {
+        pool.shutdown();
+        if (!complete)
+            release(store, run);
+        else if (markMigrated(store, run) && SimpleLockPin.isDefaultPinStore(store))
+            state.edit().putInt(versionPreference, PinRecord.VERSION_KDF).commit();
+    }
+
+    /**
+     * Lets the next {@link #start(Context) start} run again after a failed run.
+     */
+    private static void release(PinStore store, int run) {
+        synchronized (lock) {
+            if (store == current && run == generation)
+                started = false;
+        }
+    }
+
+    /**
+     * @return False if the store was changed or written while it was scanned.
+     */
+    private static boolean markMigrated(PinStore store, int run) {
+        synchronized (lock) {
+            if (store != current || run != generation)
+                return false;
+            migrated = store;
+            return true;
+        }
+    }
+
+    private static SharedPreferences getState(Context context) {
+        return context.getSharedPreferences(migrationPreference, Context.MODE_PRIVATE);
+    }
+}
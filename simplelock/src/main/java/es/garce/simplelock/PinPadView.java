@@ -0,0 +1,591 @@
+package es.garce.simplelock;
+
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
+import android.util.AttributeSet;
+import android.view.HapticFeedbackConstants;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.SoundEffectConstants;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.view.accessibility.AccessibilityEvent;
+import android.widget.Button;
+
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Pin pad drawn on a single view: ten digit keys, a done key and a delete key laid out as a
+ * phone keypad. It does its own hit testing and draws a ripple on the pressed key, so inflating
+ * the lock only creates one view for the whole pad.</p>
+ *
+ * <p>Look can be changed with the {@code simplelockKeyTextSize}, {@code simplelockKeyTextColor},
+ * {@code simplelockRippleColor}, {@code simplelockDoneIcon} and {@code simplelockDeleteIcon}
+ * attributes, by default taken from the {@code SimpleLock.PinPad} style. Values it doesn't set are
+ * taken from the {@code SimpleLock.Button}, {@code SimpleLock.Button.Done} and
+ * {@code SimpleLock.Button.Backspace} styles of the previous button grid, so applications that
+ * override them keep their look. The done icon receives the enabled state, so a state list can be
+ * used to tint it.</p>
+ *
+ * <p>Each key is exposed to accessibility services as a virtual button, and the pad can be used
+ * with a keyboard: digits, delete and enter are typed directly, and the arrows and the D-pad move
+ * a focus between the keys.</p>
+ *
+ * <p>It replaces the buttons of previous versions, so the {@code es.garce.simplelock.btn_*} ids
+ * and {@code SimpleLock.BUTTON_IDS} no longer exist.</p>
+ */
+public class PinPadView extends View {
+
+    /**
+     * Receives the keys pressed on the pad.
+     */
+    public interface OnPinPadListener {
+        /**
+         * @param digit The digit pressed, between 0 and 9.
+         */
+        void onDigit(int digit);
+
+        /**
+         * The delete key was pressed.
+         */
+        void onDelete();
+
+        /**
+         * The delete key was long pressed.
+         */
+        void onDeleteAll();
+
+        /**
+         * The done key was pressed.
+         */
+        void onDone();
+    }
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 4;
+    private static final int KEYS = COLUMNS * ROWS;
+    private static final int KEY_DONE = 9;
+    private static final int KEY_ZERO = 10;
+    private static final int KEY_DELETE = 11;
+    private static final int NO_KEY = -1;
+
+    //Attributes of the SimpleLock.Button styles, sorted by id
+    private static final int[] BUTTON_ATTRS = {android.R.attr.textSize, android.R.attr.textColor};
+    private static final int BUTTON_TEXT_SIZE = 0;
+    private static final int BUTTON_TEXT_COLOR = 1;
+    private static final int[] ICON_ATTRS = {android.R.attr.src};
+
+    private static final long RIPPLE_DURATION = 250;
+    private static final float DISABLED_ALPHA = 0.4f;
+    private static final char[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final int[] STATE_ENABLED = {android.R.attr.state_enabled};
+    private static final int[] STATE_DISABLED = {};
+
+    private static final Random random = new SecureRandom();
+
+    //Digit shown on each digit key, keys 0-8 and then the key below the 8
+    private final int[] labels = {1, 2, 3, 4, 5, 6, 7, 8, 9, 0};
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint ripplePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint focusPaint = new Paint();
+    private final RectF keyBounds = new RectF();
+    private final Rect nodeBounds = new Rect();
+    private final KeyAccessibilityHelper accessibilityHelper;
+    private final ValueAnimator rippleAnimator = ValueAnimator.ofFloat(0f, 1f);
+    private final Drawable doneIcon;
+    private final Drawable deleteIcon;
+    private final int rippleAlpha;
+
+    private OnPinPadListener listener;
+    private boolean doneEnabled = true;
+
+    private int pressedKey = NO_KEY;
+    private boolean longPressed = false;
+    private int rippleKey = NO_KEY;
+    private float rippleX;
+    private float rippleY;
+    private float rippleFraction = 1f;
+    //Key focused with the arrows or the D-pad
+    private int focusedKey = NO_KEY;
+
+    private final Runnable longPress = new Runnable() {
+        @Override
+        public void run() {
+            if (pressedKey == KEY_DELETE) {
+                longPressed = true;
+                performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                if (listener != null)
+                    listener.onDeleteAll();
+            }
+        }
+    };
+
+    public PinPadView(Context context) {
+        this(context, null);
+    }
+
+    public PinPadView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public PinPadView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PinPadView,
+                defStyleAttr, R.style.SimpleLock_PinPad);
+        TypedArray button = context.obtainStyledAttributes(R.style.SimpleLock_Button, BUTTON_ATTRS);
+        try {
+            textPaint.setTextSize(a.getDimension(R.styleable.PinPadView_simplelockKeyTextSize,
+                    button.getDimension(BUTTON_TEXT_SIZE, 0)));
+            textPaint.setColor(a.getColor(R.styleable.PinPadView_simplelockKeyTextColor,
+                    button.getColor(BUTTON_TEXT_COLOR, Color.BLACK)));
+            ripplePaint.setColor(a.getColor(R.styleable.PinPadView_simplelockRippleColor,
+                    0x33000000));
+            doneIcon = a.hasValue(R.styleable.PinPadView_simplelockDoneIcon)
+                    ? a.getDrawable(R.styleable.PinPadView_simplelockDoneIcon)
+                    : getStyleIcon(context, R.style.SimpleLock_Button_Done);
+            deleteIcon = a.hasValue(R.styleable.PinPadView_simplelockDeleteIcon)
+                    ? a.getDrawable(R.styleable.PinPadView_simplelockDeleteIcon)
+                    : getStyleIcon(context, R.style.SimpleLock_Button_Backspace);
+        } finally {
+            button.recycle();
+            a.recycle();
+        }
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        rippleAlpha = Color.alpha(ripplePaint.getColor());
+        focusPaint.setColor(ripplePaint.getColor());
+        updateDoneState();
+
+        setClickable(true);
+        setFocusable(true);
+        accessibilityHelper = new KeyAccessibilityHelper();
+        ViewCompat.setAccessibilityDelegate(this, accessibilityHelper);
+        rippleAnimator.setDuration(RIPPLE_DURATION);
+        rippleAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                rippleFraction = animation.getAnimatedFraction();
+                invalidate();
+            }
+        });
+    }
+
+    public void setOnPinPadListener(OnPinPadListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param enabled False to disable the done key. Only the done key is affected.
+     */
+    public void setDoneEnabled(boolean enabled) {
+        if (doneEnabled != enabled) {
+            doneEnabled = enabled;
+            updateDoneState();
+            invalidate();
+            accessibilityHelper.invalidateVirtualView(KEY_DONE);
+        }
+    }
+
+    public boolean isDoneEnabled() {
+        return doneEnabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (!enabled)
+            cancelPress();
+        updateDoneState();
+        invalidate();
+        accessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * Puts the digits on random keys.
+     */
+    public void shuffle() {
+        Shuffle.permute(labels, random);
+        invalidate();
+        accessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * Puts the digits back on their usual keys.
+     */
+    public void resetOrder() {
+        for (int i = 0; i < labels.length; i++)
+            labels[i] = (i + 1) % 10;
+        invalidate();
+        accessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * @return The digit shown on each digit key, to show the same order on a new pad.
+     */
+    int[] getOrder() {
+        return labels.clone();
+    }
+
+    /**
+     * Shows the digits in the order of {@link #getOrder()}.
+     */
+    void setOrder(int[] order) {
+        System.arraycopy(order, 0, labels, 0, labels.length);
+        invalidate();
+        accessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * Seeds the shuffle generator, which may block the first time it is used.
+     */
+    static void prewarm() {
+        random.nextInt();
+    }
+
+    private static Drawable getStyleIcon(Context context, int style) {
+        TypedArray a = context.obtainStyledAttributes(style, ICON_ATTRS);
+        try {
+            return a.getDrawable(0);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    private void updateDoneState() {
+        if (doneIcon != null)
+            doneIcon.setState(doneEnabled && isEnabled() ? STATE_ENABLED : STATE_DISABLED);
+    }
+
+    private int getKeyAt(float x, float y) {
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        int column = (int) ((x - getPaddingLeft()) * COLUMNS / width);
+        int row = (int) ((y - getPaddingTop()) * ROWS / height);
+        if (column < 0 || column >= COLUMNS || row < 0 || row >= ROWS)
+            return NO_KEY;
+        return row * COLUMNS + column;
+    }
+
+    private void getKeyBounds(int key, RectF bounds) {
+        float width = (getWidth() - getPaddingLeft() - getPaddingRight()) / (float) COLUMNS;
+        float height = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) ROWS;
+        float left = getPaddingLeft() + (key % COLUMNS) * width;
+        float top = getPaddingTop() + (key / COLUMNS) * height;
+        bounds.set(left, top, left + width, top + height);
+    }
+
+    private boolean isKeyEnabled(int key) {
+        return key != NO_KEY && isEnabled() && (key != KEY_DONE || doneEnabled);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                int key = getKeyAt(event.getX(), event.getY());
+                if (!isKeyEnabled(key))
+                    return false;
+                pressedKey = key;
+                longPressed = false;
+                startRipple(key, event.getX(), event.getY());
+                if (key == KEY_DELETE)
+                    postDelayed(longPress, ViewConfiguration.getLongPressTimeout());
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (pressedKey != NO_KEY && getKeyAt(event.getX(), event.getY()) != pressedKey)
+                    cancelPress();
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (pressedKey != NO_KEY && !longPressed) {
+                    playSoundEffect(SoundEffectConstants.CLICK);
+                    performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
+                    performClick();
+                    dispatchKey(pressedKey);
+                    accessibilityHelper.sendEventForVirtualView(pressedKey,
+                            AccessibilityEvent.TYPE_VIEW_CLICKED);
+                }
+                cancelPress();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                cancelPress();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        //Touch exploration of the keys
+        return accessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        int digit = getDigit(keyCode);
+        if (digit != NO_KEY) {
+            if (isEnabled() && listener != null)
+                listener.onDigit(digit);
+            return true;
+        }
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DEL:
+                //Held down it repeats until the pin is empty
+                if (isEnabled() && listener != null)
+                    listener.onDelete();
+                return true;
+            case KeyEvent.KEYCODE_DPAD_CENTER:
+            case KeyEvent.KEYCODE_ENTER:
+            case KeyEvent.KEYCODE_NUMPAD_ENTER:
+                //Enter after typing the digits is done
+                int key = focusedKey != NO_KEY ? focusedKey : KEY_DONE;
+                if (event.getRepeatCount() == 0 && isKeyEnabled(key)) {
+                    playSoundEffect(SoundEffectConstants.CLICK);
+                    dispatchKey(key);
+                    accessibilityHelper.sendEventForVirtualView(key,
+                            AccessibilityEvent.TYPE_VIEW_CLICKED);
+                }
+                return true;
+            case KeyEvent.KEYCODE_DPAD_UP:
+                if (moveFocus(-1, 0))
+                    return true;
+                break;
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                if (moveFocus(1, 0))
+                    return true;
+                break;
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                if (moveFocus(0, -1))
+                    return true;
+                break;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                if (moveFocus(0, 1))
+                    return true;
+                break;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    /**
+     * @return The digit typed by a key of a keyboard, or {@link #NO_KEY}.
+     */
+    private static int getDigit(int keyCode) {
+        if (keyCode >= KeyEvent.KEYCODE_0 && keyCode <= KeyEvent.KEYCODE_9)
+            return keyCode - KeyEvent.KEYCODE_0;
+        if (keyCode >= KeyEvent.KEYCODE_NUMPAD_0 && keyCode <= KeyEvent.KEYCODE_NUMPAD_9)
+            return keyCode - KeyEvent.KEYCODE_NUMPAD_0;
+        return NO_KEY;
+    }
+
+    /**
+     * Moves the focus to the next key in a direction. The first move focuses the top left key.
+     * @return False if there is no key in that direction, so the focus can leave the pad.
+     */
+    private boolean moveFocus(int rows, int columns) {
+        int key = 0;
+        if (focusedKey != NO_KEY) {
+            int row = focusedKey / COLUMNS + rows;
+            int column = focusedKey % COLUMNS + columns;
+            if (row < 0 || row >= ROWS || column < 0 || column >= COLUMNS)
+                return false;
+            key = row * COLUMNS + column;
+        }
+        focusedKey = key;
+        invalidate();
+        accessibilityHelper.sendEventForVirtualView(key, AccessibilityEvent.TYPE_VIEW_FOCUSED);
+        return true;
+    }
+
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        if (!gainFocus && focusedKey != NO_KEY) {
+            focusedKey = NO_KEY;
+            invalidate();
+        }
+    }
+
+    private void dispatchKey(int key) {
+        if (listener == null)
+            return;
+        if (key == KEY_DONE)
+            listener.onDone();
+        else if (key == KEY_DELETE)
+            listener.onDelete();
+        else
+            listener.onDigit(labels[key == KEY_ZERO ? 9 : key]);
+    }
+
+    private void cancelPress() {
+        removeCallbacks(longPress);
+        pressedKey = NO_KEY;
+    }
+
+    private void startRipple(int key, float x, float y) {
+        rippleKey = key;
+        rippleX = x;
+        rippleY = y;
+        rippleFraction = 0f;
+        rippleAnimator.cancel();
+        rippleAnimator.start();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        //Keys are at least twice the text size
+        int key = (int) Math.ceil(textPaint.getTextSize() * 2);
+        setMeasuredDimension(
+                resolveSize(key * COLUMNS + getPaddingLeft() + getPaddingRight(), widthMeasureSpec),
+                resolveSize(key * ROWS + getPaddingTop() + getPaddingBottom(), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        textPaint.setAlpha(isEnabled() ? 255 : (int) (255 * DISABLED_ALPHA));
+        float textOffset = (textPaint.ascent() + textPaint.descent()) / 2f;
+
+        if (focusedKey != NO_KEY && isFocused()) {
+            getKeyBounds(focusedKey, keyBounds);
+            canvas.drawRect(keyBounds, focusPaint);
+        }
+
+        for (int key = 0; key < KEYS; key++) {
+            getKeyBounds(key, keyBounds);
+            if (key == KEY_DONE)
+                drawIcon(canvas, doneIcon, keyBounds);
+            else if (key == KEY_DELETE)
+                drawIcon(canvas, deleteIcon, keyBounds);
+            else {
+                int digit = labels[key == KEY_ZERO ? 9 : key];
+                canvas.drawText(DIGITS, digit, 1, keyBounds.centerX(),
+                        keyBounds.centerY() - textOffset, textPaint);
+            }
+        }
+
+        if (rippleKey != NO_KEY && rippleFraction < 1f) {
+            getKeyBounds(rippleKey, keyBounds);
+            float radius = Math.max(keyBounds.width(), keyBounds.height()) * rippleFraction;
+            ripplePaint.setAlpha((int) (rippleAlpha * (1f - rippleFraction)));
+            int save = canvas.save();
+            canvas.clipRect(keyBounds.left, keyBounds.top, keyBounds.right, keyBounds.bottom);
+            canvas.drawCircle(rippleX, rippleY, radius, ripplePaint);
+            canvas.restoreToCount(save);
+        }
+    }
+
+    private void drawIcon(Canvas canvas, Drawable icon, RectF bounds) {
+        if (icon == null)
+            return;
+        int width = Math.min(icon.getIntrinsicWidth(), (int) bounds.width());
+        int height = Math.min(icon.getIntrinsicHeight(), (int) bounds.height());
+        int left = (int) (bounds.centerX() - width / 2f);
+        int top = (int) (bounds.centerY() - height / 2f);
+        icon.setBounds(left, top, left + width, top + height);
+        icon.setAlpha(isEnabled() ? 255 : (int) (255 * DISABLED_ALPHA));
+        icon.draw(canvas);
+    }
+
+    /**
+     * @return The text read by accessibility services for a key.
+     */
+    private CharSequence getKeyDescription(int key) {
+        if (key == KEY_DONE)
+            return getResources().getString(R.string.es_garce_simplelock_key_done);
+        if (key == KEY_DELETE)
+            return getResources().getString(R.string.es_garce_simplelock_key_delete);
+        return String.valueOf(DIGITS, labels[key == KEY_ZERO ? 9 : key], 1);
+    }
+
+    /**
+     * Exposes every key as a virtual button that can be explored by touch and clicked by
+     * accessibility services. The delete key can be long clicked to delete the whole pin.
+     */
+    private final class KeyAccessibilityHelper extends ExploreByTouchHelper {
+
+        KeyAccessibilityHelper() {
+            super(PinPadView.this);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int key = getKeyAt(x, y);
+            return key != NO_KEY ? key : INVALID_ID;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            for (int key = 0; key < KEYS; key++)
+                virtualViewIds.add(key);
+        }
+
+        @Override
+        protected void onPopulateEventForVirtualView(int key, AccessibilityEvent event) {
+            event.setContentDescription(getKeyDescription(key));
+            event.setClassName(Button.class.getName());
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int key, AccessibilityNodeInfoCompat node) {
+            getKeyBounds(key, keyBounds);
+            keyBounds.roundOut(nodeBounds);
+            //The helper requires bounds, the pad may not be laid out yet
+            if (nodeBounds.isEmpty())
+                nodeBounds.set(0, 0, 1, 1);
+            node.setBoundsInParent(nodeBounds);
+            node.setContentDescription(getKeyDescription(key));
+            node.setClassName(Button.class.getName());
+            node.setEnabled(isKeyEnabled(key));
+            if (isKeyEnabled(key)) {
+                node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+                if (key == KEY_DELETE)
+                    node.addAction(AccessibilityNodeInfoCompat.ACTION_LONG_CLICK);
+            }
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int key, int action, Bundle arguments) {
+            if (!isKeyEnabled(key))
+                return false;
+            switch (action) {
+                case AccessibilityNodeInfoCompat.ACTION_CLICK:
+                    dispatchKey(key);
+                    sendEventForVirtualView(key, AccessibilityEvent.TYPE_VIEW_CLICKED);
+                    return true;
+                case AccessibilityNodeInfoCompat.ACTION_LONG_CLICK:
+                    if (key != KEY_DELETE || listener == null)
+                        return false;
+                    listener.onDeleteAll();
+                    sendEventForVirtualView(key, AccessibilityEvent.TYPE_VIEW_LONG_CLICKED);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelPress();
+        rippleAnimator.cancel();
+        super.onDetachedFromWindow();
+    }
+}
@@ -0,0 +1,122 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>{@link PinStore} of the client processes of {@link SimpleLock#enableMultiProcess(Context)
+ * multi-process mode}. Pins are read from the owner process through {@link SimpleLockProvider}
+ * and cached, every write goes to the owner. Cached values are dropped when the owner notifies
+ * that their pin changed, so reads after the first one don't cross processes.</p>
+ */
+final class ProviderPinStore implements PinStore {
+
+    //Cached for keys without a pin, ConcurrentHashMap doesn't accept null values
+    private static final String MISSING = "";
+
+    private final Context context;
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    //Changed on every notification, a read started before it is not cached
+    private volatile int version = 0;
+
+    ProviderPinStore(Context context) {
+        this.context = context.getApplicationContext();
+        Handler handler = new Handler(Looper.getMainLooper());
+        this.context.getContentResolver().registerContentObserver(
+                SimpleLockProvider.getPinUri(this.context, null), true,
+                new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                invalidate(uri);
+            }
+        });
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        String value = cache.get(key);
+        if (value != null)
+            return value == MISSING ? null : value;
+
+        int read = version;
+        value = SimpleLockRemote.call(context, SimpleLockProvider.METHOD_GET_PIN, key, null)
+                .getString(SimpleLockProvider.EXTRA_RESULT);
+        if (read == version)
+            cache.put(key, value != null ? value : MISSING);
+        return value;
+    }
+
+    @Override
+    public void put(String key, String value) throws IOException {
+        putAll(Collections.singletonMap(key, value));
+    }
+
+    @Override
+    public void putAll(Map<String, String> values) throws IOException {
+        Bundle extras = new Bundle();
+        SimpleLockProvider.putPins(extras, SimpleLockProvider.EXTRA_VALUES, values);
+        invalidate(values.keySet());
+        SimpleLockRemote.call(context, SimpleLockProvider.METHOD_PUT_PINS, null, extras);
+    }
+
+    @Override
+    public boolean remove(String key) throws IOException {
+        boolean existed = get(key) != null;
+        put(key, null);
+        return existed;
+    }
+
+    @Override
+    public int replaceAll(Map<String, String> expected, Map<String, String> values)
+            throws IOException {
+        Bundle extras = new Bundle();
+        SimpleLockProvider.putPins(extras, SimpleLockProvider.EXTRA_EXPECTED, expected);
+        SimpleLockProvider.putPins(extras, SimpleLockProvider.EXTRA_VALUES, values);
+        invalidate(values.keySet());
+        return SimpleLockRemote.call(context, SimpleLockProvider.METHOD_REPLACE_PINS, null, extras)
+                .getInt(SimpleLockProvider.EXTRA_RESULT);
+    }
+
+    @Override
+    public List<String> keys(String prefix) throws IOException {
+        return SimpleLockProvider.getKeys(
+                SimpleLockRemote.call(context, SimpleLockProvider.METHOD_KEYS, prefix, null));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        SimpleLockRemote.call(context, SimpleLockProvider.METHOD_FLUSH, null, null);
+    }
+
+    private void invalidate(Iterable<String> keys) {
+        version++;
+        for (String key : keys)
+            cache.remove(key);
+    }
+
+    private void invalidate(Uri uri) {
+        //Notifications of the parent uri or without uri drop the whole cache
+        String key = uri != null && uri.getPathSegments().size() > 1
+                ? uri.getLastPathSegment() : null;
+        version++;
+        if (key != null)
+            cache.remove(key);
+        else
+            cache.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package es.garce.simplelock;
+
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>{@link PinStore} saving each pin as a string preference. It is the store used by default,
+ * on the {@code es.garce.simplelock_pin} preferences.</p>
+ *
+ * <p>Writes are applied asynchronously, {@link #flush()} commits them.</p>
+ */
+public class SharedPreferencesPinStore implements PinStore {
+
+    private final SharedPreferences prefs;
+
+    public SharedPreferencesPinStore(@NonNull SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * Waits until the preference file is loaded, so the first check doesn't wait for it.
+     */
+    void warmUp() {
+        //Every read blocks until the file is loaded
+        prefs.contains("");
+    }
+
+    @Nullable
+    @Override
+    public String get(@NonNull String key) {
+        return prefs.getString(key, null);
+    }
+
+    @Override
+    public synchronized void put(@NonNull String key, @NonNull String value) {
+        prefs.edit().putString(key, value).apply();
+    }
+
+    @Override
+    public synchronized void putAll(@NonNull Map<String, String> values) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getValue() == null)
+                editor.remove(entry.getKey());
+            else
+                editor.putString(entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    @Override
+    public synchronized boolean remove(@NonNull String key) {
+        if (!prefs.contains(key))
+            return false;
+        prefs.edit().remove(key).apply();
+        return true;
+    }
+
+    @Override
+    public synchronized int replaceAll(@NonNull Map<String, String> expected,
+                                       @NonNull Map<String, String> values) {
+        int replaced = 0;
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (expected.get(entry.getKey()).equals(prefs.getString(entry.getKey(), null))) {
+                editor.putString(entry.getKey(), entry.getValue());
+                replaced++;
+            }
+        }
+        editor.apply();
+        return replaced;
+    }
+
+    @Override
+    public List<String> keys(@NonNull String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (entry.getValue() instanceof String && entry.getKey().startsWith(prefix))
+                keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        //Commits are written after the pending applies
+        if (!prefs.edit().commit())
+            throw new IOException("Can't save the pin preferences");
+    }
+}
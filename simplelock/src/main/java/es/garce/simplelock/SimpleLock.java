@@ -1,10 +1,29 @@
 package es.garce.simplelock;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>This class contains the globals and settings of the Simple Lock.</p>
  *
+ * <p>Settings can be declared at build time in the application theme or the manifest, see
+ * {@link #getConfig(Context)}, and changed at runtime with the setters of this class, which save
+ * them in the preferences.</p>
+ *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
 public class SimpleLock {
@@ -15,36 +34,213 @@ public class SimpleLock {
         }
     }
 
+    /**
+     * Listener notified every time a new {@link LockConfig} snapshot is published. It is called
+     * on the thread that changed the settings.
+     */
+    public interface OnConfigChangeListener {
+        /**
+         * @param config The new settings snapshot.
+         */
+        void onConfigChanged(LockConfig config);
+    }
+
+    /**
+     * Listener notified when settings changed in a client process of the
+     * {@link #enableMultiProcess(Context) multi-process mode} could not be saved by the owner
+     * process. The previous settings are published again before it is called. It is called on a
+     * background thread.
+     */
+    public interface OnConfigErrorListener {
+        /**
+         * @param rejected The settings that were not saved.
+         * @param error The reason.
+         */
+        void onConfigError(LockConfig rejected, IOException error);
+    }
+
     private static final String basePreference = "es.garce.simplelock";
     private static final String maxInputPreference = "input_length";
     private static final String placeholderPreference = "placeholder";
     private static final String previewPreference = "show_preview";
     private static final String minPreference = "min_length";
     private static final String shufflePreference = "shuffle";
+    private static final String asyncPreference = "verify_async";
+    private static final String unlockTimeoutPreference = "unlock_timeout";
+    private static final String autoSubmitPreference = "auto_submit";
+    private static final String rejectWeakPinsPreference = "reject_weak_pins";
+    private static final String initPreference = "init";
+
+    protected static boolean showPlaceholder = LockConfig.DEFAULT_SHOW_PLACEHOLDER;
+    protected static boolean showPreview = LockConfig.DEFAULT_SHOW_PREVIEW;
+
+    protected static boolean shuffleButtons = LockConfig.DEFAULT_SHUFFLE_BUTTONS;
 
-    protected static final int[] BUTTON_IDS = {
-            R.id.es_garce_simplelock_btn_0,
-            R.id.es_garce_simplelock_btn_1,
-            R.id.es_garce_simplelock_btn_2,
-            R.id.es_garce_simplelock_btn_3,
-            R.id.es_garce_simplelock_btn_4,
-            R.id.es_garce_simplelock_btn_5,
-            R.id.es_garce_simplelock_btn_6,
-            R.id.es_garce_simplelock_btn_7,
-            R.id.es_garce_simplelock_btn_8,
-            R.id.es_garce_simplelock_btn_9
+    protected static int maxLength = LockConfig.DEFAULT_MAX_LENGTH;
+    protected static int minLength = LockConfig.DEFAULT_MIN_LENGTH;
+
+    protected static boolean verifyAsync = LockConfig.DEFAULT_VERIFY_ASYNC;
+
+    protected static long unlockTimeout = LockConfig.DEFAULT_UNLOCK_TIMEOUT;
+
+    protected static boolean autoSubmit = LockConfig.DEFAULT_AUTO_SUBMIT;
+
+    protected static boolean rejectWeakPins = LockConfig.DEFAULT_REJECT_WEAK_PINS;
+
+    private static final Object configLock = new Object();
+    private static volatile LockConfig config = null;
+    //Defaults with the values declared in the theme and the manifest, guarded by configLock
+    private static LockConfig declared = null;
+    private static boolean watchingPreferences = false;
+    //True once the values set at runtime are in config, guarded by configLock
+    private static boolean overridesLoaded = false;
+    private static final List<OnConfigChangeListener> configListeners = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean prewarmStarted = new AtomicBoolean();
+    private static volatile SimpleLockMetrics metrics = null;
+    private static volatile OnConfigErrorListener configErrorListener = null;
+    private static final String attemptLogFile = "es.garce.simplelock.attempts";
+    private static final AtomicBoolean attemptLogStarted = new AtomicBoolean();
+    private static volatile AttemptLog attemptLog = null;
+
+    //Keeps external edits of the preference file coherent with the cached snapshot
+    private static final SharedPreferences.OnSharedPreferenceChangeListener prefsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            LockConfig loaded;
+            synchronized (configLock) {
+                loaded = load(prefs);
+                if (loaded.equals(config))
+                    return;
+                config = loaded;
+            }
+            notifyConfigChanged(loaded);
+        }
     };
 
-    protected static boolean showPlaceholder = true;
-    protected static boolean showPreview = true;
+    /**
+     * Enables the multi-process mode: the settings, pins and pin checks of every process of the
+     * application are served by the process running {@link SimpleLockProvider}, the main process
+     * unless the provider is declared in another one. The other processes cache the settings and
+     * pins and drop them when the owner process notifies a change, so a lock shown in any process
+     * always uses the same values.
+     *
+     * <p>Call it in {@link android.app.Application#onCreate()}, it runs in every process, before
+     * the lock is used. It does nothing in the owner process.</p>
+     * @param context Context to find the provider.
+     */
+    public static void enableMultiProcess(Context context) {
+        SimpleLockRemote.enable(context);
+    }
 
-    protected static boolean shuffleButtons = false;
+    /**
+     * Loads on a background thread what the lock would otherwise load on the main thread the
+     * first time it is shown: the settings and saved pins, the hash providers and the resources of
+     * the pin pad. Call it once on app start, usually from {@link android.app.Application#onCreate()}.
+     * Later calls do nothing.
+     * @param context Context to get preferences and resources.
+     */
+    public static void prewarm(Context context) {
+        if (!prewarmStarted.compareAndSet(false, true))
+            return;
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(appContext);
+            }
+        });
+    }
+
+    /**
+     * Does the work of {@link #prewarm(Context)} on the calling thread.
+     */
+    static void warmUp(Context context) {
+        getConfig(context);
+        try {
+            SimpleLockPin.prewarm(context);
+        } catch (NoSuchAlgorithmException e) {
+            //It will be reported when a pin is checked
+        }
+        PinPadView.prewarm();
+        if (getConfig(context).isRejectWeakPins())
+            WeakPins.get(context);
+
+        //Fill the resource caches used when inflating the lock
+        Resources res = context.getResources();
+        res.getString(R.string.es_garce_simplelock_enter_pin);
+        res.getString(R.string.es_garce_simplelock_new_pin);
+        res.getString(R.string.es_garce_simplelock_checking_pin);
+        ContextCompat.getDrawable(context, R.drawable.ic_lock_outline_black_48dp);
+        ContextCompat.getDrawable(context, R.drawable.ic_done);
+        ContextCompat.getDrawable(context, R.drawable.ic_backspace_black_48dp);
+        XmlResourceParser layout = res.getLayout(R.layout.activity_lock);
+        layout.close();
+    }
+
+    /**
+     * Sets the listener that receives the timings and results of the lock. Nothing is measured
+     * while there is no listener.
+     * @param listener The listener, or null to stop reporting.
+     */
+    public static void setMetrics(@Nullable SimpleLockMetrics listener) {
+        metrics = listener;
+    }
 
-    protected static int maxLength = 4;
-    protected static int minLength = 1;
+    /**
+     * Sets the listener told when the owner process doesn't save the settings changed in this
+     * process, see {@link OnConfigErrorListener}.
+     * @param listener The listener, or null to stop reporting.
+     */
+    public static void setOnConfigErrorListener(@Nullable OnConfigErrorListener listener) {
+        configErrorListener = listener;
+    }
 
     /**
-     * Configure SimpleLock attributes. Usually run first time app is launched
+     * @return The listener set by {@link #setMetrics(SimpleLockMetrics)} or null.
+     */
+    @Nullable
+    static SimpleLockMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Starts recording every pin entered in a lock, with its key, time, outcome and latency, in
+     * an {@link AttemptLog} kept in the files folder of the application. It keeps the last
+     * {@link AttemptLog#DEFAULT_CAPACITY} attempts. The log is opened on a background thread,
+     * attempts are recorded once it is open. Later calls do nothing.
+     *
+     * <p>Call it in the process that shows the lock, only one process must enable it.</p>
+     * @param context Context to get the files folder.
+     */
+    public static void enableAttemptLog(Context context) {
+        if (!attemptLogStarted.compareAndSet(false, true))
+            return;
+        final File file = new File(context.getApplicationContext().getFilesDir(), attemptLogFile);
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    attemptLog = AttemptLog.open(file);
+                } catch (IOException e) {
+                    //Attempts are not recorded
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The log enabled by {@link #enableAttemptLog(Context)}, to read or query the
+     * attempts, or null if it is not enabled or not open yet. Don't read it on the main thread.
+     */
+    @Nullable
+    public static AttemptLog getAttemptLog() {
+        return attemptLog;
+    }
+
+    /**
+     * Configure SimpleLock attributes. Usually run first time app is launched. All the values are
+     * saved in a single preference transaction.
      * @param context Context to get {@link android.content.SharedPreferences} instance.
      * @param showPlaceholder True if SimpleLock should show small circles  with the pin length as
      *                        a length hint. You can hide to make lock more secure.
@@ -58,97 +254,508 @@ public class SimpleLock {
     public static void configure(Context context, boolean showPlaceholder, boolean showPreview,
                                  int minLength, int maxLength, boolean shuffleButtons)
                         throws SimpleLockConfigurationError {
+        setConfig(context, getConfig(context).buildUpon()
+                .setShowPlaceholder(showPlaceholder)
+                .setShowPreview(showPreview)
+                .setMinLength(minLength)
+                .setMaxLength(maxLength)
+                .setShuffleButtons(shuffleButtons)
+                .build());
+    }
 
-        if (minLength < 1)
-            throw new SimpleLockConfigurationError("minLength must be positive");
+    /**
+     * Saves all the values of a settings snapshot in a single preference transaction and publishes
+     * it to the {@link OnConfigChangeListener listeners}.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @param newConfig The settings to save.
+     */
+    public static void setConfig(Context context, LockConfig newConfig)
+            throws SimpleLockConfigurationError {
 
-        if (maxLength <  minLength)
-            throw new SimpleLockConfigurationError("maxLength must be bigger than minLength");
+        String error = validate(newConfig);
+        if (error != null)
+            throw new SimpleLockConfigurationError(error);
 
-        setShowPlaceholder(context, showPlaceholder);
-        setShowPreview(context, showPreview);
-        setMaxLength(context, maxLength);
-        setMinLength(context, minLength);
-        setShuffleButtons(context, shuffleButtons);
+        commit(context, newConfig);
     }
 
     /**
-     * You can check if SimpleLock has been configured previously to prevent overwrite settings
-     * every time you run your app.
-     * @param context Context to get {@link android.content.SharedPreferences} instance.
-     * @return  Returns true if the Lock has been init at least one time.
+     * @return The reason the settings are not valid, or null if they are.
      */
-    public static boolean isInit(Context context) {
-        if (context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .contains(maxInputPreference))
-            return true;
-
-        if (context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .contains(placeholderPreference))
-            return true;
+    static String validate(LockConfig newConfig) {
+        if (newConfig.getMinLength() < 1)
+            return "minLength must be positive";
+        if (newConfig.getMaxLength() <  newConfig.getMinLength())
+            return "maxLength must be bigger than minLength";
+        if (newConfig.getUnlockTimeout() < 0)
+            return "unlockTimeout can't be negative";
+        return null;
+    }
 
-        if (context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .contains(previewPreference))
-            return true;
+    /**
+     * Gets the current settings snapshot. It is resolved the first time this is called in the
+     * process, after that the cached snapshot is returned. Each setting takes the first of:
+     * <ol>
+     *     <li>The value set at runtime, saved in the preferences. Called on the main thread
+     *     before they are loaded, the declared settings are returned at once and the preferences
+     *     are loaded on a background thread, the snapshot with their values is then published to
+     *     the {@link OnConfigChangeListener listeners}. {@link #prewarm(Context)} loads them
+     *     before the lock is shown.</li>
+     *     <li>The {@code <meta-data>} of the {@code <application>} element of the manifest, named
+     *     {@code es.garce.simplelock.} followed by the setting, like
+     *     {@code es.garce.simplelock.maxLength}.</li>
+     *     <li>The {@code simplelock} attribute of the application theme, like
+     *     {@code simplelockMaxLength}.</li>
+     *     <li>The library default.</li>
+     * </ol>
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @return The current settings.
+     * @throws IllegalStateException If the settings declared in the manifest or theme are not
+     * valid.
+     */
+    public static LockConfig getConfig(Context context) {
+        LockConfig current = config;
+        if (current == null) {
+            synchronized (configLock) {
+                current = config;
+                if (current == null) {
+                    SimpleLockMetrics listener = metrics;
+                    long start = listener != null ? System.nanoTime() : 0;
+                    SimpleLockTrace.begin(SimpleLockTrace.LOAD_CONFIG);
+                    try {
+                        if (declared == null)
+                            declared = DeclaredConfig.load(context, defaults());
+                        if (SimpleLockRemote.isClient())
+                            current = loadRemote(context);
+                        if (current != null)
+                            overridesLoaded = true;
+                        else if (Looper.myLooper() == Looper.getMainLooper()) {
+                            //Don't wait for the preference file on the main thread
+                            current = declared;
+                            loadOverrides(context);
+                        }
+                        else
+                            current = loadLocal(context);
+                        config = current;
+                    } finally {
+                        SimpleLockTrace.end();
+                    }
+                    if (listener != null)
+                        listener.onConfigLoaded(System.nanoTime() - start);
+                }
+            }
+        }
+        return current;
+    }
 
-        if (context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .contains(minPreference))
-            return true;
+    /**
+     * Registers a listener that will receive every new settings snapshot, so a visible lock can
+     * apply them without being restarted. Remember to unregister it.
+     * @param listener The listener to add.
+     */
+    public static void registerOnConfigChangeListener(OnConfigChangeListener listener) {
+        configListeners.add(listener);
+    }
 
-        if (context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .contains(shufflePreference))
-            return true;
+    /**
+     * @param listener The listener to remove.
+     */
+    public static void unregisterOnConfigChangeListener(OnConfigChangeListener listener) {
+        configListeners.remove(listener);
+    }
 
-        return false;
+    /**
+     * You can check if SimpleLock has been configured previously to prevent overwrite settings
+     * every time you run your app.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @return  Returns true if the Lock has been init at least one time, or its settings are
+     * declared in the manifest or theme. It waits for the preferences if they are not loaded yet.
+     */
+    public static boolean isInit(Context context) {
+        return getLoadedConfig(context).isInit();
     }
 
     public static boolean isShuffleButtons(Context context) {
-        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getBoolean(shufflePreference, shuffleButtons);
+        return getConfig(context).isShuffleButtons();
     }
 
     public static void setShuffleButtons(Context context, boolean shuffleButtons) {
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putBoolean(shufflePreference, shuffleButtons).apply();
+        commit(context, getConfig(context).buildUpon().setShuffleButtons(shuffleButtons).build());
     }
 
     public static boolean isShowPlaceholder(Context context) {
-        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getBoolean(placeholderPreference, showPlaceholder);
+        return getConfig(context).isShowPlaceholder();
     }
 
     public static void setShowPlaceholder(Context context, boolean showPlaceholder) {
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putBoolean(placeholderPreference, showPlaceholder).apply();
+        commit(context, getConfig(context).buildUpon().setShowPlaceholder(showPlaceholder).build());
     }
 
     public static boolean isShowPreview(Context context) {
-        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getBoolean(previewPreference, showPreview);
+        return getConfig(context).isShowPreview();
     }
 
     public static void setShowPreview(Context context, boolean showPreview) {
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putBoolean(previewPreference, showPreview).apply();
+        commit(context, getConfig(context).buildUpon().setShowPreview(showPreview).build());
     }
 
     public static int getMinLength(Context context) {
-        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getInt(minPreference, minLength);
+        return getConfig(context).getMinLength();
     }
 
     public static void setMinLength(Context context, int minLength) {
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putInt(minPreference, minLength).apply();
+        commit(context, getConfig(context).buildUpon().setMinLength(minLength).build());
     }
 
     public static void setMaxLength(Context context, int maxLength) {
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putInt(maxInputPreference, maxLength).apply();
+        commit(context, getConfig(context).buildUpon().setMaxLength(maxLength).build());
     }
 
     public static int getMaxLength(Context context) {
-        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getInt(maxInputPreference, maxLength);
+        return getConfig(context).getMaxLength();
+    }
+
+    public static boolean isVerifyAsync(Context context) {
+        return getConfig(context).isVerifyAsync();
+    }
+
+    /**
+     * Enables the asynchronous pin check of the application. When enabled
+     * {@link OnEnterPin#onEnterPin(String)} is called on a background thread. Pins of a key,
+     * checked by Simple Lock, are always checked on a background thread.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @param verifyAsync True to check pins off the main thread.
+     */
+    public static void setVerifyAsync(Context context, boolean verifyAsync) {
+        commit(context, getConfig(context).buildUpon().setVerifyAsync(verifyAsync).build());
+    }
+
+    public static long getUnlockTimeout(Context context) {
+        return getConfig(context).getUnlockTimeout();
+    }
+
+    /**
+     * Keeps a key unlocked for a while after its pin is entered. Until it expires, the screen is
+     * turned off or the application goes to the background, requests for the key call
+     * {@link OnEnterPin#onCorrectPin(SimpleLockActivity)} at once, with a null activity, without
+     * showing the lock.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @param millis Milliseconds a key stays unlocked, 0 to always ask for the pin.
+     */
+    public static void setUnlockTimeout(Context context, long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("unlockTimeout can't be negative");
+        commit(context, getConfig(context).buildUpon().setUnlockTimeout(millis).build());
+    }
+
+    public static boolean isAutoSubmit(Context context) {
+        return getConfig(context).isAutoSubmit();
+    }
+
+    /**
+     * Submits the pin as soon as it has the length of the saved pin, without the done button. Only
+     * for locks checking a key, and pins saved by this version or later.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @param autoSubmit True to submit without the done button.
+     */
+    public static void setAutoSubmit(Context context, boolean autoSubmit) {
+        commit(context, getConfig(context).buildUpon().setAutoSubmit(autoSubmit).build());
+    }
+
+    public static boolean isRejectWeakPins(Context context) {
+        return getConfig(context).isRejectWeakPins();
+    }
+
+    /**
+     * Makes the new pin lock refuse pins that are too easy to guess: sequences, repeats, dates
+     * and common leaked pins. It is checked on every digit, so the user is told while typing.
+     * @param context Context to get {@link android.content.SharedPreferences} instance.
+     * @param rejectWeakPins True to refuse weak pins.
+     */
+    public static void setRejectWeakPins(Context context, boolean rejectWeakPins) {
+        commit(context, getConfig(context).buildUpon().setRejectWeakPins(rejectWeakPins).build());
+    }
+
+    /**
+     * Tells if a key is unlocked, see {@link #setUnlockTimeout(Context, long)}. It doesn't block
+     * and is cheap enough to call in every {@link android.app.Activity#onResume()}.
+     * @param key The key of the pin.
+     * @return True if the pin of the key was entered and the unlock didn't expire yet.
+     */
+    public static boolean isUnlocked(String key) {
+        return UnlockSession.isUnlocked(key);
+    }
+
+    /**
+     * Ends the unlock of a key, the next request asks for the pin again.
+     * @param key The key of the pin.
+     */
+    public static void lock(String key) {
+        UnlockSession.lock(key);
+    }
+
+    /**
+     * Ends the unlock of every key.
+     */
+    public static void lockAll() {
+        UnlockSession.lockAll();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(basePreference, Context.MODE_PRIVATE);
+    }
+
+    static LockConfig defaults() {
+        return new LockConfig.Builder()
+                .setShowPlaceholder(showPlaceholder)
+                .setShowPreview(showPreview)
+                .setShuffleButtons(shuffleButtons)
+                .setMinLength(minLength)
+                .setMaxLength(maxLength)
+                .setVerifyAsync(verifyAsync)
+                .setUnlockTimeout(unlockTimeout)
+                .setAutoSubmit(autoSubmit)
+                .setRejectWeakPins(rejectWeakPins)
+                .build();
+    }
+
+    /**
+     * Loads the values set at runtime on a background thread and publishes them.
+     */
+    private static void loadOverrides(Context context) {
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getLoadedConfig(appContext);
+            }
+        });
+    }
+
+    /**
+     * Loads the values set at runtime on the calling thread if they are not loaded yet.
+     * @return The current settings with the values set at runtime.
+     */
+    private static LockConfig getLoadedConfig(Context context) {
+        getConfig(context);
+        LockConfig loaded;
+        synchronized (configLock) {
+            if (overridesLoaded)
+                return config;
+            loaded = loadLocal(context);
+            if (loaded.equals(config))
+                return config;
+            config = loaded;
+        }
+        notifyConfigChanged(loaded);
+        return loaded;
+    }
+
+    /**
+     * @return The declared settings with the values set at runtime. Must hold configLock.
+     */
+    private static LockConfig loadLocal(Context context) {
+        overridesLoaded = true;
+        SharedPreferences prefs = getPreferences(context);
+        watchPreferences(prefs);
+        //Nothing was ever set at runtime
+        if (!isSet(prefs))
+            return declared;
+        return load(prefs);
+    }
+
+    /**
+     * @return True if a setting was ever set at runtime. Previous versions didn't save the init
+     * key, only the settings.
+     */
+    private static boolean isSet(SharedPreferences prefs) {
+        return prefs.contains(initPreference)
+                || prefs.contains(maxInputPreference)
+                || prefs.contains(placeholderPreference)
+                || prefs.contains(previewPreference)
+                || prefs.contains(minPreference)
+                || prefs.contains(shufflePreference);
+    }
+
+    /**
+     * Must hold configLock.
+     */
+    private static void watchPreferences(SharedPreferences prefs) {
+        if (watchingPreferences)
+            return;
+        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+        watchingPreferences = true;
+    }
+
+    /**
+     * @return The declared settings with the values of the preferences that were set.
+     */
+    private static LockConfig load(SharedPreferences prefs) {
+        LockConfig base = declared;
+        return new LockConfig.Builder()
+                .setShowPlaceholder(prefs.getBoolean(placeholderPreference, base.isShowPlaceholder()))
+                .setShowPreview(prefs.getBoolean(previewPreference, base.isShowPreview()))
+                .setShuffleButtons(prefs.getBoolean(shufflePreference, base.isShuffleButtons()))
+                .setMinLength(prefs.getInt(minPreference, base.getMinLength()))
+                .setMaxLength(prefs.getInt(maxInputPreference, base.getMaxLength()))
+                .setVerifyAsync(prefs.getBoolean(asyncPreference, base.isVerifyAsync()))
+                .setUnlockTimeout(prefs.getLong(unlockTimeoutPreference, base.getUnlockTimeout()))
+                .setAutoSubmit(prefs.getBoolean(autoSubmitPreference, base.isAutoSubmit()))
+                .setRejectWeakPins(prefs.getBoolean(rejectWeakPinsPreference,
+                        base.isRejectWeakPins()))
+                .setInit(base.isInit() || isSet(prefs))
+                .build();
+    }
+
+    /**
+     * Loads the settings of the owner process and watches them.
+     * @return The settings or null if the owner process can't be reached, the local preferences
+     * are used then.
+     */
+    private static LockConfig loadRemote(Context context) {
+        final Context appContext = context.getApplicationContext();
+        LockConfig loaded;
+        try {
+            loaded = SimpleLockRemote.getConfig(appContext);
+        } catch (IOException e) {
+            return null;
+        }
+        appContext.getContentResolver().registerContentObserver(
+                SimpleLockProvider.getConfigUri(appContext), false,
+                new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                reloadRemote(appContext);
+            }
+        });
+        return loaded;
+    }
+
+    private static void reloadRemote(final Context context) {
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                LockConfig loaded;
+                try {
+                    loaded = SimpleLockRemote.getConfig(context);
+                } catch (IOException e) {
+                    return;
+                }
+                synchronized (configLock) {
+                    if (loaded.equals(config))
+                        return;
+                    config = loaded;
+                }
+                notifyConfigChanged(loaded);
+            }
+        });
+    }
+
+    /**
+     * Writes every value in one transaction and publishes the snapshot. The snapshot is
+     * published before the disk write finishes so readers see the new values at once. Client
+     * processes send it to the owner process instead, see {@link #commitRemote}.
+     */
+    private static void commit(Context context, LockConfig newConfig) {
+        newConfig = newConfig.buildUpon().setInit(true).build();
+        if (SimpleLockRemote.isClient()) {
+            commitRemote(context, newConfig);
+            return;
+        }
+        //Only the values that changed are written, compare with the ones set at runtime
+        getLoadedConfig(context);
+        synchronized (configLock) {
+            LockConfig previous = config;
+            config = newConfig;
+            writePreferences(context, previous, newConfig);
+        }
+        notifyConfigChanged(newConfig);
+    }
+
+    /**
+     * Saves the values that changed, the others keep coming from where they came, so values
+     * declared at build time can still be changed by a new build until they are set at runtime.
+     */
+    private static void writePreferences(Context context, LockConfig previous,
+                                         LockConfig newConfig) {
+        SharedPreferences prefs = getPreferences(context);
+        synchronized (configLock) {
+            watchPreferences(prefs);
+        }
+        SharedPreferences.Editor editor = prefs.edit().putBoolean(initPreference, true);
+        if (newConfig.isShowPlaceholder() != previous.isShowPlaceholder())
+            editor.putBoolean(placeholderPreference, newConfig.isShowPlaceholder());
+        if (newConfig.isShowPreview() != previous.isShowPreview())
+            editor.putBoolean(previewPreference, newConfig.isShowPreview());
+        if (newConfig.isShuffleButtons() != previous.isShuffleButtons())
+            editor.putBoolean(shufflePreference, newConfig.isShuffleButtons());
+        if (newConfig.getMinLength() != previous.getMinLength())
+            editor.putInt(minPreference, newConfig.getMinLength());
+        if (newConfig.getMaxLength() != previous.getMaxLength())
+            editor.putInt(maxInputPreference, newConfig.getMaxLength());
+        if (newConfig.isVerifyAsync() != previous.isVerifyAsync())
+            editor.putBoolean(asyncPreference, newConfig.isVerifyAsync());
+        if (newConfig.getUnlockTimeout() != previous.getUnlockTimeout())
+            editor.putLong(unlockTimeoutPreference, newConfig.getUnlockTimeout());
+        if (newConfig.isAutoSubmit() != previous.isAutoSubmit())
+            editor.putBoolean(autoSubmitPreference, newConfig.isAutoSubmit());
+        if (newConfig.isRejectWeakPins() != previous.isRejectWeakPins())
+            editor.putBoolean(rejectWeakPinsPreference, newConfig.isRejectWeakPins());
+        editor.apply();
+    }
+
+    /**
+     * Publishes the snapshot at once and sends it to the owner process, the only one writing the
+     * preferences. If the owner doesn't save it the settings of the owner, or the previous ones if
+     * it can't be reached, are published again and the error is reported.
+     */
+    private static void commitRemote(Context context, final LockConfig newConfig) {
+        final Context appContext = context.getApplicationContext();
+        final LockConfig previous;
+        synchronized (configLock) {
+            if (config == null)
+                getConfig(appContext);
+            previous = config;
+            config = newConfig;
+        }
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //The resolver starts the owner process again if it is gone
+                    SimpleLockRemote.setConfig(appContext, newConfig);
+                } catch (IOException e) {
+                    restore(appContext, previous, newConfig);
+                    OnConfigErrorListener listener = configErrorListener;
+                    if (listener != null)
+                        listener.onConfigError(newConfig, e);
+                }
+            }
+        });
+        notifyConfigChanged(newConfig);
+    }
+
+    /**
+     * Replaces a snapshot the owner process didn't save, unless a newer one replaced it already.
+     */
+    private static void restore(Context context, LockConfig previous, LockConfig rejected) {
+        LockConfig restored;
+        try {
+            restored = SimpleLockRemote.getConfig(context);
+        } catch (IOException e) {
+            restored = previous;
+        }
+        synchronized (configLock) {
+            if (config != rejected)
+                return;
+            config = restored;
+        }
+        notifyConfigChanged(restored);
+    }
+
+    private static void notifyConfigChanged(LockConfig newConfig) {
+        for (OnConfigChangeListener listener : configListeners)
+            listener.onConfigChanged(newConfig);
     }
 }
@@ -5,120 +5,178 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
-import android.view.View;
-import android.widget.Button;
-import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.TextView;
-import android.widget.Toast;
-
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  * <p>This Activity is used to display a pin pad where user must enter a pin code in order to continue.<br>
  * You must call {@linkplain SimpleLockActivity#requestPin(Context, OnEnterPin, String)} to launch an instance
  * of this activity. A listener must be provided to receive lock callbacks.</p>
  *
+ * <p>To get the result even if the caller is recreated or the process dies while the lock is
+ * shown, register the listener with {@link #registerListener(Activity, String, OnEnterPin)} every
+ * time the caller is created and launch the lock with
+ * {@link #requestPinForResult(Context, String, String)}. Results produced while the caller is not
+ * registered are delivered, with a null activity, as soon as it registers again. The lock finishes
+ * by itself after a correct pin or back in that case.</p>
+ *
+ * <p>To lock without launching an activity see {@link SimpleLockOverlay}.</p>
+ *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
-public class SimpleLockActivity extends Activity implements View.OnClickListener {
+public class SimpleLockActivity extends Activity {
 
     private static final String KEY_KEY = "KEY_KEY";
+    private static final String KEY_TAG = "KEY_TAG";
+
+    private static final LockResults.Delivery<OnEnterPin> CORRECT =
+            new LockResults.Delivery<OnEnterPin>() {
+        @Override
+        public void deliver(OnEnterPin listener) {
+            listener.onCorrectPin(null);
+        }
+    };
+
+    private static final LockResults.Delivery<OnEnterPin> BACK =
+            new LockResults.Delivery<OnEnterPin>() {
+        @Override
+        public void deliver(OnEnterPin listener) {
+            listener.onBack(null);
+        }
+    };
+
+    private EnterPinController controller;
+    private String tag;
+
+    //Looks up the listener of the request on every callback, it may be registered again meanwhile
+    private final OnEnterPin dispatcher = new OnEnterPin() {
+        @Override
+        public boolean onEnterPin(String pinCode) {
+            OnEnterPin listener = LockResults.enterPin.get(tag);
+            return listener != null && listener.onEnterPin(pinCode);
+        }
+
+        @Override
+        public void onCorrectPin(@Nullable SimpleLockActivity simpleLockActivity) {
+            OnEnterPin listener = LockResults.enterPin.get(tag);
+            if (listener != null)
+                listener.onCorrectPin(simpleLockActivity);
+            else {
+                LockResults.enterPin.keep(tag, CORRECT);
+                finish();
+            }
+        }
+
+        @Override
+        public void onWrongPin(@Nullable SimpleLockActivity simpleLockActivity) {
+            OnEnterPin listener = LockResults.enterPin.get(tag);
+            if (listener != null)
+                listener.onWrongPin(simpleLockActivity);
+        }
 
-    private TextView tvDesc;
+        @Override
+        public void onBack(@Nullable SimpleLockActivity simpleLockActivity) {
+            OnEnterPin listener = LockResults.enterPin.get(tag);
+            if (listener != null)
+                listener.onBack(simpleLockActivity);
+            else {
+                LockResults.enterPin.keep(tag, BACK);
+                finish();
+            }
+        }
+    };
+
+    private final AsyncDispatcher asyncDispatcher = new AsyncDispatcher();
+
+    /**
+     * Used when the listener checks pins asynchronously, so the controller delegates the check.
+     */
+    private class AsyncDispatcher implements OnEnterPin, OnEnterPinAsync {
+        @Override
+        public void onEnterPinAsync(String pinCode, Result result) {
+            OnEnterPin listener = LockResults.enterPin.get(tag);
+            if (listener instanceof OnEnterPinAsync)
+                ((OnEnterPinAsync) listener).onEnterPinAsync(pinCode, result);
+            else
+                result.deliver(onEnterPin(pinCode));
+        }
 
-    private LinearLayout layoutPin;
-    private ImageView placeholder[];
-    private int indexCircles = 0;
+        @Override
+        public boolean onEnterPin(String pinCode) {
+            return dispatcher.onEnterPin(pinCode);
+        }
 
-    private Button btnNumber[] = new Button[SimpleLock.BUTTON_IDS.length];
-    private ImageView btnDel;
-    private ImageView btnOk;
+        @Override
+        public void onCorrectPin(@Nullable SimpleLockActivity simpleLockActivity) {
+            dispatcher.onCorrectPin(simpleLockActivity);
+        }
 
-    private static OnEnterPin mListener = null;
-    private String pinCode = "";
+        @Override
+        public void onWrongPin(@Nullable SimpleLockActivity simpleLockActivity) {
+            dispatcher.onWrongPin(simpleLockActivity);
+        }
 
-    //Preference
-    private String key = null;
-    private boolean showPreview = SimpleLock.showPreview;
-    private static boolean showPlaceholder = SimpleLock.showPlaceholder;
-    private static boolean shuffleButtons = SimpleLock.shuffleButtons;
-    private static int maxLength = SimpleLock.maxLength;
-    private static int minLength = SimpleLock.minLength;
+        @Override
+        public void onBack(@Nullable SimpleLockActivity simpleLockActivity) {
+            dispatcher.onBack(simpleLockActivity);
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        long createStart = metrics != null ? System.nanoTime() : 0;
+        SimpleLockTrace.begin(SimpleLockTrace.ON_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_lock);
 
-        //Load preference
-        showPreview = SimpleLock.isShowPreview(this);
-        showPlaceholder = SimpleLock.isShowPlaceholder(this);
-        shuffleButtons = SimpleLock.isShuffleButtons(this);
-        maxLength = SimpleLock.getMaxLength(this);
-        minLength = SimpleLock.getMinLength(this);
-
-        if (getIntent().getExtras() != null)
+        String key = null;
+        if (getIntent().getExtras() != null) {
             key = getIntent().getExtras().getString(KEY_KEY);
-
-        //Set description
-        tvDesc = (TextView) findViewById(R.id.es_garce_simplelock_description);
-        tvDesc.setText(getResources().getString(R.string.es_garce_simplelock_enter_pin));
-
-        //Layout that will contain circles
-        layoutPin = (LinearLayout) findViewById(R.id.es_garce_simplelock_layout_pin);
-        //If show placeholder circles create and add them to layout
-        if (showPlaceholder) {
-            placeholder = new ImageView[maxLength];
-            for (int i = 0; i < placeholder.length; i++) {
-                placeholder[i] = new ImageView(this);
-                //noinspection deprecation
-                placeholder[i].setImageDrawable(getResources().getDrawable(R.drawable.lock_circle_small));
-                layoutPin.addView(placeholder[i]);
-            }
+            tag = getIntent().getExtras().getString(KEY_TAG);
+        }
+        if (tag == null) {
+            //Started by an intent of its own, nobody waits for the results. Kept across
+            //configuration changes
+            tag = LockResults.enterPin.newOneShotTag();
+            getIntent().putExtra(KEY_TAG, tag);
         }
 
-        //Load buttons and set listeners
-        for (int i = 0; i < btnNumber.length; i++) {
-            btnNumber[i] = (Button) findViewById(SimpleLock.BUTTON_IDS[i]);
-            btnNumber[i].setOnClickListener(this);
+        OnEnterPin listener = LockResults.enterPin.get(tag) instanceof OnEnterPinAsync
+                ? asyncDispatcher : dispatcher;
+        controller = (EnterPinController) getLastNonConfigurationInstance();
+        if (controller != null) {
+            //Recreated by a configuration change, only the views are new
+            controller.attach(this, this, listener);
+            controller.rebind(findViewById(android.R.id.content));
         }
-        btnDel = (ImageView) findViewById(R.id.es_garce_simplelock_btn_del);
-        btnDel.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                clickDel();
-            }
-        });
-        btnDel.setOnLongClickListener(new View.OnLongClickListener() {
-            @Override
-            public boolean onLongClick(View v) {
-                clickLongDel();
-                return true;
-            }
-        });
-        btnOk = (ImageView) findViewById(R.id.es_garce_simplelock_btn_ok);
-        btnOk.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                clickOk();
-            }
-        });
-        btnOk.setEnabled(false);
+        else {
+            controller = new EnterPinController(this, this);
+            controller.bind(findViewById(android.R.id.content));
+            controller.start(listener, key);
+        }
+        SimpleLockTrace.end();
+        SimpleLockTrace.reportFirstFrame(metrics, this, SimpleLockMetrics.SCREEN_ENTER_PIN,
+                createStart);
+    }
 
-        //If shuffle enabled then reorder buttons
-        if (shuffleButtons)
-            shuffleButtons(btnNumber);
+
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return controller;
     }
 
+    @Override
+    protected void onDestroy() {
+        //Drop the result of any check still running, unless the lock continues in a new activity
+        if (!isChangingConfigurations())
+            controller.stop();
+        if (isFinishing())
+            LockResults.enterPin.finish(tag);
+        super.onDestroy();
+    }
 
     @Override
     public void onBackPressed() {
-        if (mListener != null)
-            mListener.onBack(this);
+        dispatcher.onBack(this);
     }
 
     /**
@@ -127,135 +185,66 @@ public class SimpleLockActivity extends Activity implements View.OnClickListener
      * @param listener Listener that will receive the lock callbacks.
      * @param key The key of the pin the lock must check. If null the pin check will be done by the
      *            invoker that will receive the input through {@linkplain OnEnterPin#onEnterPin(String)}
+     *            If the key is {@link SimpleLock#isUnlocked(String) unlocked} the lock is not shown
+     *            and {@linkplain OnEnterPin#onCorrectPin(SimpleLockActivity)} is called at once
+     *            with a null activity.
      */
     public static void requestPin(Context context, OnEnterPin listener, @Nullable String key) {
-        Intent intent = new Intent(context, SimpleLockActivity.class);
-        if (key != null)
-            intent.putExtra(KEY_KEY, key);
-        mListener = listener;
-        context.startActivity(intent);
-    }
-
-    @Override
-    public void onClick(View v) {
-        if (pinCode.length() != maxLength) {
-
-            //Show preview
-            if (showPreview)
-                addCircle();
-
-            //Update pin
-            Button btn = (Button) v;
-            pinCode += btn.getText();
-
-            //Enable OK button
-            if (pinCode.length() == minLength)
-                btnOk.setEnabled(true);
+        if (key != null && UnlockSession.isUnlocked(key)) {
+            listener.onCorrectPin(null);
+            return;
         }
+        start(context, LockResults.enterPin.registerOneShot(context, listener), key);
     }
 
     /**
-     * Sets text of the lock activity.
-     * @param description Text to show.
+     * Registers the listener of the locks launched with a tag. Call it every time the owner is
+     * created, usually in {@link Activity#onCreate(Bundle) onCreate}, so results of a lock shown
+     * while the owner was recreated or the process restarted are delivered. The listener is
+     * unregistered when the owner is destroyed. Must be called on the main thread.
+     * @param owner The activity the listener belongs to.
+     * @param tag Identifies the requests of the listener, stable across recreations.
+     * @param listener Listener that will receive the lock callbacks.
      */
-    public void setDescription (String description) {
-        tvDesc.setText(description);
-    }
-
-    private void clickOk() {
-        //Simple Lock must manage the pin check
-        if (key != null) {
-            try {
-                if (SimpleLockPin.checkPin(this, key, pinCode))
-                    mListener.onCorrectPin(this);
-                else
-                    mListener.onWrongPin(this);
-            } catch (NoSuchAlgorithmException e) {
-                Toast.makeText(this, getResources().getString(
-                        R.string.es_garce_simplelock_save_error), Toast.LENGTH_SHORT).show();
-            }
-        }
-        else {
-            //The check is managed by the application
-            if (mListener.onEnterPin(pinCode))
-                mListener.onCorrectPin(this);
-            else
-                mListener.onWrongPin(this);
-        }
-        pinCode = "";
-        resetCircles();
-        btnOk.setEnabled(false);
-    }
-
-    private void clickDel() {
-        if (pinCode.length() > 0) {
-            //Preview
-            if (showPreview && indexCircles > 0)
-                removeCircle();
-
-            //Update pin
-            pinCode = pinCode.substring(0, pinCode.length() - 1);
-
-            //Disable OK button
-            if (pinCode.length() < minLength)
-                btnOk.setEnabled(false);
-        }
+    public static void registerListener(Activity owner, String tag, OnEnterPin listener) {
+        LockResults.enterPin.register(owner, owner, tag, listener);
     }
 
-    private void clickLongDel() {
-        if (pinCode.length() > 0) {
-            //Preview
-            if (showPreview)
-                resetCircles();
-
-            //Update pin
-            pinCode = "";
-
-            //Disable OK button
-            btnOk.setEnabled(false);
+    /**
+     * Launches a LockActivity whose callbacks go to the listener registered with
+     * {@link #registerListener(Activity, String, OnEnterPin)} for the tag.
+     * @param context Context to create the intent.
+     * @param tag The tag of the listener.
+     * @param key The key of the pin the lock must check. If null the pin check will be done by the
+     *            listener. If the key is {@link SimpleLock#isUnlocked(String) unlocked} the lock is
+     *            not shown and the result is delivered at once.
+     */
+    public static void requestPinForResult(Context context, String tag, @Nullable String key) {
+        OnEnterPin listener = LockResults.enterPin.get(tag);
+        if (key != null && listener != null && UnlockSession.isUnlocked(key)) {
+            listener.onCorrectPin(null);
+            return;
         }
+        start(context, tag, key);
     }
 
-    @SuppressWarnings("deprecation")
-    private void addCircle () {
-        //Hide placeholder circle
-        if (showPlaceholder)
-            placeholder[indexCircles].setVisibility(View.GONE);
-
-        ImageView img = new ImageView(this);
-        img.setImageDrawable(getResources().getDrawable(R.drawable.lock_circle));
-        layoutPin.addView(img, indexCircles);
-        indexCircles++;
-    }
-
-    private void removeCircle () {
-        //Remove view
-        if (indexCircles > 0) {
-            layoutPin.removeViewAt(--indexCircles);
-            //Hide placeholder circle
-            if (showPlaceholder)
-                placeholder[indexCircles].setVisibility(View.VISIBLE);
-        }
+    private static void start(Context context, String tag, @Nullable String key) {
+        context.startActivity(newIntent(context, tag, key));
     }
 
-    private void resetCircles () {
-        layoutPin.removeViews(0, indexCircles);
-        if (showPlaceholder)
-            for (int i = 0; i < indexCircles; i++) {
-                placeholder[i].setVisibility(View.VISIBLE);
-            }
-        indexCircles = 0;
+    static Intent newIntent(Context context, String tag, @Nullable String key) {
+        Intent intent = new Intent(context, SimpleLockActivity.class);
+        intent.putExtra(KEY_TAG, tag);
+        if (key != null)
+            intent.putExtra(KEY_KEY, key);
+        return intent;
     }
 
-    protected void shuffleButtons (Button buttons[]){
-        List<Button> copy = new ArrayList<>(Arrays.asList(buttons));
-        int i = 0;
-        while (!copy.isEmpty()) {
-            int rnd = (int) (Math.random()*copy.size());
-            copy.get(rnd).setText(String.valueOf(i));
-            copy.remove(rnd);
-            i++;
-        }
-
+    /**
+     * Sets text of the lock activity.
+     * @param description Text to show.
+     */
+    public void setDescription (String description) {
+        controller.setDescription(description);
     }
 }
@@ -0,0 +1,76 @@
+package es.garce.simplelock;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Threads used by Simple Lock to keep slow work (hashing, disk access, application checks) out
+ * of the main thread. Work runs on a small pool of background priority threads and results are
+ * posted back to the main thread.</p>
+ */
+final class SimpleLockExecutor {
+
+    private static final int THREADS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static final ExecutorService executor = newBackgroundPool("SimpleLock", THREADS);
+
+    private static class MainHandlerHolder {
+        static final Handler handler = new Handler(Looper.getMainLooper());
+    }
+
+    private SimpleLockExecutor() {
+    }
+
+    /**
+     * Creates a pool of background priority daemon threads for long running library work, so it
+     * does not delay the tasks of the shared executor.
+     * @param name Prefix of the thread names.
+     * @param threads Number of threads.
+     */
+    static ExecutorService newBackgroundPool(String name, int threads) {
+        return Executors.newFixedThreadPool(threads, new BackgroundThreadFactory(name));
+    }
+
+    /**
+     * Runs a task on a Simple Lock background thread.
+     */
+    static void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Runs a task on the main thread.
+     */
+    static void postToMain(Runnable task) {
+        MainHandlerHolder.handler.post(task);
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        BackgroundThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package es.garce.simplelock;
+
+/**
+ * <p>Receives timings and results of the lock so they can be reported by the application, set it
+ * with {@link SimpleLock#setMetrics(SimpleLockMetrics)}. Events only carry primitives and the
+ * keys already held by the lock so reporting them doesn't allocate, and nothing is measured while
+ * no listener is set.</p>
+ *
+ * <p>Methods are called on the thread doing the work, which is not always the main thread, and
+ * must return quickly. Times are in nanoseconds.</p>
+ *
+ * <p>The same phases are marked as {@code SimpleLock.*} sections in systrace and Perfetto
+ * captures on Android 4.3 and newer.</p>
+ */
+public interface SimpleLockMetrics {
+
+    /**
+     * The lock asking for a pin, {@link SimpleLockActivity}.
+     */
+    int SCREEN_ENTER_PIN = 0;
+    /**
+     * The lock asking for a new pin, {@link SimpleLockNewActivity}.
+     */
+    int SCREEN_NEW_PIN = 1;
+
+    /**
+     * A lock activity drew its first frame.
+     * @param screen {@link #SCREEN_ENTER_PIN} or {@link #SCREEN_NEW_PIN}.
+     * @param createNanos Time spent in {@code onCreate}.
+     * @param firstFrameNanos Time from the start of {@code onCreate} to the first frame.
+     */
+    void onLockShown(int screen, long createNanos, long firstFrameNanos);
+
+    /**
+     * The settings were read from the preferences, once per process.
+     * @param loadNanos Time spent loading them.
+     */
+    void onConfigLoaded(long loadNanos);
+
+    /**
+     * A pin managed by Simple Lock was checked.
+     * @param key The key of the pin.
+     * @param correct True if the pin was correct.
+     * @param hashNanos Time spent reading and hashing the pin.
+     */
+    void onPinChecked(String key, boolean correct, long hashNanos);
+
+    /**
+     * A pin was saved by Simple Lock.
+     * @param key The key of the pin.
+     * @param hashNanos Time spent hashing and saving the pin.
+     */
+    void onPinSaved(String key, long hashNanos);
+
+    /**
+     * The result of a pin entered in a lock was given to its listener.
+     * @param correct True if the pin was correct.
+     * @param tapNanos Time from the tap on done to the result, including any background check.
+     */
+    void onVerdict(boolean correct, long tapNanos);
+}
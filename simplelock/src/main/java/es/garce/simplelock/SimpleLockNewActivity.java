@@ -5,14 +5,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
-import android.view.View;
-import android.widget.Button;
-import android.widget.ImageView;
-import android.widget.LinearLayout;
-import android.widget.TextView;
-import android.widget.Toast;
-
-import java.security.NoSuchAlgorithmException;
 
 /**
  * <p>This Activity is used to display a pin pad where user can enter a pin code to save this and
@@ -20,9 +12,18 @@ import java.security.NoSuchAlgorithmException;
  * You must call {@linkplain SimpleLockNewActivity#newPin(Context, OnNewPin, int, String)} to launch an instance
  * of this activity. A listener must be provided to receive Simple Lock callbacks.</p>
  *
+ * <p>To get the result even if the caller is recreated or the process dies while the lock is
+ * shown, register the listener with {@link #registerListener(Activity, String, OnNewPin)} every
+ * time the caller is created and launch the lock with
+ * {@link #newPinForResult(Context, String, int, String)}. Results produced while the caller is not
+ * registered are delivered, with a null activity, as soon as it registers again. In that case the
+ * pin is saved if there is a key and the lock finishes by itself.</p>
+ *
+ * <p>To ask for a new pin without launching an activity see {@link SimpleLockOverlay}.</p>
+ *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
-public class SimpleLockNewActivity extends Activity implements View.OnClickListener {
+public class SimpleLockNewActivity extends Activity {
 
     /**
      * This error code indicates that the New Pin Activity was canceled.
@@ -32,80 +33,86 @@ public class SimpleLockNewActivity extends Activity implements View.OnClickListe
      * This error code indicates that Simple Lock tried to save the pin but there wasn't a valid key
      */
     public static final int NO_KEY = 1;
+    /**
+     * This error code indicates that the lock was closed while Simple Lock was saving the pin and
+     * it couldn't be saved.
+     */
+    public static final int SAVE_ERROR = 2;
 
     private static final String KEY_KEY = "KEY_KEY";
     private static final String KEY_REPEAT = "KEY_REPEAT";
+    private static final String KEY_TAG = "KEY_TAG";
 
-    private TextView tvDesc;
+    private NewPinController controller;
+    private String tag;
 
-    private LinearLayout layoutPin;
-    private int indexCircles = 0;
-
-    private Button btnNumber[] = new Button[SimpleLock.BUTTON_IDS.length];
-    private ImageView btnDel;
-    private ImageView btnOk;
-
-    private static OnNewPin mListener = null;
-    private String pinCode = "";
+    //Looks up the listener of the request on every callback, it may be registered again meanwhile
+    private final OnNewPin dispatcher = new OnNewPin() {
+        @Override
+        public boolean onDone(@Nullable SimpleLockNewActivity simpleLockActivity, String pin) {
+            OnNewPin listener = LockResults.newPin.get(tag);
+            return listener == null || listener.onDone(simpleLockActivity, pin);
+        }
 
-    //Settings
-    private String key = null;
-    private int repeat = 1;
-    private int localRepeat = 0;
-    private String firstPin = null;
+        @Override
+        public void onError(@Nullable SimpleLockNewActivity simpleLockActivity, int code) {
+            OnNewPin listener = LockResults.newPin.get(tag);
+            if (listener != null)
+                listener.onError(simpleLockActivity, code);
+            else {
+                LockResults.newPin.keep(tag, error(code));
+                finish();
+            }
+        }
 
-    //Preference
-    private static int maxLength;
-    private static int minLength;
+        @Override
+        public void onSaved(@Nullable SimpleLockNewActivity simpleLockActivity, String pin) {
+            OnNewPin listener = LockResults.newPin.get(tag);
+            if (listener != null)
+                listener.onSaved(simpleLockActivity, pin);
+            else {
+                LockResults.newPin.keep(tag, saved(pin));
+                finish();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        long createStart = metrics != null ? System.nanoTime() : 0;
+        SimpleLockTrace.begin(SimpleLockTrace.ON_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_lock);
 
+        int repeat = -1;
+        String key = null;
         if (getIntent().getExtras() != null) {
             repeat = getIntent().getExtras().getInt(KEY_REPEAT, repeat);
             key = getIntent().getExtras().getString(KEY_KEY);
+            tag = getIntent().getExtras().getString(KEY_TAG);
+        }
+        if (tag == null) {
+            //Started by an intent of its own, nobody waits for the results. Kept across
+            //configuration changes
+            tag = LockResults.newPin.newOneShotTag();
+            getIntent().putExtra(KEY_TAG, tag);
         }
 
-        //Load preference
-        maxLength = SimpleLock.getMaxLength(this);
-        minLength = SimpleLock.getMinLength(this);
-
-        //Set description
-        tvDesc = (TextView) findViewById(R.id.es_garce_simplelock_description);
-        tvDesc.setText(getResources().getString(R.string.es_garce_simplelock_new_pin));
-
-        //Layout that will contain circles
-        layoutPin = (LinearLayout) findViewById(R.id.es_garce_simplelock_layout_pin);
-
-        //Load buttons and set listeners
-        for (int i = 0; i < btnNumber.length; i++) {
-            btnNumber[i] = (Button) findViewById(SimpleLock.BUTTON_IDS[i]);
-            btnNumber[i].setOnClickListener(this);
+        controller = (NewPinController) getLastNonConfigurationInstance();
+        if (controller != null) {
+            //Recreated by a configuration change, only the views are new
+            controller.attach(this, this, dispatcher);
+            controller.rebind(findViewById(android.R.id.content));
         }
-        btnDel = (ImageView) findViewById(R.id.es_garce_simplelock_btn_del);
-        btnDel.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                clickDel();
-            }
-        });
-        btnDel.setOnLongClickListener(new View.OnLongClickListener() {
-            @Override
-            public boolean onLongClick(View v) {
-                clickLongDel();
-                return true;
-            }
-        });
-        btnOk = (ImageView) findViewById(R.id.es_garce_simplelock_btn_ok);
-        btnOk.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                clickOk();
-            }
-        });
-        btnOk.setEnabled(false);
+        else {
+            controller = new NewPinController(this, this);
+            controller.bind(findViewById(android.R.id.content));
+            controller.start(dispatcher, repeat, key);
+        }
+        SimpleLockTrace.end();
+        SimpleLockTrace.reportFirstFrame(metrics, this, SimpleLockMetrics.SCREEN_NEW_PIN,
+                createStart);
     }
 
     /**
@@ -118,13 +125,66 @@ public class SimpleLockNewActivity extends Activity implements View.OnClickListe
      *            persistence. If null you must save the pin by your way when returned.
      */
     public static void newPin(Context context, OnNewPin listener, int repeats, @Nullable String key) {
+        start(context, LockResults.newPin.registerOneShot(context, listener), repeats, key);
+    }
+
+    /**
+     * Registers the listener of the new pin locks launched with a tag. Call it every time the
+     * owner is created, usually in {@link Activity#onCreate(Bundle) onCreate}, so results of a
+     * lock shown while the owner was recreated or the process restarted are delivered. The
+     * listener is unregistered when the owner is destroyed. Must be called on the main thread.
+     * @param owner The activity the listener belongs to.
+     * @param tag Identifies the requests of the listener, stable across recreations.
+     * @param listener Listener that will receive the lock callbacks.
+     */
+    public static void registerListener(Activity owner, String tag, OnNewPin listener) {
+        LockResults.newPin.register(owner, owner, tag, listener);
+    }
+
+    /**
+     * Starts a LockActivity for create a new pin whose callbacks go to the listener registered
+     * with {@link #registerListener(Activity, String, OnNewPin)} for the tag.
+     * @param context Context to create the intent.
+     * @param tag The tag of the listener.
+     * @param repeats Number of times the user must repeat the pin code, default if negative.
+     * @param key The key of the pin to be saved, null if the listener saves it.
+     */
+    public static void newPinForResult(Context context, String tag, int repeats,
+                                       @Nullable String key) {
+        start(context, tag, repeats, key);
+    }
+
+    private static void start(Context context, String tag, int repeats, @Nullable String key) {
+        context.startActivity(newIntent(context, tag, repeats, key));
+    }
+
+    static Intent newIntent(Context context, String tag, int repeats, @Nullable String key) {
         Intent intent = new Intent(context, SimpleLockNewActivity.class);
+        intent.putExtra(KEY_TAG, tag);
         if (repeats >= 0)
             intent.putExtra(KEY_REPEAT, repeats);
         if (key != null)
             intent.putExtra(KEY_KEY, key);
-        mListener = listener;
-        context.startActivity(intent);
+        return intent;
+    }
+
+    //Deliveries are created in static methods so they don't keep the activity
+    private static LockResults.Delivery<OnNewPin> error(final int code) {
+        return new LockResults.Delivery<OnNewPin>() {
+            @Override
+            public void deliver(OnNewPin listener) {
+                listener.onError(null, code);
+            }
+        };
+    }
+
+    private static LockResults.Delivery<OnNewPin> saved(final String pin) {
+        return new LockResults.Delivery<OnNewPin>() {
+            @Override
+            public void deliver(OnNewPin listener) {
+                listener.onSaved(null, pin);
+            }
+        };
     }
 
     /**
@@ -132,103 +192,30 @@ public class SimpleLockNewActivity extends Activity implements View.OnClickListe
      * @param description Text to show.
      */
     public void setDescription (String description) {
-        tvDesc.setText(description);
+        controller.setDescription(description);
     }
 
     @Override
-    public void onClick(View v) {
-        if (pinCode.length() != maxLength) {
-            addCircle();
-            //Update pin
-            Button btn = (Button) v;
-            pinCode += btn.getText();
-            //Enable Done
-            btnOk.setEnabled(pinCode.length() > minLength);
-        }
+    public Object onRetainNonConfigurationInstance() {
+        return controller;
     }
 
-    private void clickOk() {
-        if (firstPin == null) {
-            firstPin = pinCode;
-            setDescription(getResources().getString(R.string.es_garce_simplelock_repeat_pin));
-        }
-        else {
-            if(firstPin.equals(pinCode)) {
-                localRepeat++;
-                setDescription(getResources().getString(R.string.es_garce_simplelock_repeat_pin));
-            }
-            else {
-                setDescription(getResources().getString(R.string.es_garce_simplelock_repeat_error));
-            }
-        }
-
-        //If finished repeats then save
-        if (localRepeat == repeat) {
-            //Simple Lock manage pins
-            if (mListener.onDone(this, pinCode)) {
-                if (key == null)
-                    mListener.onError(this, NO_KEY);
-                else
-                    try {
-                        mListener.onSaved(this, SimpleLockPin.savePin(this, key, pinCode));
-                    } catch (NoSuchAlgorithmException e) {
-                        Toast.makeText(this, getResources().getString(
-                                R.string.es_garce_simplelock_check_error), Toast.LENGTH_SHORT).show();
-                    }
-            }
-        }
-
-        //Always reset UI
-        resetCircles();
-        //Empty pin
-        pinCode = "";
-        //Diable Done
-        btnOk.setEnabled(false);
+    @Override
+    protected void onDestroy() {
+        if (!isChangingConfigurations())
+            controller.stop();
+        if (isFinishing())
+            LockResults.newPin.finish(tag);
+        super.onDestroy();
     }
 
     @Override
     public void onBackPressed() {
-        mListener.onError(this, CANCELED);
+        OnNewPin listener = LockResults.newPin.get(tag);
+        if (listener != null)
+            listener.onError(this, CANCELED);
+        else
+            LockResults.newPin.keep(tag, error(CANCELED));
         super.onBackPressed();
     }
-
-    private void clickDel() {
-        if (pinCode.length() > 0) {
-            removeCircle();
-            //Update pin
-            pinCode = pinCode.substring(0, pinCode.length() - 1);
-            //Disable Done if needed
-            btnOk.setEnabled(pinCode.length() > minLength);
-        }
-    }
-
-    private void clickLongDel() {
-        if (pinCode.length() > 0) {
-            resetCircles();
-            //Empty pin
-            pinCode = "";
-            //Diable Done
-            btnOk.setEnabled(false);
-        }
-    }
-
-    @SuppressWarnings("deprecation")
-    private void addCircle () {
-        ImageView img = new ImageView(this);
-        img.setImageDrawable(getResources().getDrawable(R.drawable.lock_circle));
-        layoutPin.addView(img, indexCircles);
-        indexCircles++;
-    }
-
-    private void removeCircle () {
-        //Remove view
-        if (indexCircles > 0) {
-            layoutPin.removeViewAt(--indexCircles);
-        }
-    }
-
-    private void resetCircles () {
-        layoutPin.removeViews(0, indexCircles);
-        indexCircles = 0;
-    }
 }
@@ -0,0 +1,187 @@
+package es.garce.simplelock;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.support.annotation.Nullable;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+/**
+ * <p>Shows the Simple Lock pin pad on top of the content of an activity instead of launching
+ * {@link SimpleLockActivity} or {@link SimpleLockNewActivity}. The lock views are inflated once,
+ * when the overlay is created, and the same instance can be shown and dismissed as many times as
+ * needed, so locking again costs no activity launch, window transition or inflate.</p>
+ *
+ * <p>Listeners are the same {@link OnEnterPin} and {@link OnNewPin} used by the activities but
+ * their callbacks receive a null activity. Keep a reference to the overlay and call
+ * {@link #dismiss()} where an activity would have been finished:</p>
+ * <pre>
+ * lock = new SimpleLockOverlay(this);
+ * ...
+ * lock.requestPin(listener, "pin");
+ * </pre>
+ *
+ * <p>The overlay belongs to the activity that created it and must be created again if the
+ * activity is recreated. All the methods must be called on the main thread.</p>
+ */
+public class SimpleLockOverlay {
+
+    private static final int NONE = 0;
+    private static final int ENTER_PIN = 1;
+    private static final int NEW_PIN = 2;
+
+    private final Activity activity;
+    private final ViewGroup container;
+    private final View root;
+
+    /**
+     * Root of the overlay. It takes back whichever of its views has the focus, the pin pad does
+     * when it is used with a keyboard or D-pad, so it never reaches the activity.
+     */
+    private class OverlayLayout extends FrameLayout {
+        OverlayLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public boolean dispatchKeyEvent(KeyEvent event) {
+            if (event.getKeyCode() != KeyEvent.KEYCODE_BACK)
+                return super.dispatchKeyEvent(event);
+            if (event.getAction() == KeyEvent.ACTION_UP)
+                onBackPressed();
+            return true;
+        }
+    }
+
+    private EnterPinController enterPin;
+    private NewPinController newPin;
+    private OnEnterPin enterListener;
+    private OnNewPin newListener;
+    private int mode = NONE;
+
+    /**
+     * Inflates the lock views. They are not shown until a pin is requested.
+     * @param activity Activity whose window will show the lock.
+     */
+    public SimpleLockOverlay(Activity activity) {
+        this.activity = activity;
+        container = (ViewGroup) activity.getWindow().getDecorView();
+        OverlayLayout layout = new OverlayLayout(activity);
+        layout.addView(LayoutInflater.from(activity).inflate(R.layout.activity_lock, layout, false));
+        root = layout;
+
+        //Opaque and consuming every touch so nothing below can be used while locked
+        TypedArray a = activity.obtainStyledAttributes(new int[] {android.R.attr.colorBackground});
+        try {
+            root.setBackgroundColor(a.getColor(0, 0xFFFFFFFF));
+        } finally {
+            a.recycle();
+        }
+        root.setClickable(true);
+        root.setFocusableInTouchMode(true);
+    }
+
+    /**
+     * Shows the overlay asking for a pin. See
+     * {@link SimpleLockActivity#requestPin(android.content.Context, OnEnterPin, String)}.
+     * @param listener Listener that will receive the lock callbacks.
+     * @param key The key of the pin the lock must check. If null the pin check will be done by the
+     *            invoker that will receive the input through {@linkplain OnEnterPin#onEnterPin(String)}
+     *            If the key is {@link SimpleLock#isUnlocked(String) unlocked} the overlay is not
+     *            shown and {@linkplain OnEnterPin#onCorrectPin(SimpleLockActivity)} is called at once.
+     */
+    public void requestPin(OnEnterPin listener, @Nullable String key) {
+        if (key != null && UnlockSession.isUnlocked(key)) {
+            listener.onCorrectPin(null);
+            return;
+        }
+        stop();
+        if (enterPin == null)
+            enterPin = new EnterPinController(activity, null);
+        enterPin.bind(root);
+        enterListener = listener;
+        mode = ENTER_PIN;
+        enterPin.start(listener, key);
+        show();
+    }
+
+    /**
+     * Shows the overlay asking for a new pin. See
+     * {@link SimpleLockNewActivity#newPin(android.content.Context, OnNewPin, int, String)}.
+     * @param listener Listener that will receive the lock callbacks.
+     * @param repeats Number of times the user must repeat the pin code to ensure it's ok. 1 default.
+     *                If repeats < 0 then default would be applied.
+     * @param key The key of the pin to be saved on preference if you want SimpleLock to manage the
+     *            persistence. If null you must save the pin by your way when returned.
+     */
+    public void newPin(OnNewPin listener, int repeats, @Nullable String key) {
+        stop();
+        if (newPin == null)
+            newPin = new NewPinController(activity, null);
+        newPin.bind(root);
+        newListener = listener;
+        mode = NEW_PIN;
+        newPin.start(listener, repeats, key);
+        show();
+    }
+
+    /**
+     * Sets text of the lock.
+     * @param description Text to show.
+     */
+    public void setDescription(String description) {
+        if (mode == ENTER_PIN)
+            enterPin.setDescription(description);
+        else if (mode == NEW_PIN)
+            newPin.setDescription(description);
+    }
+
+    /**
+     * @return True if the lock is attached to the window.
+     */
+    public boolean isShowing() {
+        return root.getParent() != null;
+    }
+
+    /**
+     * Removes the lock from the window. The typed pin is cleared and the result of a running check
+     * dropped. The views are kept to show the lock again.
+     */
+    public void dismiss() {
+        stop();
+        if (root.getParent() != null)
+            container.removeView(root);
+    }
+
+    private void show() {
+        if (root.getParent() == null)
+            container.addView(root, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        root.requestFocus();
+    }
+
+    private void stop() {
+        if (mode == ENTER_PIN)
+            enterPin.stop();
+        else if (mode == NEW_PIN)
+            newPin.stop();
+        mode = NONE;
+        enterListener = null;
+        newListener = null;
+    }
+
+    private void onBackPressed() {
+        if (mode == ENTER_PIN)
+            enterListener.onBack(null);
+        else if (mode == NEW_PIN) {
+            //Same as the activity, back always cancels a new pin
+            OnNewPin listener = newListener;
+            dismiss();
+            listener.onError(null, SimpleLockNewActivity.CANCELED);
+        }
+    }
+}
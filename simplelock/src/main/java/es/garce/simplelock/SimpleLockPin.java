@@ -1,78 +1,483 @@
 package es.garce.simplelock;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
-import android.util.Base64;
+import android.support.annotation.Nullable;
 
-import java.security.MessageDigest;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * <p>This class is used to manage pin persistence. It makes use of hash functions to secure the
- * pin code and don't save it clear.</p>
+ * pin code and don't save it clear. Pins are saved in a {@link PinStore}, the Simple Lock
+ * preferences unless {@link #setPinStore(PinStore) another one is set}.</p>
+ *
+ * <p>Pins are hashed with a salted {@link KeyDerivation key derivation function},
+ * {@link Pbkdf2Sha256 PBKDF2-HMAC-SHA256} by default. The number of iterations is calibrated once
+ * on each device so a check takes about {@link #setTargetLatency(long) the target time}, and it is
+ * saved next to every hash. Hashes saved by previous versions (plain SHA-1) are still accepted,
+ * wrapped in the current format by a {@link #migrate(Context) background migration} and rehashed
+ * the first time the pin is checked.</p>
+ *
+ * <p>The hash format and checks are implemented by {@link PinHasher}, which has no Android
+ * dependency and can be used on a server to check the same hashes.</p>
  *
  * <p>Created by Gonzalo Garce on 17/06/2016.</p>
  */
 public class SimpleLockPin {
 
     private static final String basePreference = "es.garce.simplelock_pin";
+    private static final String kdfPreference = "es.garce.simplelock_kdf";
+    private static final String lengthPreference = "es.garce.simplelock_pin_length";
+    private static final String iterationsPreference = "iterations_";
+    private static final String targetPreference = "target_";
 
     /**
-     * Gets a hashed pin from Shared Preference and checks if the input pin is correct.
+     * Default time a pin check should take on any device.
+     */
+    public static final long DEFAULT_TARGET_LATENCY = 150;
+
+    private static final PinHasher hasher = new PinHasher();
+    private static final Object storeLock = new Object();
+    private static volatile PinStore pinStore = null;
+    private static volatile PinStore defaultStore = null;
+    private static volatile long targetLatency = DEFAULT_TARGET_LATENCY;
+    private static volatile int iterations = 0;
+    private static volatile PinVerifier verifier = null;
+
+    /**
+     * Sets the key derivation function used to hash new pins. Hashes created with previously set
+     * functions can still be checked.
+     * @param kdf The function to use.
+     */
+    public static void setKeyDerivation(@NonNull KeyDerivation kdf) {
+        hasher.setKeyDerivation(kdf);
+        iterations = 0;
+    }
+
+    /**
+     * Sets the store where pins are saved and checked, the {@code es.garce.simplelock_pin}
+     * preferences by default. Pins saved in the previous store are not copied.
+     * @param store The store to use, or null to go back to the default one.
+     */
+    public static void setPinStore(@Nullable PinStore store) {
+        synchronized (storeLock) {
+            pinStore = store;
+        }
+    }
+
+    /**
+     * @param context Context to get the default store. In the client processes of
+     *                {@link SimpleLock#enableMultiProcess(Context) multi-process mode} the default
+     *                store reads and writes the pins of the owner process.
+     * @return The store where pins are saved.
+     */
+    public static PinStore getPinStore(Context context) {
+        PinStore store = pinStore;
+        if (store == null) {
+            synchronized (storeLock) {
+                store = pinStore;
+                if (store == null) {
+                    Context appContext = context.getApplicationContext();
+                    store = SimpleLockRemote.isClient()
+                            ? new ProviderPinStore(appContext)
+                            : new SharedPreferencesPinStore(getPreferences(appContext));
+                    defaultStore = store;
+                    pinStore = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return True if the store is the default one, created by {@link #getPinStore(Context)}.
+     */
+    static boolean isDefaultPinStore(PinStore store) {
+        return store != null && store == defaultStore;
+    }
+
+    /**
+     * Sets the time a pin check should take. The device is calibrated again the next time a pin
+     * is hashed.
+     * @param millis Target time in milliseconds. {@link #DEFAULT_TARGET_LATENCY} by default.
+     */
+    public static void setTargetLatency(long millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("target latency must be positive");
+        targetLatency = millis;
+        iterations = 0;
+    }
+
+    /**
+     * Gets a hashed pin from the {@link #getPinStore(Context) pin store} and checks if the input
+     * pin is correct.
      * @param context Context to get preference.
      * @param key The key of the pin to check. This should be set when user created a new pin.
      * @param pin The pin code to compare to.
      * @return True if the pin codes match false otherwise or the pin for the given key wasn't found.
+     * @throws IOException If the pin store can't be read.
      */
     protected static boolean checkPin(Context context, @NonNull String key, @NonNull String pin)
-            throws NoSuchAlgorithmException {
-        String prefPin = context.getSharedPreferences(basePreference, Context.MODE_PRIVATE)
-                .getString(key, null);
-        if (prefPin != null) {
-            //hash input pin
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(pin.getBytes());
-            //Convert to string to compare
-            String hashed =  Base64.encodeToString(md.digest(), Base64.DEFAULT);
-            return prefPin.equals(hashed);
+            throws NoSuchAlgorithmException, IOException {
+        byte[] bytes = pin.getBytes();
+        try {
+            return checkPin(context, key, bytes, bytes.length);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
         }
-        return false;
     }
 
     /**
-     * Save a pin on the shared preferences, the pin is hashed before save.
+     * Same as {@link #checkPin(Context, String, String)} but hashing the input buffer directly.
+     * The buffer is not cleared.
+     */
+    static boolean checkPin(Context context, @NonNull String key, @NonNull PinBuffer pin)
+            throws NoSuchAlgorithmException, IOException {
+        return checkPin(context, key, pin.array(), pin.length());
+    }
+
+    /**
+     * Same as {@link #checkPin(Context, String, PinBuffer)} but the check is not reported to the
+     * {@link SimpleLockMetrics}. Used by the speculative checks of a pin still being typed, the
+     * lock reports the check once the pin is submitted.
+     */
+    static boolean checkPinUnreported(Context context, @NonNull String key, @NonNull PinBuffer pin)
+            throws NoSuchAlgorithmException, IOException {
+        return checkPin(context, key, pin.array(), pin.length(), false);
+    }
+
+    /**
+     * Checks the first {@code length} bytes of a buffer. In a client process the check runs in
+     * the owner process.
+     */
+    static boolean checkPin(Context context, String key, byte[] pin, int length)
+            throws NoSuchAlgorithmException, IOException {
+        return checkPin(context, key, pin, length, true);
+    }
+
+    /**
+     * @param report False to leave the check out of the metrics, of the owner process too.
+     */
+    static boolean checkPin(Context context, String key, byte[] pin, int length, boolean report)
+            throws NoSuchAlgorithmException, IOException {
+        SimpleLockMetrics metrics = report ? SimpleLock.getMetrics() : null;
+        long start = metrics != null ? System.nanoTime() : 0;
+        boolean correct = false;
+        SimpleLockTrace.begin(SimpleLockTrace.CHECK_PIN);
+        try {
+            if (SimpleLockRemote.isClient())
+                correct = SimpleLockRemote.checkPin(context, key, pin, length, report);
+            else
+                correct = checkLocal(context, key, pin, length);
+        } finally {
+            SimpleLockTrace.end();
+        }
+        if (metrics != null)
+            metrics.onPinChecked(key, correct, System.nanoTime() - start);
+        return correct;
+    }
+
+    private static boolean checkLocal(Context context, String key, byte[] pin, int length)
+            throws NoSuchAlgorithmException, IOException {
+        PinMigration.start(context);
+        return getVerifier(context).check(key, pin, length);
+    }
+
+    /**
+     * Gets a verifier of the pins of the {@link #getPinStore(Context) pin store} that can be used
+     * from any thread at once, for services, widgets or background jobs. Pins saved with a weaker
+     * hash than this device can afford are rehashed when they are checked.
+     *
+     * <p>The first call may calibrate the device, don't make it on the main thread. The verifier
+     * must be got again after {@link #setPinStore(PinStore)}, {@link #setKeyDerivation(KeyDerivation)}
+     * or {@link #setTargetLatency(long)}.</p>
+     * @param context Context to get preference.
+     * @return The verifier.
+     */
+    public static PinVerifier getVerifier(Context context) throws NoSuchAlgorithmException {
+        final Context appContext = context.getApplicationContext();
+        PinStore store = getPinStore(appContext);
+        int count = getIterations(appContext);
+        PinVerifier current = verifier;
+        if (current == null || current.getIterations() != count || current.getStore() != store) {
+            current = new PinVerifier(hasher, store, count) {
+                @Override
+                protected void onUpgraded(String key) {
+                    notifyPinChanged(appContext, key);
+                }
+            };
+            verifier = current;
+        }
+        return current;
+    }
+
+    /**
+     * Save a pin on the {@link #getPinStore(Context) pin store}, the pin is hashed before save.
      * @param context Context to get preference.
      * @param key The key of the pin to save. If there are gonna be more than one pin in your application
      *            you must set a key for each specific pin. You should save the key and know when to use it.
      * @param pin The pin code to save.
      * @return The hashed pin that has been saved on preferences.
+     * @throws IOException If the pin store can't be written.
      */
     protected static String savePin(Context context, @NonNull String key, @NonNull String pin)
-            throws NoSuchAlgorithmException {
-        //hash pin
-        MessageDigest md = MessageDigest.getInstance("SHA-1");
-        md.update(pin.getBytes());
-        //Covert to string to save on preferences
-        String hashed =  Base64.encodeToString(md.digest(), Base64.DEFAULT);
-        context.getSharedPreferences(basePreference, Context.MODE_PRIVATE).edit()
-                .putString(key, hashed).apply();
+            throws NoSuchAlgorithmException, IOException {
+        byte[] bytes = pin.getBytes();
+        try {
+            return savePin(context, key, bytes, bytes.length);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Same as {@link #savePin(Context, String, String)} but hashing the input buffer directly.
+     * The buffer is not cleared.
+     */
+    static String savePin(Context context, @NonNull String key, @NonNull PinBuffer pin)
+            throws NoSuchAlgorithmException, IOException {
+        return savePin(context, key, pin.array(), pin.length());
+    }
+
+    /**
+     * Saves the first {@code length} bytes of a buffer. In a client process the pin is hashed and
+     * saved by the owner process.
+     */
+    static String savePin(Context context, String key, byte[] pin, int length)
+            throws NoSuchAlgorithmException, IOException {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        String hashed;
+        SimpleLockTrace.begin(SimpleLockTrace.SAVE_PIN);
+        try {
+            if (SimpleLockRemote.isClient()) {
+                hashed = SimpleLockRemote.savePin(context, key, pin, length);
+            }
+            else {
+                PinMigration.start(context);
+                hashed = hasher.hash(pin, length, getIterations(context));
+                getPinStore(context).put(key, hashed);
+                getLengthPreferences(context).edit().putInt(key, length).apply();
+                notifyPinChanged(context, key);
+            }
+        } finally {
+            SimpleLockTrace.end();
+        }
+        if (metrics != null)
+            metrics.onPinSaved(key, System.nanoTime() - start);
         return hashed;
     }
 
+    /**
+     * Hashes the first {@code length} bytes of a buffer with a new salt, without saving it. Used
+     * to hash a new pin while the user confirms it. The buffer is not cleared.
+     * @return The record to {@link #storePin(Context, String, String, int, long) store}.
+     */
+    static String derivePin(Context context, byte[] pin, int length)
+            throws NoSuchAlgorithmException {
+        SimpleLockTrace.begin(SimpleLockTrace.SAVE_PIN);
+        try {
+            return hasher.hash(pin, length, getIterations(context));
+        } finally {
+            SimpleLockTrace.end();
+        }
+    }
+
+    /**
+     * Saves a record created by {@link #derivePin(Context, byte[], int)} and waits until it is
+     * durable. In a client process it is saved by the owner process.
+     * @param hashNanos Time spent creating the record, reported with the save time.
+     * @throws IOException If the record can't be saved or made durable.
+     */
+    static void storePin(Context context, String key, String hashed, int length, long hashNanos)
+            throws IOException {
+        SimpleLockMetrics metrics = SimpleLock.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        SimpleLockTrace.begin(SimpleLockTrace.SAVE_PIN);
+        try {
+            if (SimpleLockRemote.isClient()) {
+                SimpleLockRemote.storePin(context, key, hashed, length);
+            }
+            else {
+                PinMigration.start(context);
+                PinStore store = getPinStore(context);
+                store.put(key, hashed);
+                if (!getLengthPreferences(context).edit().putInt(key, length).commit())
+                    throw new IOException("Can't save the pin length");
+                store.flush();
+                notifyPinChanged(context, key);
+            }
+        } finally {
+            SimpleLockTrace.end();
+        }
+        if (metrics != null)
+            metrics.onPinSaved(key, hashNanos + System.nanoTime() - start);
+    }
+
     /**
      * This method is provided as a helper for people who wants to manage the pin persistence by their
      * own. Using this you can save your pin hashed in the same way if you were letting the persistence
-     * to Simple Lock.
+     * to Simple Lock. Every call uses a new random salt, so use
+     * {@link #verifyPin(String, String)} to check a pin against the result.
      * @param pin The String representation of the pin to hash.
-     * @return The SHA-1 hash of the pin.
+     * @return The salted hash of the pin together with its parameters.
      * @throws NoSuchAlgorithmException
      */
     public static String hashPin(@NonNull String pin) throws NoSuchAlgorithmException {
-        //hash pin
-        MessageDigest md = MessageDigest.getInstance("SHA-1");
-        md.update(pin.getBytes());
-        //Covert to string to save on preferences
-        return Base64.encodeToString(md.digest(), Base64.DEFAULT);
+        KeyDerivation kdf = hasher.getKeyDerivation();
+        int count = iterations;
+        if (count == 0) {
+            count = calibrate(kdf);
+            if (kdf == hasher.getKeyDerivation())
+                iterations = count;
+        }
+        return hasher.hash(pin, count);
+    }
+
+    /**
+     * Checks a pin against a hash created by {@link #hashPin(String)}. Hashes created by previous
+     * versions of Simple Lock are accepted too.
+     * @param pin The pin code to check.
+     * @param hash The saved hash.
+     * @return True if the pin matches the hash.
+     * @throws NoSuchAlgorithmException
+     */
+    public static boolean verifyPin(@NonNull String pin, @NonNull String hash)
+            throws NoSuchAlgorithmException {
+        return hasher.verify(pin, hash);
+    }
+
+    /**
+     * Same as {@link #verifyPin(String, String)} reading the pin from the first {@code length}
+     * bytes of a buffer. The buffer is not cleared.
+     */
+    static boolean verifyPin(byte[] pin, int length, String hash) throws NoSuchAlgorithmException {
+        return hasher.verify(pin, length, hash);
+    }
+
+    /**
+     * Starts the background migration of the pins saved by previous versions of Simple Lock to the
+     * current hash format. It also starts by itself the first time a pin is checked or saved, call
+     * it on app start to migrate as soon as possible.
+     * @param context Context to get preference.
+     */
+    public static void migrate(Context context) {
+        PinMigration.start(context);
+    }
+
+    /**
+     * Copies the pins saved in the Simple Lock preferences to a {@link BinaryPinStore}. It only
+     * runs once per store, so it can be called every time the store is opened. The preferences are
+     * not changed. Imported pins saved by previous versions are migrated like the ones of any other
+     * store.
+     * @param context Context to get preference.
+     * @param store The store to fill.
+     * @return Number of pins imported.
+     * @throws IOException If the store can't be written.
+     */
+    public static int importPins(Context context, @NonNull BinaryPinStore store)
+            throws IOException {
+        if (store.isImported())
+            return 0;
+        int imported = store.importFrom(getPreferences(context).getAll());
+        if (imported > 0) {
+            PinMigration.invalidate(store);
+            PinMigration.start(context);
+        }
+        return imported;
+    }
+
+    /**
+     * Wraps a legacy SHA-1 hash in a record without knowing the pin.
+     * @see PinHasher#wrapLegacy(String, int)
+     */
+    static String wrapLegacy(String legacy, int count) throws NoSuchAlgorithmException {
+        return hasher.wrapLegacy(legacy, count);
+    }
+
+    /**
+     * Gets the calibrated iterations of the current key derivation function. The device is only
+     * measured once, the result is saved for future processes.
+     */
+    static int getIterations(Context context) throws NoSuchAlgorithmException {
+        int count = iterations;
+        if (count != 0)
+            return count;
+
+        KeyDerivation kdf = hasher.getKeyDerivation();
+        SharedPreferences prefs = context.getApplicationContext()
+                .getSharedPreferences(kdfPreference, Context.MODE_PRIVATE);
+        if (prefs.getLong(targetPreference + kdf.getId(), 0) == targetLatency)
+            count = prefs.getInt(iterationsPreference + kdf.getId(), 0);
+        if (count == 0) {
+            count = calibrate(kdf);
+            prefs.edit()
+                    .putInt(iterationsPreference + kdf.getId(), count)
+                    .putLong(targetPreference + kdf.getId(), targetLatency)
+                    .apply();
+        }
+        if (kdf == hasher.getKeyDerivation())
+            iterations = count;
+        return count;
+    }
+
+    private static int calibrate(KeyDerivation kdf) throws NoSuchAlgorithmException {
+        try {
+            return KdfCalibrator.calibrate(kdf, targetLatency);
+        } catch (GeneralSecurityException e) {
+            throw new NoSuchAlgorithmException(e.getMessage());
+        }
+    }
+
+    /**
+     * Does the slow first time work of checking a pin: loads the saved pins and the calibrated
+     * iterations, seeds the salt generator and looks up the hash providers. It must not be called
+     * on the main thread.
+     * @param context Context to get preference.
+     */
+    static void prewarm(Context context) throws NoSuchAlgorithmException {
+        PinMigration.start(context);
+        //Other stores, and the one of the owner process, load what they need when it is read
+        PinStore store = getPinStore(context);
+        if (isDefaultPinStore(store) && store instanceof SharedPreferencesPinStore)
+            ((SharedPreferencesPinStore) store).warmUp();
+        getIterations(context);
+        hasher.prewarm();
+    }
+
+    /**
+     * Gets the length of a pin, saved next to it so the lock can submit it as soon as it is typed.
+     * @param context Context to get preference.
+     * @param key The key of the pin.
+     * @return The length or 0 if it is not known, for pins saved by previous versions.
+     * @throws IOException If the owner process of the multi-process mode can't be reached.
+     */
+    static int getPinLength(Context context, String key) throws IOException {
+        if (SimpleLockRemote.isClient())
+            return SimpleLockRemote.getPinLength(context, key);
+        return getLengthPreferences(context).getInt(key, 0);
+    }
+
+    private static SharedPreferences getLengthPreferences(Context context) {
+        return context.getApplicationContext()
+                .getSharedPreferences(lengthPreference, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Tells the client processes to drop their cached value of a pin.
+     */
+    private static void notifyPinChanged(Context context, String key) {
+        if (SimpleLockRemote.isOwner())
+            SimpleLockProvider.notifyPinsChanged(context, Collections.singleton(key));
+    }
+
+    static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(basePreference, Context.MODE_PRIVATE);
     }
 
 }
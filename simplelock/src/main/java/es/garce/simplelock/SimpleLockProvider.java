@@ -0,0 +1,280 @@
+package es.garce.simplelock;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Gives the settings, pins and pin checks of the process that owns them to the other processes
+ * of the application, see {@link SimpleLock#enableMultiProcess(Context)}. It is declared with the
+ * {@code <applicationId>.simplelock} authority, not exported, so only the application can use it.
+ * Everything is done through {@link #call(String, String, Bundle)}.</p>
+ *
+ * <p>Every change is announced with {@link android.content.ContentResolver#notifyChange(Uri,
+ * android.database.ContentObserver) notifyChange} on {@link #getConfigUri(Context)} or on the
+ * {@link #getPinUri(Context, String) uri of the pin}, so the other processes can keep caches.</p>
+ */
+public class SimpleLockProvider extends ContentProvider {
+
+    static final String METHOD_GET_CONFIG = "getConfig";
+    static final String METHOD_SET_CONFIG = "setConfig";
+    static final String METHOD_CHECK_PIN = "checkPin";
+    static final String METHOD_SAVE_PIN = "savePin";
+    static final String METHOD_STORE_PIN = "storePin";
+    static final String METHOD_GET_PIN = "getPin";
+    static final String METHOD_GET_PIN_LENGTH = "getPinLength";
+    static final String METHOD_PUT_PINS = "putPins";
+    static final String METHOD_REPLACE_PINS = "replacePins";
+    static final String METHOD_KEYS = "keys";
+    static final String METHOD_FLUSH = "flush";
+
+    static final String EXTRA_PIN = "pin";
+    static final String EXTRA_RESULT = "result";
+    static final String EXTRA_ERROR = "error";
+    static final String EXTRA_KEYS = "keys";
+    static final String EXTRA_VALUES = "values";
+    static final String EXTRA_EXPECTED = "expected";
+    static final String EXTRA_LENGTH = "length";
+    static final String EXTRA_REPORT = "report";
+
+    private static final String EXTRA_SHOW_PLACEHOLDER = "showPlaceholder";
+    private static final String EXTRA_SHOW_PREVIEW = "showPreview";
+    private static final String EXTRA_SHUFFLE_BUTTONS = "shuffleButtons";
+    private static final String EXTRA_MIN_LENGTH = "minLength";
+    private static final String EXTRA_MAX_LENGTH = "maxLength";
+    private static final String EXTRA_VERIFY_ASYNC = "verifyAsync";
+    private static final String EXTRA_UNLOCK_TIMEOUT = "unlockTimeout";
+    private static final String EXTRA_AUTO_SUBMIT = "autoSubmit";
+    private static final String EXTRA_REJECT_WEAK_PINS = "rejectWeakPins";
+    private static final String EXTRA_INIT = "init";
+
+    private static final String AUTHORITY_SUFFIX = ".simplelock";
+    private static final String PATH_CONFIG = "config";
+    private static final String PATH_PINS = "pins";
+
+    private final SimpleLock.OnConfigChangeListener configListener =
+            new SimpleLock.OnConfigChangeListener() {
+        @Override
+        public void onConfigChanged(LockConfig config) {
+            Context context = getContext();
+            context.getContentResolver().notifyChange(getConfigUri(context), null);
+        }
+    };
+
+    @Override
+    public boolean onCreate() {
+        //Only registers the listener, the settings are loaded on the first call
+        SimpleLockRemote.setOwner();
+        SimpleLock.registerOnConfigChangeListener(configListener);
+        return true;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        Context context = getContext();
+        Bundle result = new Bundle();
+        try {
+            switch (method) {
+                case METHOD_GET_CONFIG:
+                    putConfig(result, SimpleLock.getConfig(context));
+                    break;
+                case METHOD_SET_CONFIG:
+                    SimpleLock.setConfig(context, getConfig(extras));
+                    break;
+                case METHOD_CHECK_PIN: {
+                    byte[] pin = extras.getByteArray(EXTRA_PIN);
+                    try {
+                        result.putBoolean(EXTRA_RESULT,
+                                SimpleLockPin.checkPin(context, arg, pin, pin.length,
+                                        extras.getBoolean(EXTRA_REPORT, true)));
+                    } finally {
+                        Arrays.fill(pin, (byte) 0);
+                    }
+                    break;
+                }
+                case METHOD_SAVE_PIN: {
+                    byte[] pin = extras.getByteArray(EXTRA_PIN);
+                    try {
+                        result.putString(EXTRA_RESULT,
+                                SimpleLockPin.savePin(context, arg, pin, pin.length));
+                    } finally {
+                        Arrays.fill(pin, (byte) 0);
+                    }
+                    break;
+                }
+                case METHOD_STORE_PIN:
+                    SimpleLockPin.storePin(context, arg, extras.getString(EXTRA_RESULT),
+                            extras.getInt(EXTRA_LENGTH), 0);
+                    break;
+                case METHOD_GET_PIN:
+                    result.putString(EXTRA_RESULT, SimpleLockPin.getPinStore(context).get(arg));
+                    break;
+                case METHOD_GET_PIN_LENGTH:
+                    result.putInt(EXTRA_RESULT, SimpleLockPin.getPinLength(context, arg));
+                    break;
+                case METHOD_PUT_PINS: {
+                    Map<String, String> values = getPins(extras, EXTRA_VALUES);
+                    SimpleLockPin.getPinStore(context).putAll(values);
+                    notifyPinsChanged(context, values.keySet());
+                    break;
+                }
+                case METHOD_REPLACE_PINS: {
+                    Map<String, String> values = getPins(extras, EXTRA_VALUES);
+                    result.putInt(EXTRA_RESULT, SimpleLockPin.getPinStore(context)
+                            .replaceAll(getPins(extras, EXTRA_EXPECTED), values));
+                    notifyPinsChanged(context, values.keySet());
+                    break;
+                }
+                case METHOD_KEYS:
+                    result.putStringArrayList(EXTRA_RESULT, new ArrayList<>(
+                            SimpleLockPin.getPinStore(context).keys(arg)));
+                    break;
+                case METHOD_FLUSH:
+                    SimpleLockPin.getPinStore(context).flush();
+                    break;
+                default:
+                    return super.call(method, arg, extras);
+            }
+        } catch (SimpleLock.SimpleLockConfigurationError | NoSuchAlgorithmException
+                | IOException e) {
+            result.putString(EXTRA_ERROR, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return The authority of the provider of the application.
+     */
+    static String getAuthority(Context context) {
+        return context.getPackageName() + AUTHORITY_SUFFIX;
+    }
+
+    static Uri getUri(Context context) {
+        return Uri.parse("content://" + getAuthority(context));
+    }
+
+    /**
+     * @return Uri notified every time the settings change.
+     */
+    public static Uri getConfigUri(Context context) {
+        return Uri.withAppendedPath(getUri(context), PATH_CONFIG);
+    }
+
+    /**
+     * @param key The key of a pin, or null for the parent uri of every pin.
+     * @return Uri notified every time the pin changes.
+     */
+    public static Uri getPinUri(Context context, @Nullable String key) {
+        Uri pins = Uri.withAppendedPath(getUri(context), PATH_PINS);
+        return key != null ? Uri.withAppendedPath(pins, Uri.encode(key)) : pins;
+    }
+
+    /**
+     * Announces that pins changed in the owner process.
+     */
+    static void notifyPinsChanged(Context context, Iterable<String> keys) {
+        for (String key : keys)
+            context.getContentResolver().notifyChange(getPinUri(context, key), null);
+    }
+
+    static void putConfig(Bundle bundle, LockConfig config) {
+        bundle.putBoolean(EXTRA_SHOW_PLACEHOLDER, config.isShowPlaceholder());
+        bundle.putBoolean(EXTRA_SHOW_PREVIEW, config.isShowPreview());
+        bundle.putBoolean(EXTRA_SHUFFLE_BUTTONS, config.isShuffleButtons());
+        bundle.putInt(EXTRA_MIN_LENGTH, config.getMinLength());
+        bundle.putInt(EXTRA_MAX_LENGTH, config.getMaxLength());
+        bundle.putBoolean(EXTRA_VERIFY_ASYNC, config.isVerifyAsync());
+        bundle.putLong(EXTRA_UNLOCK_TIMEOUT, config.getUnlockTimeout());
+        bundle.putBoolean(EXTRA_AUTO_SUBMIT, config.isAutoSubmit());
+        bundle.putBoolean(EXTRA_REJECT_WEAK_PINS, config.isRejectWeakPins());
+        bundle.putBoolean(EXTRA_INIT, config.isInit());
+    }
+
+    static LockConfig getConfig(Bundle bundle) {
+        return new LockConfig.Builder()
+                .setShowPlaceholder(bundle.getBoolean(EXTRA_SHOW_PLACEHOLDER,
+                        LockConfig.DEFAULT_SHOW_PLACEHOLDER))
+                .setShowPreview(bundle.getBoolean(EXTRA_SHOW_PREVIEW,
+                        LockConfig.DEFAULT_SHOW_PREVIEW))
+                .setShuffleButtons(bundle.getBoolean(EXTRA_SHUFFLE_BUTTONS,
+                        LockConfig.DEFAULT_SHUFFLE_BUTTONS))
+                .setMinLength(bundle.getInt(EXTRA_MIN_LENGTH, LockConfig.DEFAULT_MIN_LENGTH))
+                .setMaxLength(bundle.getInt(EXTRA_MAX_LENGTH, LockConfig.DEFAULT_MAX_LENGTH))
+                .setVerifyAsync(bundle.getBoolean(EXTRA_VERIFY_ASYNC,
+                        LockConfig.DEFAULT_VERIFY_ASYNC))
+                .setUnlockTimeout(bundle.getLong(EXTRA_UNLOCK_TIMEOUT,
+                        LockConfig.DEFAULT_UNLOCK_TIMEOUT))
+                .setAutoSubmit(bundle.getBoolean(EXTRA_AUTO_SUBMIT,
+                        LockConfig.DEFAULT_AUTO_SUBMIT))
+                .setRejectWeakPins(bundle.getBoolean(EXTRA_REJECT_WEAK_PINS,
+                        LockConfig.DEFAULT_REJECT_WEAK_PINS))
+                .setInit(bundle.getBoolean(EXTRA_INIT, false))
+                .build();
+    }
+
+    /**
+     * Writes pins as two parallel arrays, null values included.
+     */
+    static void putPins(Bundle bundle, String name, Map<String, String> pins) {
+        String[] keys = new String[pins.size()];
+        String[] values = new String[pins.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : pins.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+        bundle.putStringArray(name + EXTRA_KEYS, keys);
+        bundle.putStringArray(name, values);
+    }
+
+    static Map<String, String> getPins(Bundle bundle, String name) {
+        String[] keys = bundle.getStringArray(name + EXTRA_KEYS);
+        String[] values = bundle.getStringArray(name);
+        Map<String, String> pins = new HashMap<>();
+        for (int i = 0; i < keys.length; i++)
+            pins.put(keys[i], values[i]);
+        return pins;
+    }
+
+    static List<String> getKeys(Bundle bundle) {
+        return bundle.getStringArrayList(EXTRA_RESULT);
+    }
+}
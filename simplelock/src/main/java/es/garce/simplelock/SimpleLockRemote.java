@@ -0,0 +1,138 @@
+package es.garce.simplelock;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.os.Bundle;
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Client side of {@link SimpleLockProvider}. When multi-process mode is enabled in a process
+ * that doesn't own the provider, the settings and pins are read through the provider and pin
+ * checks run in the owner process, so every process sees the same values.</p>
+ */
+final class SimpleLockRemote {
+
+    private static volatile boolean client = false;
+    private static volatile boolean owner = false;
+
+    private SimpleLockRemote() {
+    }
+
+    /**
+     * Decides if this process is a client of the provider or its owner.
+     * @return True if this process is a client.
+     */
+    static boolean enable(Context context) {
+        Context appContext = context.getApplicationContext();
+        ProviderInfo info = appContext.getPackageManager()
+                .resolveContentProvider(SimpleLockProvider.getAuthority(appContext), 0);
+        if (info == null)
+            return false;
+        String process = getProcessName(appContext);
+        client = process != null && !process.equals(info.processName);
+        return client;
+    }
+
+    /**
+     * @return True if this process reads the lock state through the provider.
+     */
+    static boolean isClient() {
+        return client;
+    }
+
+    /**
+     * Called by the provider, changes made in this process are announced to the other ones.
+     */
+    static void setOwner() {
+        owner = true;
+    }
+
+    static boolean isOwner() {
+        return owner;
+    }
+
+    static LockConfig getConfig(Context context) throws IOException {
+        return SimpleLockProvider.getConfig(
+                call(context, SimpleLockProvider.METHOD_GET_CONFIG, null, null));
+    }
+
+    static void setConfig(Context context, LockConfig config) throws IOException {
+        Bundle extras = new Bundle();
+        SimpleLockProvider.putConfig(extras, config);
+        call(context, SimpleLockProvider.METHOD_SET_CONFIG, null, extras);
+    }
+
+    static boolean checkPin(Context context, String key, byte[] pin, int length, boolean report)
+            throws IOException {
+        Bundle extras = pinExtras(pin, length);
+        extras.putBoolean(SimpleLockProvider.EXTRA_REPORT, report);
+        return call(context, SimpleLockProvider.METHOD_CHECK_PIN, key, extras)
+                .getBoolean(SimpleLockProvider.EXTRA_RESULT);
+    }
+
+    static String savePin(Context context, String key, byte[] pin, int length)
+            throws IOException {
+        return call(context, SimpleLockProvider.METHOD_SAVE_PIN, key, pinExtras(pin, length))
+                .getString(SimpleLockProvider.EXTRA_RESULT);
+    }
+
+    static void storePin(Context context, String key, String hashed, int length)
+            throws IOException {
+        Bundle extras = new Bundle();
+        extras.putString(SimpleLockProvider.EXTRA_RESULT, hashed);
+        extras.putInt(SimpleLockProvider.EXTRA_LENGTH, length);
+        call(context, SimpleLockProvider.METHOD_STORE_PIN, key, extras);
+    }
+
+    static int getPinLength(Context context, String key) throws IOException {
+        return call(context, SimpleLockProvider.METHOD_GET_PIN_LENGTH, key, null)
+                .getInt(SimpleLockProvider.EXTRA_RESULT);
+    }
+
+    /**
+     * Calls a method of the provider.
+     * @throws IOException If the provider is not available or the call failed.
+     */
+    static Bundle call(Context context, String method, String arg, Bundle extras)
+            throws IOException {
+        Bundle result;
+        try {
+            result = context.getContentResolver()
+                    .call(SimpleLockProvider.getUri(context), method, arg, extras);
+        } catch (RuntimeException e) {
+            //The owner process died during the call
+            throw new IOException(e.getMessage());
+        }
+        if (result == null)
+            throw new IOException("SimpleLockProvider is not available");
+        String error = result.getString(SimpleLockProvider.EXTRA_ERROR);
+        if (error != null)
+            throw new IOException(error);
+        return result;
+    }
+
+    private static Bundle pinExtras(byte[] pin, int length) {
+        //The Bundle is marshalled during the call, the copy can be cleared when it returns
+        Bundle extras = new Bundle();
+        extras.putByteArray(SimpleLockProvider.EXTRA_PIN, Arrays.copyOf(pin, length));
+        return extras;
+    }
+
+    private static String getProcessName(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        List<ActivityManager.RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+        if (processes == null)
+            return null;
+        int pid = Process.myPid();
+        for (ActivityManager.RunningAppProcessInfo process : processes) {
+            if (process.pid == pid)
+                return process.processName;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package es.garce.simplelock;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Trace;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * <p>Marks the phases of the lock as sections of systrace and Perfetto captures, and reports the
+ * first frame of the lock activities to {@link SimpleLockMetrics}. Sections are only written on
+ * Android 4.3 and newer, and must begin and end on the same thread.</p>
+ */
+final class SimpleLockTrace {
+
+    static final String ON_CREATE = "SimpleLock.onCreate";
+    static final String LOAD_CONFIG = "SimpleLock.loadConfig";
+    static final String CHECK_PIN = "SimpleLock.checkPin";
+    static final String SAVE_PIN = "SimpleLock.savePin";
+    static final String SUBMIT = "SimpleLock.submit";
+
+    private SimpleLockTrace() {
+    }
+
+    static void begin(String section) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.beginSection(section);
+    }
+
+    static void end() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.endSection();
+    }
+
+    /**
+     * Reports {@link SimpleLockMetrics#onLockShown(int, long, long)} when the activity draws for
+     * the first time. It must be called at the end of {@code onCreate}.
+     * @param metrics The listener, nothing is done if null.
+     * @param createStart {@link System#nanoTime()} at the start of {@code onCreate}.
+     */
+    static void reportFirstFrame(final SimpleLockMetrics metrics, Activity activity,
+                                 final int screen, final long createStart) {
+        if (metrics == null)
+            return;
+        final long createNanos = System.nanoTime() - createStart;
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                metrics.onLockShown(screen, createNanos, System.nanoTime() - createStart);
+                return true;
+            }
+        });
+    }
+}
@@ -0,0 +1,153 @@
+package es.garce.simplelock;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Keys unlocked by a correct pin and the time their unlock expires, see
+ * {@link SimpleLock#setUnlockTimeout(Context, long)}. Reads are a single lookup in a concurrent map
+ * and can be done from any thread.</p>
+ *
+ * <p>Expirations of every key share one timer: they are kept ordered by time and a single message
+ * is posted for the earliest one. Every key is locked again when the screen is turned off or the
+ * application goes to the background.</p>
+ *
+ * <p>The session belongs to the process, in multi-process mode each process keeps its own.</p>
+ */
+final class UnlockSession {
+
+    private static final class Expiry implements Comparable<Expiry> {
+        final String key;
+        final long deadline;
+
+        Expiry(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return deadline < other.deadline ? -1 : (deadline == other.deadline ? 0 : 1);
+        }
+    }
+
+    //Key to expiration time in the elapsedRealtime clock, which keeps counting while asleep
+    private static final ConcurrentMap<String, Long> deadlines = new ConcurrentHashMap<>();
+    //Only used on the main thread, entries of keys locked or unlocked again are skipped
+    private static final PriorityQueue<Expiry> expirations = new PriorityQueue<>();
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static boolean watching = false;
+
+    private static final Runnable expire = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            while (!expirations.isEmpty() && expirations.peek().deadline <= now) {
+                Expiry expiry = expirations.poll();
+                deadlines.remove(expiry.key, expiry.deadline);
+            }
+            schedule();
+        }
+    };
+
+    private static final BroadcastReceiver screenOffReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            lockAll();
+        }
+    };
+
+    //All the windows of the application were hidden, it went to the background
+    private static final ComponentCallbacks2 trimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN)
+                lockAll();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+        }
+    };
+
+    private UnlockSession() {
+    }
+
+    /**
+     * @return True if the key is unlocked right now.
+     */
+    static boolean isUnlocked(String key) {
+        Long deadline = deadlines.get(key);
+        return deadline != null && SystemClock.elapsedRealtime() < deadline;
+    }
+
+    /**
+     * Unlocks a key for the {@link LockConfig#getUnlockTimeout() configured time}. Must be called
+     * on the main thread.
+     * @param context Context to get the settings and watch the screen and the application.
+     * @param key The key whose pin was entered.
+     */
+    static void unlock(Context context, String key) {
+        long timeout = SimpleLock.getConfig(context).getUnlockTimeout();
+        if (timeout <= 0)
+            return;
+        watch(context);
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        deadlines.put(key, deadline);
+        expirations.add(new Expiry(key, deadline));
+        schedule();
+    }
+
+    /**
+     * Locks a key again. Any thread.
+     */
+    static void lock(String key) {
+        deadlines.remove(key);
+    }
+
+    /**
+     * Locks every key again. Any thread.
+     */
+    static void lockAll() {
+        deadlines.clear();
+    }
+
+    private static void schedule() {
+        handler.removeCallbacks(expire);
+        //Skip the entries already locked by hand
+        while (!expirations.isEmpty()) {
+            Expiry next = expirations.peek();
+            Long deadline = deadlines.get(next.key);
+            if (deadline != null && deadline == next.deadline)
+                break;
+            expirations.poll();
+        }
+        if (!expirations.isEmpty())
+            handler.postDelayed(expire,
+                    Math.max(0, expirations.peek().deadline - SystemClock.elapsedRealtime()));
+    }
+
+    private static void watch(Context context) {
+        if (watching)
+            return;
+        Context appContext = context.getApplicationContext();
+        appContext.registerReceiver(screenOffReceiver, new IntentFilter(Intent.ACTION_SCREEN_OFF));
+        appContext.registerComponentCallbacks(trimCallbacks);
+        watching = true;
+    }
+}
@@ -0,0 +1,121 @@
+package es.garce.simplelock;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.support.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>The {@link WeakPinPolicy} of the weak pin file shipped as an asset, generated by the
+ * {@code generateWeakPins} task of the build. An application can replace it with its own file
+ * of the same name.</p>
+ *
+ * <p>The file is memory mapped when the application stores it uncompressed
+ * ({@code aaptOptions { noCompress 'bin' }}), otherwise it is read into a direct buffer.</p>
+ */
+final class WeakPins {
+
+    static final String ASSET = "es_garce_simplelock_weak_pins.bin";
+
+    private static final Object lock = new Object();
+    private static volatile WeakPinPolicy policy = null;
+    private static boolean failed = false;
+
+    private WeakPins() {
+    }
+
+    /**
+     * @return The policy or null if it hasn't been loaded yet or it couldn't be loaded. Never
+     * blocks, it can be called on every key press.
+     */
+    @Nullable
+    static WeakPinPolicy peek() {
+        return policy;
+    }
+
+    /**
+     * Loads the policy on the executor if it is not loaded yet.
+     */
+    static void prefetch(Context context) {
+        if (policy != null)
+            return;
+        final Context appContext = context.getApplicationContext();
+        SimpleLockExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                get(appContext);
+            }
+        });
+    }
+
+    /**
+     * Loads the policy on the calling thread if it is not loaded yet.
+     * @return The policy or null if the asset is missing or corrupted. It is not tried again.
+     */
+    @Nullable
+    static WeakPinPolicy get(Context context) {
+        WeakPinPolicy loaded = policy;
+        if (loaded != null)
+            return loaded;
+        synchronized (lock) {
+            if (policy == null && !failed) {
+                try {
+                    policy = new WeakPinPolicy(load(context), WeakPinRules.defaults());
+                } catch (IOException e) {
+                    failed = true;
+                }
+            }
+            return policy;
+        }
+    }
+
+    private static ByteBuffer load(Context context) throws IOException {
+        AssetFileDescriptor fd;
+        try {
+            fd = context.getAssets().openFd(ASSET);
+        } catch (FileNotFoundException e) {
+            //Compressed in the APK, it can't be mapped
+            return read(context);
+        }
+        try {
+            FileInputStream in = fd.createInputStream();
+            try {
+                //The mapping stays valid once the file is closed
+                return in.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(),
+                        fd.getLength());
+            } finally {
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    private static ByteBuffer read(Context context) throws IOException {
+        InputStream in = context.getAssets().open(ASSET);
+        try {
+            byte[] chunk = new byte[8192];
+            ByteBuffer data = ByteBuffer.allocateDirect(Math.max(in.available(), chunk.length));
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                if (data.remaining() < read) {
+                    ByteBuffer bigger = ByteBuffer.allocateDirect(data.capacity() * 2 + read);
+                    data.flip();
+                    bigger.put(data);
+                    data = bigger;
+                }
+                data.put(chunk, 0, read);
+            }
+            data.flip();
+            return data.slice();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package es.garce.simplelock;
+
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Settings declared in the theme of the {@code <application>} element, which is only given to the
+ * activities. The theme is set on the application info like the system does from the manifest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DeclaredConfigTest {
+
+    private final Application app = RuntimeEnvironment.application;
+    private final int appTheme = app.getApplicationInfo().theme;
+
+    @After
+    public void restoreTheme() {
+        app.getApplicationInfo().theme = appTheme;
+    }
+
+    @Test
+    public void readsApplicationTheme() {
+        app.getApplicationInfo().theme = R.style.SimpleLockTest_AppTheme;
+
+        LockConfig config = DeclaredConfig.load(app, SimpleLock.defaults());
+        assertTrue(config.isInit());
+        assertEquals(6, config.getMaxLength());
+        assertTrue(config.isShuffleButtons());
+        assertEquals(LockConfig.DEFAULT_MIN_LENGTH, config.getMinLength());
+    }
+
+    @Test
+    public void ignoresContextTheme() {
+        app.getApplicationInfo().theme = 0;
+        app.setTheme(R.style.SimpleLockTest_AppTheme);
+
+        LockConfig config = DeclaredConfig.load(app, SimpleLock.defaults());
+        assertFalse(config.isInit());
+        assertEquals(LockConfig.DEFAULT_MAX_LENGTH, config.getMaxLength());
+        assertEquals(LockConfig.DEFAULT_SHUFFLE_BUTTONS, config.isShuffleButtons());
+    }
+}
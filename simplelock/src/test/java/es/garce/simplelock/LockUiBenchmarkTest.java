@@ -0,0 +1,345 @@
+package es.garce.simplelock;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Configuration;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ActivityController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Drives scripted lock sessions on the JVM: digits, deletes, long deletes, done and rotations on
+ * {@link SimpleLockActivity} and {@link SimpleLockNewActivity}. It measures the time of onCreate,
+ * the allocations of every key press and the heap kept once the sessions end, and fails when they
+ * go over the budgets of {@code ui-budgets.properties}. The onCreate time depends on the
+ * machine, so it is only checked in benchmark runs, with {@code -PuiBenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class LockUiBenchmarkTest {
+
+    private static final String PIN = "1234";
+    private static final int WARM_UP_SESSIONS = 50;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    //Key indexes of PinPadView, digits 1-9 are keys 0-8
+    private static final int KEY_DONE = 9;
+    private static final int KEY_ZERO = 10;
+    private static final int KEY_DELETE = 11;
+
+    private static Properties budgets;
+
+    private long createNanos;
+    private int creates;
+
+    /**
+     * Checks the pin itself, so no hash runs in the sessions, and finishes the lock.
+     */
+    private static class EnterListener implements OnEnterPin {
+        @Override
+        public boolean onEnterPin(String pinCode) {
+            return PIN.equals(pinCode);
+        }
+
+        @Override
+        public void onCorrectPin(SimpleLockActivity simpleLockActivity) {
+            simpleLockActivity.finish();
+        }
+
+        @Override
+        public void onWrongPin(SimpleLockActivity simpleLockActivity) {
+        }
+
+        @Override
+        public void onBack(SimpleLockActivity simpleLockActivity) {
+            simpleLockActivity.finish();
+        }
+    }
+
+    private static class NewListener implements OnNewPin {
+        @Override
+        public boolean onDone(SimpleLockNewActivity simpleLockActivity, String pin) {
+            simpleLockActivity.finish();
+            return false;
+        }
+
+        @Override
+        public void onError(SimpleLockNewActivity simpleLockActivity, int code) {
+        }
+
+        @Override
+        public void onSaved(SimpleLockNewActivity simpleLockActivity, String pin) {
+        }
+    }
+
+    @BeforeClass
+    public static void fastHashes() {
+        //New pins are hashed and confirmed in background, don't make the sessions wait for it
+        SimpleLockPin.setTargetLatency(1);
+    }
+
+    @BeforeClass
+    public static void loadBudgets() throws IOException {
+        budgets = new Properties();
+        InputStream in = LockUiBenchmarkTest.class.getClassLoader()
+                .getResourceAsStream("ui-budgets.properties");
+        try {
+            budgets.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void onCreateWithinBudget() {
+        assumeTrue(Boolean.getBoolean("simplelock.uiBenchmark"));
+        for (int i = 0; i < WARM_UP_SESSIONS; i++)
+            runSession(i);
+        createNanos = 0;
+        creates = 0;
+        for (int i = 0; i < 200; i++)
+            runSession(i);
+
+        double average = createNanos / 1e6 / creates;
+        assertTrue("onCreate takes " + average + " ms", average <= budget("onCreateMillis"));
+    }
+
+    @Test
+    public void keyPressAllocationsWithinBudget() {
+        assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        ActivityController<SimpleLockActivity> controller = enterPin();
+        View pad = layout(controller.get());
+        MotionEvent[][] digits = new MotionEvent[4][];
+        for (int i = 0; i < digits.length; i++)
+            digits[i] = events(pad, digitKey(PIN.charAt(i)));
+        MotionEvent[] delete = events(pad, KEY_DELETE);
+
+        //Type and delete the pin, the pad is left as it started
+        for (int i = 0; i < 100; i++)
+            typeAndDelete(pad, digits, delete);
+        long thread = Thread.currentThread().getId();
+        int cycles = 1000;
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < cycles; i++)
+            typeAndDelete(pad, digits, delete);
+        long perPress = (threads.getThreadAllocatedBytes(thread) - start)
+                / (cycles * 2L * digits.length);
+        finish(controller);
+
+        assertTrue("A key press allocates " + perPress + " bytes",
+                perPress <= budget("bytesPerKeyPress"));
+    }
+
+    @Test
+    public void sessionsDoNotRetainHeap() {
+        for (int i = 0; i < WARM_UP_SESSIONS; i++)
+            runSession(i);
+        long baseline = usedHeap();
+
+        List<WeakReference<Activity>> activities = new ArrayList<>();
+        int sessions = (int) budget("sessions");
+        for (int i = 0; i < sessions; i++)
+            activities.add(runSession(i));
+
+        long retained = (usedHeap() - baseline) / 1024;
+        for (WeakReference<Activity> activity : activities)
+            assertNull("Retained " + activity.get(), activity.get());
+        assertEquals(0, LockResults.enterPin.size());
+        assertEquals(0, LockResults.newPin.size());
+        assertTrue(sessions + " sessions retained " + retained + " KB",
+                retained <= budget("retainedHeapKb"));
+    }
+
+    /**
+     * Runs one scripted session, every fifth one on the new pin lock and every tenth one rotated
+     * in the middle.
+     * @return The last activity of the session.
+     */
+    private WeakReference<Activity> runSession(int session) {
+        boolean rotate = session % 10 == 0;
+        if (session % 5 == 4) {
+            ActivityController<SimpleLockNewActivity> controller = newPin();
+            View pad = layout(controller.get());
+            type(pad, "12");
+            press(pad, KEY_DELETE);
+            longPressDelete(pad);
+            type(pad, PIN);
+            press(pad, KEY_DONE);
+            if (rotate)
+                pad = rotate(controller);
+            type(pad, PIN);
+            press(pad, KEY_DONE);
+            awaitFinishing(controller.get());
+            return finish(controller);
+        }
+
+        ActivityController<SimpleLockActivity> controller = enterPin();
+        View pad = layout(controller.get());
+        type(pad, "98");
+        press(pad, KEY_DONE);
+        longPressDelete(pad);
+        type(pad, "12");
+        if (rotate)
+            pad = rotate(controller);
+        type(pad, "35");
+        press(pad, KEY_DELETE);
+        press(pad, KEY_DELETE);
+        type(pad, "34");
+        press(pad, KEY_DONE);
+        return finish(controller);
+    }
+
+    private ActivityController<SimpleLockActivity> enterPin() {
+        Context context = RuntimeEnvironment.application;
+        String tag = LockResults.enterPin.registerOneShot(context, new EnterListener());
+        return create(Robolectric.buildActivity(SimpleLockActivity.class)
+                .withIntent(SimpleLockActivity.newIntent(context, tag, null)));
+    }
+
+    private ActivityController<SimpleLockNewActivity> newPin() {
+        Context context = RuntimeEnvironment.application;
+        String tag = LockResults.newPin.registerOneShot(context, new NewListener());
+        return create(Robolectric.buildActivity(SimpleLockNewActivity.class)
+                .withIntent(SimpleLockNewActivity.newIntent(context, tag, 1, null)));
+    }
+
+    private <T extends Activity> ActivityController<T> create(ActivityController<T> controller) {
+        long start = System.nanoTime();
+        controller.create();
+        createNanos += System.nanoTime() - start;
+        creates++;
+        return controller.start().resume().visible();
+    }
+
+    private View rotate(ActivityController<? extends Activity> controller) {
+        Configuration config = new Configuration(controller.get().getResources().getConfiguration());
+        config.orientation = config.orientation == Configuration.ORIENTATION_LANDSCAPE
+                ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
+        controller.configurationChange(config);
+        return layout(controller.get());
+    }
+
+    /**
+     * Runs the tasks posted to the main thread until the activity finishes, for results computed
+     * in background.
+     */
+    private static void awaitFinishing(Activity activity) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!activity.isFinishing() && System.nanoTime() < deadline) {
+            ShadowLooper.runUiThreadTasks();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static WeakReference<Activity> finish(ActivityController<? extends Activity> controller) {
+        Activity activity = controller.get();
+        assertTrue("The session didn't finish the lock", activity.isFinishing());
+        controller.pause().stop().destroy();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        return new WeakReference<>(activity);
+    }
+
+    /**
+     * Lays out the lock so the keys of the pad have bounds.
+     * @return The pin pad.
+     */
+    private static View layout(Activity activity) {
+        View root = activity.findViewById(android.R.id.content);
+        root.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        root.layout(0, 0, WIDTH, HEIGHT);
+        return activity.findViewById(R.id.es_garce_simplelock_pin_pad);
+    }
+
+    private static void typeAndDelete(View pad, MotionEvent[][] digits, MotionEvent[] delete) {
+        for (MotionEvent[] digit : digits)
+            dispatch(pad, digit);
+        for (int i = 0; i < digits.length; i++)
+            dispatch(pad, delete);
+    }
+
+    private static void type(View pad, String pin) {
+        for (int i = 0; i < pin.length(); i++)
+            press(pad, digitKey(pin.charAt(i)));
+    }
+
+    private static void press(View pad, int key) {
+        dispatch(pad, events(pad, key));
+    }
+
+    private static void longPressDelete(View pad) {
+        MotionEvent[] events = events(pad, KEY_DELETE);
+        pad.dispatchTouchEvent(events[0]);
+        ShadowLooper.idleMainLooper(1000);
+        pad.dispatchTouchEvent(events[1]);
+    }
+
+    private static void dispatch(View pad, MotionEvent[] events) {
+        pad.dispatchTouchEvent(events[0]);
+        pad.dispatchTouchEvent(events[1]);
+    }
+
+    /**
+     * @return The down and up events of a tap in the middle of a key.
+     */
+    private static MotionEvent[] events(View pad, int key) {
+        float width = (pad.getWidth() - pad.getPaddingLeft() - pad.getPaddingRight()) / 3f;
+        float height = (pad.getHeight() - pad.getPaddingTop() - pad.getPaddingBottom()) / 4f;
+        float x = pad.getPaddingLeft() + (key % 3 + 0.5f) * width;
+        float y = pad.getPaddingTop() + (key / 3 + 0.5f) * height;
+        return new MotionEvent[] {
+                MotionEvent.obtain(0, 0, MotionEvent.ACTION_DOWN, x, y, 0),
+                MotionEvent.obtain(0, 0, MotionEvent.ACTION_UP, x, y, 0)};
+    }
+
+    private static int digitKey(char digit) {
+        //The keys are not shuffled in the default settings
+        return digit == '0' ? KEY_ZERO : digit - '1';
+    }
+
+    private static long budget(String name) {
+        return Long.parseLong(budgets.getProperty(name).trim());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}